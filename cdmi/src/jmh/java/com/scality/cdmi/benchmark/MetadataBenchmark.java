@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.scality.cdmi.api.CdmiConnectionException;
+import com.scality.cdmi.connector.CdmiTypes;
+import com.scality.cdmi.impl.metadata.CdmiMetadata;
+import com.scality.cdmi.impl.utils.ParsingUtils;
+
+/**
+ * Cost of parsing the JSON answers of the server: the metadata of a data
+ * object and the children of a large container.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MetadataBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int children;
+
+    private String metadata;
+    private byte[] metadataBytes;
+    private String listing;
+
+    @Setup
+    public void setUp() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"objectType\": \"").append(CdmiTypes.CDMI_OBJECT).append("\",")
+                .append(" \"objectID\": \"0000706D0010B84FAD185C425D8B537E\",")
+                .append(" \"objectName\": \"data object.bin\",")
+                .append(" \"parentURI\": \"/benchmark/\",")
+                .append(" \"parentID\": \"00007E7F00102E230ED82694DAA975D2\",")
+                .append(" \"domainURI\": \"/cdmi_domains/benchmark/\",")
+                .append(" \"capabilitiesURI\": \"/cdmi_capabilities/dataobject/\",")
+                .append(" \"completionStatus\": \"Complete\",")
+                .append(" \"mimetype\": \"application/octet-stream\",")
+                .append(" \"metadata\": {\"cdmi_size\": \"1048576\",")
+                .append(" \"cdmi_ctime\": \"2013-06-12T14:02:41.125473Z\",")
+                .append(" \"cdmi_mtime\": \"2013-06-12T14:02:42.774210Z\",")
+                .append(" \"cdmi_atime\": \"2013-06-12T14:02:43.000000Z\",")
+                .append(" \"cdmi_owner\": \"benchmark\"");
+        for (int i = 0; i < 16; ++i) {
+            json.append(", \"user_key_").append(i).append("\": \"some user value ").append(i)
+                    .append('"');
+        }
+        json.append("}}");
+        metadata = json.toString();
+        metadataBytes = metadata.getBytes();
+
+        json = new StringBuilder();
+        json.append("{\"objectType\": \"").append(CdmiTypes.CDMI_CONTAINER).append("\",")
+                .append(" \"objectName\": \"benchmark/\", \"childrenrange\": \"0-")
+                .append(children - 1).append("\", \"children\": [");
+        for (int i = 0; i < children; ++i) {
+            if (i > 0) {
+                json.append(", ");
+            }
+            json.append("\"child-").append(i).append(i % 10 == 0 ? "/\"" : ".bin\"");
+        }
+        json.append("]}");
+        listing = json.toString();
+    }
+
+    @Benchmark
+    public CdmiMetadata parseString() throws CdmiConnectionException {
+        return new CdmiMetadata(metadata);
+    }
+
+    @Benchmark
+    public CdmiMetadata parseStream() throws CdmiConnectionException {
+        return CdmiMetadata.parse(new ByteArrayInputStream(metadataBytes));
+    }
+
+    @Benchmark
+    public String[] extractChildren() throws CdmiConnectionException {
+        return new ParsingUtils().extractArray(listing, "children");
+    }
+}
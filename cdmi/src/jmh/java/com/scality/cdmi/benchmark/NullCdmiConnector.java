@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.benchmark;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+
+import com.scality.cdmi.api.CdmiConnectionException;
+import com.scality.cdmi.api.RequestFactory;
+import com.scality.cdmi.api.RetryStrategy;
+import com.scality.cdmi.connector.CdmiConnector;
+
+/**
+ * A {@link CdmiConnector} accepting and discarding all the writes, so that
+ * benchmarks only measure the client side.
+ */
+public class NullCdmiConnector extends CdmiConnector {
+
+    /**
+     * Constructor.
+     * 
+     * @param multiThreaded
+     *            whether the connector allows concurrent requests.
+     */
+    public NullCdmiConnector(boolean multiThreaded) {
+        super(RequestFactory.newCdmiFactory(URI.create("http://localhost:80"), "1.0.1"), null,
+                new RetryStrategy(), multiThreaded);
+    }
+
+    private static HttpResponse noContent() {
+        return new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1,
+                HttpStatus.SC_NO_CONTENT, null));
+    }
+
+    @Override
+    public HttpResponse updateObjectNonCdmi(String dataObjectPath, long offset, long length,
+            byte[] data) throws CdmiConnectionException {
+        return noContent();
+    }
+
+    @Override
+    public HttpResponse updateObjectNonCdmi(String dataObjectPath, long offset, long length,
+            File file, long fileOffset) throws CdmiConnectionException {
+        return noContent();
+    }
+
+    @Override
+    public HttpResponse updateObjectNonCdmi(String dataObjectPath, long offset, ByteBuffer data)
+            throws CdmiConnectionException {
+        return noContent();
+    }
+
+    @Override
+    public void forceFlushCdmi(String dataObjectPath) throws CdmiConnectionException {
+    }
+
+    @Override
+    public void forceFlushNonCdmi(String dataObjectPath) throws CdmiConnectionException {
+    }
+}
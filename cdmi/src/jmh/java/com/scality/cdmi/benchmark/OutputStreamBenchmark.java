@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.scality.cdmi.api.CdmiConnectionException;
+import com.scality.cdmi.connector.CdmiBufferPool;
+import com.scality.cdmi.connector.CdmiOutputStream;
+
+/**
+ * Throughput of the buffering of {@link CdmiOutputStream}, against a
+ * connector discarding the parts. Each invocation writes 16MB in small
+ * writes; the score is in writes per millisecond.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OutputStreamBenchmark {
+    private static final int TOTAL = 16 * 1024 * 1024;
+    private static final int WRITE_SIZE = 8192;
+    private static final int WRITES = TOTAL / WRITE_SIZE;
+
+    @Param({ "1048576", "4194304" })
+    public int partSize;
+
+    @Param({ "false", "true" })
+    public boolean multiThreaded;
+
+    @Param({ "false", "true" })
+    public boolean pooled;
+
+    private NullCdmiConnector connector;
+    private byte[] data;
+
+    @Setup
+    public void setUp() {
+        connector = new NullCdmiConnector(multiThreaded);
+        if (pooled) {
+            connector.setBufferPool(new CdmiBufferPool(partSize, 8L * partSize, false));
+        }
+        data = new byte[WRITE_SIZE];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WRITES)
+    public void write() throws CdmiConnectionException {
+        CdmiOutputStream out = CdmiOutputStream.fromObjectID(
+                "0000706D0010B84FAD185C425D8B537E", null, 0, connector, partSize, 4);
+        for (int i = 0; i < WRITES; ++i) {
+            out.write(data, 0, WRITE_SIZE);
+        }
+        out.close();
+    }
+}
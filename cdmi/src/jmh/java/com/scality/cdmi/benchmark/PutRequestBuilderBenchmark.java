@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.benchmark;
+
+import java.net.URI;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpPut;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.scality.cdmi.api.CdmiConfigurationException;
+import com.scality.cdmi.api.RequestFactory;
+import com.scality.cdmi.connector.CdmiTypes;
+import com.scality.cdmi.connector.PutRequestBuilder;
+
+/**
+ * Cost of building CDMI PUT bodies: formatting of the JSON maps and base64
+ * encoding of the contents, compared with the nonCDMI body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PutRequestBuilderBenchmark {
+    private static final String KEY = "/benchmark/data object.bin";
+
+    @Param({ "4096", "1048576" })
+    public int size;
+
+    private RequestFactory cdmi;
+    private RequestFactory nonCdmi;
+    private byte[] contents;
+
+    @Setup
+    public void setUp() {
+        cdmi = RequestFactory.newCdmiFactory(URI.create("http://localhost:80"), "1.0.2");
+        nonCdmi = cdmi.newNonCdmiFactory();
+        contents = new byte[size];
+        new Random(42).nextBytes(contents);
+    }
+
+    @Benchmark
+    public HttpPut cdmiContents() throws CdmiConfigurationException {
+        return cdmi.newPut(CdmiTypes.CDMI_OBJECT, KEY).addContents(contents).build();
+    }
+
+    @Benchmark
+    public HttpPut cdmiMetadata() throws CdmiConfigurationException {
+        PutRequestBuilder builder = cdmi.newPut(CdmiTypes.CDMI_OBJECT, KEY, "metadata");
+        for (int i = 0; i < 32; ++i) {
+            builder.addMetadata("user_key_" + i, "some user value " + i);
+        }
+        return builder.build();
+    }
+
+    @Benchmark
+    public HttpPut nonCdmiContents() throws CdmiConfigurationException {
+        return nonCdmi.newPut(CdmiTypes.CDMI_OBJECT, KEY).addContents(contents).build();
+    }
+}
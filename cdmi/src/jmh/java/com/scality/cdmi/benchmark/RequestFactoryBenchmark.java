@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.benchmark;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.scality.cdmi.api.CdmiConfigurationException;
+import com.scality.cdmi.api.RequestFactory;
+import com.scality.cdmi.connector.CdmiTypes;
+
+/**
+ * Cost of building the requests with the {@link RequestFactory}
+ * implementations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestFactoryBenchmark {
+    private static final String KEY = "/benchmark/some container/data object-0042.bin";
+
+    private RequestFactory cdmi;
+    private RequestFactory nonCdmi;
+
+    @Setup
+    public void setUp() {
+        cdmi = RequestFactory.newCdmiFactory(URI.create("http://localhost:80"), "1.0.2");
+        nonCdmi = cdmi.newNonCdmiFactory();
+    }
+
+    @Benchmark
+    public HttpGet cdmiGetMetadata() throws CdmiConfigurationException {
+        return cdmi.newGet(KEY, "metadata");
+    }
+
+    @Benchmark
+    public HttpGet cdmiGetWithRange() throws CdmiConfigurationException {
+        return cdmi.newGetWithRange(KEY, 1048576, 65536);
+    }
+
+    @Benchmark
+    public HttpGet nonCdmiGetWithRange() throws CdmiConfigurationException {
+        return nonCdmi.newGetWithRange(KEY, 1048576, 65536);
+    }
+
+    @Benchmark
+    public HttpPut cdmiPutContainer() throws CdmiConfigurationException {
+        return cdmi.newPut(CdmiTypes.CDMI_CONTAINER, KEY).build();
+    }
+
+    @Benchmark
+    public HttpPut nonCdmiPutWithRange() throws CdmiConfigurationException {
+        return nonCdmi.newPutWithRange(CdmiTypes.CDMI_OBJECT, KEY, 1048576, 65536).build();
+    }
+
+    @Benchmark
+    public HttpDelete cdmiDelete() throws CdmiConfigurationException {
+        return cdmi.newDelete(KEY);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.api;
+
+import java.io.File;
+import java.util.concurrent.Future;
+
+import org.apache.http.concurrent.FutureCallback;
+
+/**
+ * An asynchronous counterpart of {@link CdmiClient}. Each operation returns
+ * immediately with a {@link Future}, and the optional {@link FutureCallback}
+ * is notified once the operation completes, fails or is cancelled. The
+ * operations behave as the corresponding operations of {@link CdmiClient}.
+ * 
+ * The implementation obtained from a connection manager runs the blocking
+ * operations of its {@link CdmiClient} on a bounded pool of threads: the
+ * calls do not block, but each running operation still holds a thread.
+ * 
+ * Example (check and read the metadata of many keys concurrently):
+ * 
+ * <pre>
+ * {@code
+ *  AsyncCdmiClient client = cm.getAsyncClient();
+ *  List<Future<FileMetadata>> results = new ArrayList<Future<FileMetadata>>();
+ *  for (String key : keys) {
+ *      results.add(client.getMetadata(key, null));
+ *  }
+ *  for (Future<FileMetadata> result : results) {
+ *      System.out.println(result.get().getLength());
+ *  }
+ * }
+ * </pre>
+ */
+public interface AsyncCdmiClient {
+    /**
+     * @see CdmiClient#put(String, File)
+     */
+    Future<Boolean> put(String key, File file, FutureCallback<Boolean> callback);
+
+    /**
+     * @see CdmiClient#get(String, File)
+     */
+    Future<Boolean> get(String key, File destFile, FutureCallback<Boolean> callback);
+
+    /**
+     * @see CdmiClient#exists(String)
+     */
+    Future<Boolean> exists(String key, FutureCallback<Boolean> callback);
+
+    /**
+     * @see CdmiClient#getMetadata(String)
+     */
+    Future<FileMetadata> getMetadata(String key, FutureCallback<FileMetadata> callback);
+
+    /**
+     * @see CdmiClient#listMetadata(String)
+     */
+    Future<FileMetadata[]> listMetadata(String key, FutureCallback<FileMetadata[]> callback);
+
+    /**
+     * @see CdmiClient#delete(String, boolean)
+     */
+    Future<Boolean> delete(String key, boolean recursive, FutureCallback<Boolean> callback);
+
+    /**
+     * @see CdmiClient#move(String, String)
+     */
+    Future<Boolean> move(String srcKey, String dstKey, FutureCallback<Boolean> callback);
+
+    /**
+     * Stop running operations. Later operations fail.
+     */
+    void shutdown();
+}
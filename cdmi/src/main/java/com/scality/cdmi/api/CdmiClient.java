@@ -37,6 +37,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Iterator;
 
 import com.scality.cdmi.connector.CdmiInputStream;
 import com.scality.cdmi.connector.CdmiOutputStream;
@@ -160,6 +161,25 @@ public interface CdmiClient {
      */
     InputStream open(String key, long startPos, int maxRead) throws IOException;
 
+    /**
+     * Create a new {@link CdmiInputStream} for reading a data object stored in
+     * the CDMI repository, identified by its object ID. The metadata of the
+     * data object is not read.
+     * 
+     * @param objectID
+     *            the object ID of the data object.
+     * @param startPos
+     *            the offset into the data object.
+     * @param maxRead
+     *            the maximum length of the contents to be downloaded, or -1 to
+     *            read up to the end.
+     * @return a {@link CdmiInputStream} object used for reading.
+     * @throws IOException
+     *             if any error occurred during communication.
+     */
+    InputStream openObjectID(String objectID, long startPos, int maxRead)
+            throws IOException;
+
     /**
      * Create a new {@link CdmiOutputStream} for writing to a data object stored
      * in the CDMI repository, starting at a specified offset.
@@ -174,6 +194,22 @@ public interface CdmiClient {
      */
      OutputStream write(String key, long startPos) throws IOException;
 
+    /**
+     * Create a new {@link CdmiOutputStream} for writing to a data object stored
+     * in the CDMI repository, identified by its object ID. The metadata of the
+     * data object is not read.
+     * 
+     * @param objectID
+     *            the object ID of the data object.
+     * @param startPos
+     *            the start position for the write.
+     * @return a {@link CdmiOutputStream} object used for writing.
+     * @throws IOException
+     *             if any error occurred during communication.
+     */
+     OutputStream writeObjectID(String objectID, long startPos)
+             throws IOException;
+
     /**
      * Create a new {@link CdmiOutputStream} for appending to a data object
      * stored in the CDMI repository.
@@ -186,6 +222,19 @@ public interface CdmiClient {
      */
      OutputStream append(String key) throws IOException;
 
+    /**
+     * Read the object ID of a data object stored in the CDMI repository, which
+     * can be used for opening it later without reading its metadata again.
+     * 
+     * @param key
+     *            the name of the data object in the repository.
+     * @return the object ID of the data object.
+     * @throws IOException
+     *             if the name does not exist or if any error occurred during
+     *             communication.
+     */
+    String getObjectID(String key) throws IOException;
+
     /**
      * Delete a container or a data object from the CDMI repository.
      * 
@@ -289,6 +338,23 @@ public interface CdmiClient {
      */
     FileMetadata[] listMetadata(String key) throws IOException;
 
+    /**
+     * List the names of the children of a container in the CDMI repository.
+     * The children are read lazily, in pages, while iterating, so this method
+     * can be used with very large containers. The names of the containers end
+     * with a "/".
+     * 
+     * @param key
+     *            the name of the container in the CDMI repository.
+     * @return an {@link Iterator} over the names of the children, relative to
+     *         the container. The I/O errors reading the next children are
+     *         thrown as a {@link java.nio.file.DirectoryIteratorException}.
+     * @throws IOException
+     *             if any error occurred during communication, or if the key
+     *             does not exist.
+     */
+    Iterator<String> listChildren(String key) throws IOException;
+
     /**
      * Set or update a metadata key associated with a data object or a
      * container.
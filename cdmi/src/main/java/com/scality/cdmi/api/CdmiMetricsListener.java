@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.api;
+
+import java.io.IOException;
+
+/**
+ * Receives the measures of the requests sent to the CDMI server. Operations
+ * are named after the method of the connector sending the request, for example
+ * readMetadata, readObjectNonCdmi or updateObjectNonCdmi.
+ * 
+ * Listeners are called from the threads sending the requests, so they must be
+ * thread-safe and return quickly.
+ */
+public interface CdmiMetricsListener {
+
+    /**
+     * Called once per request, after its last attempt.
+     * 
+     * @param operation
+     *            the name of the operation.
+     * @param status
+     *            the HTTP status of the response, or -1 if no response was
+     *            received.
+     * @param latencyNanos
+     *            the time spent until the response headers were received,
+     *            retries included.
+     * @param bytesSent
+     *            the length of the request body.
+     * @param bytesReceived
+     *            the length of the response body, as announced by the server.
+     */
+    void onRequest(String operation, int status, long latencyNanos, long bytesSent,
+            long bytesReceived);
+
+    /**
+     * Called when an attempt is going to be retried.
+     * 
+     * @param operation
+     *            the name of the operation.
+     * @param attempt
+     *            the number of attempts made so far.
+     * @param status
+     *            the HTTP status of the failed attempt, or -1 if no response
+     *            was received.
+     * @param delayMillis
+     *            the time to wait before the next attempt.
+     */
+    void onRetry(String operation, int attempt, int status, long delayMillis);
+
+    /**
+     * Called when an attempt failed without response, for example on a
+     * connection timeout.
+     * 
+     * @param operation
+     *            the name of the operation.
+     * @param error
+     *            the error raised by the attempt.
+     */
+    void onError(String operation, IOException error);
+}
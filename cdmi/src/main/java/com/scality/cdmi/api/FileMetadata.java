@@ -70,7 +70,8 @@ public interface FileMetadata {
 	public boolean isContainer();
 	
 	/**
-	 * @return the metadata information sent by the CDMI server.
+	 * @return the metadata information sent by the CDMI server, or null if the
+	 *         client does not keep it.
 	 */
 	public String getCdmiMetadata();
 }
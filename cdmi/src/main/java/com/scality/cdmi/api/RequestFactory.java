@@ -34,7 +34,9 @@
 package com.scality.cdmi.api;
 
 import java.net.URI;
+import java.net.URISyntaxException;
 
+import org.apache.http.HttpHost;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
@@ -42,6 +44,7 @@ import org.apache.http.client.methods.HttpHead;
 import com.scality.cdmi.connector.PutRequestBuilder;
 import com.scality.cdmi.impl.CdmiRequestFactory;
 import com.scality.cdmi.impl.NonCdmiRequestFactory;
+import com.scality.cdmi.impl.utils.UriUtils;
 
 /**
  * Class used for generating all the outgoing requests to the CDMI server.
@@ -77,6 +80,12 @@ public abstract class RequestFactory {
      */
     protected final int nonCdmiPort;
 
+    /**
+     * The scheme and authority of all the request URIs, computed once, or
+     * null if they are invalid.
+     */
+    private final String baseUri;
+
     /**
      * Constructor.
      * 
@@ -93,6 +102,7 @@ public abstract class RequestFactory {
         this.nonCdmiHost = host;
         this.port = (port > 0) ? port : 80;
         this.nonCdmiPort = port;
+        this.baseUri = baseUri(scheme, host, this.port);
     }
 
     /**
@@ -118,6 +128,58 @@ public abstract class RequestFactory {
         this.nonCdmiHost = nonCdmiHost;
         this.port = (port > 0) ? port : 80;
         this.nonCdmiPort = nonCdmiPort;
+        this.baseUri = baseUri(scheme, host, this.port);
+    }
+
+    private static String baseUri(String scheme, String host, int port) {
+        try {
+            return new URI(scheme, null, host, port, null, null, null)
+                    .toString();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Build the URI of a request. The key is escaped with
+     * {@link #URIEscapeString(String)}, and both the key and the query are
+     * quoted as with {@link URI#URI(String, String, String, int, String, String, String)}.
+     * 
+     * @param key
+     *            the name of the resource in the CDMI repository.
+     * @param query
+     *            the query without the starting '?', or null.
+     * @return the URI of the request.
+     * @throws CdmiConfigurationException
+     *             if the URI is invalid.
+     */
+    protected URI newURI(String key, String query)
+            throws CdmiConfigurationException {
+        if (baseUri == null) {
+            try {
+                // Fails again, with the reason.
+                new URI(scheme, null, host, port, null, null, null);
+            } catch (URISyntaxException e) {
+                throw new CdmiConfigurationException(e);
+            }
+        }
+        StringBuilder buffer = new StringBuilder(baseUri.length()
+                + key.length() + 32);
+        buffer.append(baseUri);
+        UriUtils.appendPath(buffer, key);
+        UriUtils.appendQuery(buffer, query);
+        try {
+            return new URI(buffer.toString());
+        } catch (URISyntaxException e) {
+            throw new CdmiConfigurationException(e);
+        }
+    }
+
+    /**
+     * @return the host receiving the requests of this factory.
+     */
+    public HttpHost getTarget() {
+        return new HttpHost(host, port, scheme);
     }
 
     /**
@@ -223,7 +285,9 @@ public abstract class RequestFactory {
      * @param offset
      *            the starting offset for the request
      * @param length
-     *            the length used in determining the range
+     *            the length used in determining the range. For non-CDMI
+     *            requests, a negative length reads up to the end of the
+     *            resource.
      * @return a {@link HttpGet} request
      * @throws CdmiConfigurationException
      *             if there was any issue in creating the request.
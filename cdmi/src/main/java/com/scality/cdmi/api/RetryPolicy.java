@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.api;
+
+import java.io.IOException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Decides whether a request to the CDMI server is sent again after a failed
+ * attempt, and how long to wait before doing so. A policy is shared by all the
+ * threads using a connector, so implementations must be thread-safe.
+ */
+public interface RetryPolicy {
+    /**
+     * Boolean request parameter marking a request that must not be repeated
+     * once it may have reached the server, such as a move, even though its
+     * method is PUT.
+     */
+    String NON_IDEMPOTENT = "cdmi.non-idempotent";
+
+    /**
+     * Called once for every new request, before its first attempt. Allows
+     * policies to account for the live traffic.
+     * 
+     * @param request
+     *            the request about to be sent.
+     */
+    void onRequest(HttpUriRequest request);
+
+    /**
+     * Called after each attempt but the successful ones. Exactly one of
+     * response and error is not null.
+     * 
+     * @param request
+     *            the request that was sent.
+     * @param attempt
+     *            the number of attempts made so far, starting at 1.
+     * @param previousDelayMillis
+     *            the delay returned for the previous attempt, or 0 after the
+     *            first attempt.
+     * @param response
+     *            the response to the last attempt, or null if it failed.
+     * @param error
+     *            the error raised by the last attempt, or null if a response
+     *            was received.
+     * @return the time to wait in milliseconds before the next attempt, or a
+     *         negative value to give up and hand the last response or error
+     *         to the caller.
+     */
+    long nextRetryDelay(HttpUriRequest request, int attempt, long previousDelayMillis,
+            HttpResponse response, IOException error);
+}
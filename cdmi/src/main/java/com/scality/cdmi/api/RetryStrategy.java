@@ -44,6 +44,7 @@ public class RetryStrategy {
     int maxRetries;
     int sleepTimeBetweenRetriesMillis;
     int timeOutMillis;
+    RetryPolicy retryPolicy;
 
     /**
      * Default constructor with timeout at 10seconds and no sleep between retries
@@ -87,9 +88,26 @@ public class RetryStrategy {
         return timeOutMillis;
     }
 
+    /**
+     * @return the policy deciding when requests are retried, or null to use
+     *         an exponential backoff built from this strategy.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @param retryPolicy
+     *            the policy deciding when requests are retried, or null to
+     *            use an exponential backoff built from this strategy.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
     @Override
     public String toString() {
         return "RetryStrategy [maxRetries=" + maxRetries + ", sleepTimeBetweenRetries="
-                + sleepTimeBetweenRetriesMillis + ", timeout=" + timeOutMillis + "]";
+                + sleepTimeBetweenRetriesMillis + ", timeout=" + timeOutMillis + ", retryPolicy=" + retryPolicy + "]";
     }
 }
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.connector;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Date;
+import java.util.Random;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.HttpRequestRetryHandler;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.client.RequestWrapper;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+import com.scality.cdmi.api.RetryPolicy;
+import com.scality.cdmi.api.RetryStrategy;
+
+/**
+ * Default {@link RetryPolicy}: exponential backoff with decorrelated jitter.
+ * 
+ * Requests are retried when the server answers 500, 502, 503, 504 or 429, or
+ * when no connection or response could be obtained. Each delay is drawn at
+ * random between the base delay and three times the previous delay, and is
+ * capped by the maximum delay, so that clients failing together do not retry
+ * together. A Retry-After header, in seconds or as an HTTP date, is honored:
+ * the delay is never shorter, and the request is given up if the server asks
+ * to wait longer than the maximum delay.
+ * 
+ * Requests that may have been applied by the server although no answer was
+ * received are only retried when they are idempotent: GET, HEAD and
+ * unconditional PUTs. DELETEs, conditional requests and requests marked with
+ * {@link RetryPolicy#NON_IDEMPOTENT}, such as moves, are only retried when
+ * they could not be sent, or when the server answers 503 or 429 without
+ * processing them.
+ * 
+ * An optional {@link RetryBudget} limits the retries to a fraction of the
+ * requests sent through the policy.
+ */
+public class BackoffRetryPolicy implements RetryPolicy {
+    /** Default maximum delay between two attempts. */
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 30000;
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final String IF_MATCH = "If-Match";
+    private static final String IF_NONE_MATCH = "If-None-Match";
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final RetryBudget budget;
+    private final Random random;
+
+    /**
+     * Constructor.
+     * 
+     * @param maxAttempts
+     *            the maximum number of attempts for a request, including the
+     *            first one.
+     * @param baseDelayMillis
+     *            the minimum delay between two attempts.
+     * @param maxDelayMillis
+     *            the maximum delay between two attempts.
+     * @param budget
+     *            the budget shared by the retries, or null for no limit.
+     */
+    public BackoffRetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis,
+            RetryBudget budget) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = Math.max(0, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+        this.budget = budget;
+        this.random = new Random();
+    }
+
+    /**
+     * Build the policy described by a {@link RetryStrategy}: at most
+     * {@link RetryStrategy#getMaxRetries()} attempts, starting with a delay of
+     * {@link RetryStrategy#getSleepTimeBetweenRetries()}, without budget.
+     * 
+     * @param strategy
+     *            the retry strategy.
+     */
+    public BackoffRetryPolicy(RetryStrategy strategy) {
+        this(strategy.getMaxRetries(), strategy.getSleepTimeBetweenRetries(),
+                DEFAULT_MAX_DELAY_MILLIS, null);
+    }
+
+    /**
+     * @return the budget shared by the retries, or null.
+     */
+    public RetryBudget getBudget() {
+        return budget;
+    }
+
+    @Override
+    public void onRequest(HttpUriRequest request) {
+        if (budget != null) {
+            budget.deposit();
+        }
+    }
+
+    @Override
+    public long nextRetryDelay(HttpUriRequest request, int attempt, long previousDelayMillis,
+            HttpResponse response, IOException error) {
+        if (attempt >= maxAttempts || !isRepeatable(request)) {
+            return -1;
+        }
+        boolean idempotent = isIdempotent(request);
+        long minDelay = baseDelayMillis;
+        if (response != null) {
+            int status = response.getStatusLine().getStatusCode();
+            if (!isRetryable(status) || (!idempotent && !isUnprocessed(status))) {
+                return -1;
+            }
+            long retryAfter = retryAfterMillis(response);
+            if (retryAfter > maxDelayMillis) {
+                return -1;
+            }
+            minDelay = Math.max(minDelay, retryAfter);
+        } else if (!isRetryable(error) || (!idempotent && !isNotSent(error))) {
+            return -1;
+        }
+        if (budget != null && !budget.withdraw()) {
+            return -1;
+        }
+        long upper = Math.min(maxDelayMillis,
+                Math.max(minDelay, Math.max(previousDelayMillis, baseDelayMillis) * 3));
+        if (upper <= minDelay) {
+            return minDelay;
+        }
+        return minDelay + (long) (random.nextDouble() * (upper - minDelay));
+    }
+
+    /**
+     * @param status
+     *            an HTTP status code.
+     * @return true if a request answered with this status may succeed later.
+     */
+    protected boolean isRetryable(int status) {
+        switch (status) {
+        case HttpStatus.SC_INTERNAL_SERVER_ERROR:
+        case HttpStatus.SC_BAD_GATEWAY:
+        case HttpStatus.SC_SERVICE_UNAVAILABLE:
+        case HttpStatus.SC_GATEWAY_TIMEOUT:
+        case 429: // Too Many Requests, missing from HttpStatus.
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @param error
+     *            the error raised while sending a request.
+     * @return true if the request may succeed later.
+     */
+    protected boolean isRetryable(IOException error) {
+        return error instanceof ConnectTimeoutException || error instanceof ConnectException
+                || error instanceof NoHttpResponseException;
+    }
+
+    /**
+     * @param status
+     *            a retryable HTTP status code.
+     * @return true if the server answers this status without processing the
+     *         request.
+     */
+    protected boolean isUnprocessed(int status) {
+        return status == HttpStatus.SC_SERVICE_UNAVAILABLE || status == 429;
+    }
+
+    /**
+     * @param error
+     *            a retryable error.
+     * @return true if the request cannot have reached the server.
+     */
+    protected boolean isNotSent(IOException error) {
+        return error instanceof ConnectTimeoutException || error instanceof ConnectException;
+    }
+
+    /**
+     * @param request
+     *            a request to the server.
+     * @return true if the request can be applied twice with the same result,
+     *         so that it can be repeated after an attempt that may have
+     *         reached the server.
+     */
+    public static boolean isIdempotent(HttpRequest request) {
+        String method = request.getRequestLine().getMethod();
+        if (!HttpGet.METHOD_NAME.equals(method) && !HttpHead.METHOD_NAME.equals(method)
+                && !HttpPut.METHOD_NAME.equals(method)) {
+            return false;
+        }
+        if (request.containsHeader(IF_MATCH) || request.containsHeader(IF_NONE_MATCH)) {
+            return false;
+        }
+        return !request.getParams().getBooleanParameter(NON_IDEMPOTENT, false);
+    }
+
+    /**
+     * @return a handler for the retries of the HTTP client, which only resends
+     *         the requests that reached the server when they are idempotent.
+     */
+    public static HttpRequestRetryHandler newHttpRetryHandler() {
+        return new DefaultHttpRequestRetryHandler() {
+            @Override
+            protected boolean handleAsIdempotent(HttpRequest request) {
+                if (request instanceof RequestWrapper) {
+                    request = ((RequestWrapper) request).getOriginal();
+                }
+                return isIdempotent(request) && super.handleAsIdempotent(request);
+            }
+        };
+    }
+
+    private static boolean isRepeatable(HttpUriRequest request) {
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest) request;
+            return enclosing.getEntity() == null || enclosing.getEntity().isRepeatable();
+        }
+        return true;
+    }
+
+    /**
+     * @param response
+     *            a response from the server.
+     * @return the delay requested by the Retry-After header of the response,
+     *         or 0 if it has none or it cannot be parsed.
+     */
+    static long retryAfterMillis(HttpResponse response) {
+        Header header = response.getFirstHeader(RETRY_AFTER);
+        if (header == null) {
+            return 0;
+        }
+        String value = header.getValue().trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            // Not a number of seconds, try an HTTP date.
+        }
+        try {
+            Date date = DateUtils.parseDate(value);
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        } catch (DateParseException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BackoffRetryPolicy [maxAttempts=" + maxAttempts + ", baseDelay="
+                + baseDelayMillis + ", maxDelay=" + maxDelayMillis + ", budget=" + budget + "]";
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.connector;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A bounded pool of part buffers shared by all the {@link CdmiOutputStream}
+ * of a connector. Buffers are reused instead of being allocated for each part,
+ * and the total size of the buffers in use is limited by a byte budget: once
+ * it is reached, writers wait for the pending parts to be sent before they
+ * can fill a new buffer.
+ * 
+ * Buffers are pooled by size class, powers of two up to the maximum buffer
+ * size, so that the small parts chosen by a {@link CdmiPartSizer} only take
+ * what they need from the budget. Idle buffers of other classes are dropped
+ * when a new buffer would not fit in the budget.
+ * 
+ * Each stream holds at most one buffer while it is being filled, plus the
+ * buffers of its parts being sent, so the budget should allow at least one
+ * buffer per concurrent writer.
+ */
+public class CdmiBufferPool {
+    /**
+     * The size of the smallest size class, in bytes.
+     */
+    public static final int MIN_CLASS_SIZE = 4096;
+    private final int bufferSize;
+    private final long maxBytes;
+    private final boolean direct;
+    /**
+     * The idle buffers of each size class, by capacity.
+     */
+    private final TreeMap<Integer, LinkedList<ByteBuffer>> free;
+    private long bytesInUse;
+    private long bytesFree;
+    private int inUse;
+
+    /**
+     * Constructor.
+     * 
+     * @param bufferSize
+     *            the size of the largest buffers, in bytes.
+     * @param maxBytes
+     *            the maximum number of bytes of all the buffers in use or in
+     *            the pool; at least one buffer is always allowed.
+     * @param direct
+     *            true to allocate direct buffers, outside of the heap.
+     */
+    public CdmiBufferPool(int bufferSize, long maxBytes, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.maxBytes = Math.max(bufferSize, maxBytes);
+        this.direct = direct;
+        this.free = new TreeMap<Integer, LinkedList<ByteBuffer>>();
+        this.bytesInUse = 0;
+        this.bytesFree = 0;
+        this.inUse = 0;
+    }
+
+    /**
+     * @return the capacity of the buffers used for the given size: the next
+     *         power of two, at least {@link #MIN_CLASS_SIZE} and at most the
+     *         largest buffer size.
+     */
+    int getClassSize(int size) {
+        if (size > bufferSize) {
+            throw new IllegalArgumentException("Buffer of " + size
+                    + " bytes larger than the pooled buffers of " + bufferSize
+                    + " bytes");
+        }
+        if (size <= MIN_CLASS_SIZE) {
+            return Math.min(MIN_CLASS_SIZE, bufferSize);
+        }
+        int capacity = Integer.highestOneBit(size - 1) << 1;
+        return capacity > 0 ? Math.min(capacity, bufferSize) : bufferSize;
+    }
+
+    /**
+     * Get a cleared buffer of the largest size from the pool.
+     * 
+     * @return a buffer of {@link #getBufferSize()} bytes.
+     * @throws InterruptedException
+     *             if interrupted while waiting for a buffer.
+     * @see #acquire(int)
+     */
+    public ByteBuffer acquire() throws InterruptedException {
+        return acquire(bufferSize);
+    }
+
+    /**
+     * Get a cleared buffer of the size class of the given size, allocating it
+     * if needed. Blocks while the byte budget is exhausted.
+     * 
+     * @param size
+     *            the number of bytes needed, at most {@link #getBufferSize()}.
+     * @return a buffer whose limit is the given size.
+     * @throws InterruptedException
+     *             if interrupted while waiting for a buffer.
+     */
+    public synchronized ByteBuffer acquire(int size)
+            throws InterruptedException {
+        int capacity = getClassSize(size);
+        while (inUse > 0 && bytesInUse + capacity > maxBytes) {
+            wait();
+        }
+        ++inUse;
+        bytesInUse += capacity;
+        LinkedList<ByteBuffer> buffers = free.get(capacity);
+        ByteBuffer buffer = buffers != null ? buffers.poll() : null;
+        if (buffer != null) {
+            bytesFree -= capacity;
+        } else {
+            trim(maxBytes - bytesInUse);
+            buffer = direct ? ByteBuffer.allocateDirect(capacity)
+                    : ByteBuffer.allocate(capacity);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Drop idle buffers, the largest first, until they take at most the given
+     * number of bytes.
+     */
+    private void trim(long maxFreeBytes) {
+        while (bytesFree > maxFreeBytes) {
+            Map.Entry<Integer, LinkedList<ByteBuffer>> largest = free.lastEntry();
+            largest.getValue().poll();
+            bytesFree -= largest.getKey();
+            if (largest.getValue().isEmpty()) {
+                free.remove(largest.getKey());
+            }
+        }
+    }
+
+    /**
+     * Give a buffer back to the pool.
+     * 
+     * @param buffer
+     *            a buffer obtained from {@link #acquire(int)}.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        LinkedList<ByteBuffer> buffers = free.get(capacity);
+        if (buffers == null) {
+            buffers = new LinkedList<ByteBuffer>();
+            free.put(capacity, buffers);
+        }
+        buffers.push(buffer);
+        bytesFree += capacity;
+        bytesInUse -= capacity;
+        --inUse;
+        // Waiters may need buffers of different sizes.
+        notifyAll();
+    }
+
+    /**
+     * @return the size of the largest buffers, in bytes.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return the maximum number of bytes of all the buffers.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the maximum number of buffers of the largest size in use at the
+     *         same time.
+     */
+    public int getMaxBuffers() {
+        return (int) Math.min(Integer.MAX_VALUE, maxBytes / bufferSize);
+    }
+
+    /**
+     * @return true if the buffers are direct buffers.
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * @return the number of buffers currently in use.
+     */
+    public synchronized int getBuffersInUse() {
+        return inUse;
+    }
+
+    /**
+     * @return the number of bytes of the buffers currently in use.
+     */
+    public synchronized long getBytesInUse() {
+        return bytesInUse;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CdmiBufferPool [bufferSize=" + bufferSize + ", maxBytes="
+                + maxBytes + ", inUse=" + inUse + ", bytesInUse=" + bytesInUse
+                + ", bytesFree=" + bytesFree + ", direct=" + direct + "]";
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.connector;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryIteratorException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.util.EntityUtils;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import com.scality.cdmi.api.CdmiConnectionException;
+
+/**
+ * A lazy {@link Iterator} over the names of the children of a container. The
+ * children are requested in pages of a fixed size with "children:start-end"
+ * range queries, and each page is parsed directly from the response stream,
+ * so memory use does not depend on the size of the container.
+ * 
+ * On a multi-threaded connector, the next page is fetched in the background
+ * on the executor given to {@link #setExecutor}, usually the one shared by the
+ * client, while the caller consumes the current one. An iterator abandoned
+ * before its end should be closed to cancel the page being prefetched.
+ * 
+ * The first page is read when the iterator is created, so a missing container
+ * is reported with a {@link FileNotFoundException}. Since {@link Iterator}
+ * methods cannot throw checked exceptions, the errors reading the following
+ * pages are thrown as a {@link DirectoryIteratorException} wrapping the
+ * {@link IOException}.
+ */
+public class CdmiChildrenIterator implements Iterator<String>, Closeable {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * A page of children.
+     */
+    private static class Page {
+        private final List<String> children;
+        private final boolean last;
+
+        Page(List<String> children, boolean last) {
+            this.children = children;
+            this.last = last;
+        }
+    }
+
+    private final CdmiConnector connector;
+    private final String path;
+    private final int pageSize;
+    private Iterator<String> current;
+    private boolean last;
+    private long nextStart;
+    /**
+     * True until the next page is prefetched, which is delayed to the first
+     * child consumed, in case the caller only checks for children.
+     */
+    private boolean prefetchNext;
+    private FutureTask<Page> prefetch;
+    private ExecutorService executor;
+
+    /**
+     * Constructor. Reads the first page.
+     * 
+     * @param connector
+     *            the connector to the CDMI server.
+     * @param path
+     *            the path of the container, ending with a "/".
+     * @param pageSize
+     *            the number of children in each page, 0 to read all the
+     *            children in a single request.
+     * @throws FileNotFoundException
+     *             if the container does not exist.
+     * @throws CdmiConnectionException
+     *             if there was any communication error.
+     */
+    public CdmiChildrenIterator(CdmiConnector connector, String path,
+            int pageSize) throws FileNotFoundException, CdmiConnectionException {
+        this.connector = connector;
+        this.path = path;
+        this.pageSize = pageSize;
+        this.nextStart = 0;
+        setPage(fetchPage(0));
+    }
+
+    /**
+     * Prefetch the next pages on an executor, which is not stopped by this
+     * iterator. Without an executor, pages are only fetched when needed.
+     * 
+     * @param executor
+     *            the executor, or null to disable prefetching.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (last) {
+                return false;
+            }
+            try {
+                setPage(nextPage());
+            } catch (IOException e) {
+                last = true;
+                throw new DirectoryIteratorException(e);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String child = current.next();
+        if (prefetchNext) {
+            prefetchNext = false;
+            prefetch(nextStart);
+        }
+        return child;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stop iterating, cancelling the page being prefetched if any.
+     */
+    @Override
+    public void close() {
+        if (prefetch != null) {
+            prefetch.cancel(true);
+            prefetch = null;
+        }
+        current = Collections.<String> emptyList().iterator();
+        last = true;
+        prefetchNext = false;
+    }
+
+    private void setPage(Page page) {
+        current = page.children.iterator();
+        last = page.last;
+        if (!last) {
+            nextStart += page.children.size();
+        }
+        prefetchNext = !last && connector.isMultiThreaded();
+    }
+
+    /**
+     * Start fetching the page at the given position in the background.
+     */
+    private void prefetch(final long start) {
+        if (executor == null) {
+            return;
+        }
+        prefetch = new FutureTask<Page>(new Callable<Page>() {
+            @Override
+            public Page call() throws IOException {
+                return fetchPage(start);
+            }
+        });
+        try {
+            executor.execute(prefetch);
+        } catch (RejectedExecutionException e) {
+            // The shared executor was shut down, the page is fetched when
+            // needed.
+        }
+    }
+
+    private Page nextPage() throws IOException {
+        if (prefetch == null) {
+            return fetchPage(nextStart);
+        }
+        FutureTask<Page> task = prefetch;
+        prefetch = null;
+        // Fetch it now if it is still waiting in the queue of the executor.
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CdmiConnectionException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new CdmiConnectionException(e.getCause());
+        }
+    }
+
+    private Page fetchPage(long start) throws FileNotFoundException,
+            CdmiConnectionException {
+        HttpResponse response = pageSize > 0 ? connector.listContainer(path,
+                start, start + pageSize - 1) : connector.listContainer(path);
+        HttpEntity entity = response.getEntity();
+        int status = response.getStatusLine().getStatusCode();
+        if (HttpStatus.SC_OK != status) {
+            EntityUtils.consumeQuietly(entity);
+            if (HttpStatus.SC_NOT_FOUND == status) {
+                throw new FileNotFoundException(path + " does not exist");
+            }
+            if (start > 0
+                    && (HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE == status
+                            || HttpStatus.SC_BAD_REQUEST == status)) {
+                // The previous page ended exactly at the last child.
+                return new Page(new ArrayList<String>(0), true);
+            }
+            throw new CdmiConnectionException("Impossible to list path " + path
+                    + " got response " + response.getStatusLine());
+        }
+        try {
+            return parsePage(entity.getContent());
+        } catch (CdmiConnectionException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new CdmiConnectionException(e);
+        } finally {
+            EntityUtils.consumeQuietly(entity);
+        }
+    }
+
+    private Page parsePage(InputStream in) throws IOException {
+        JsonParser parser = JSON_FACTORY.createJsonParser(in);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new CdmiConnectionException("Internal server error, "
+                        + "children is not a JSON object");
+            }
+            List<String> children = new ArrayList<String>(Math.max(pageSize, 16));
+            boolean ranged = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("children".equals(field) && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        children.add(parser.getText());
+                    }
+                } else {
+                    ranged |= "childrenrange".equals(field);
+                    parser.skipChildren();
+                }
+            }
+            // Servers ignoring the range return all the children at once.
+            return new Page(children, pageSize <= 0 || !ranged
+                    || children.size() < pageSize);
+        } finally {
+            parser.close();
+        }
+    }
+}
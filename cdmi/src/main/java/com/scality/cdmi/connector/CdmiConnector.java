@@ -33,10 +33,25 @@
  */
 package com.scality.cdmi.connector;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
@@ -53,8 +68,11 @@ import org.apache.http.util.EntityUtils;
 
 import com.scality.cdmi.api.CdmiConfigurationException;
 import com.scality.cdmi.api.CdmiConnectionException;
+import com.scality.cdmi.api.CdmiMetricsListener;
 import com.scality.cdmi.api.RequestFactory;
+import com.scality.cdmi.api.RetryPolicy;
 import com.scality.cdmi.api.RetryStrategy;
+import com.scality.cdmi.impl.metadata.CdmiMetadataCache;
 
 /**
  * Low level interface to the CDMI server. Handles creating the requests and
@@ -89,7 +107,15 @@ public class CdmiConnector {
     private RequestFactory nonCdmiRequestFactory;
     private HttpClient httpClient;
     private RetryStrategy retryStrategy;
+    private volatile RetryPolicy retryPolicy;
+    private volatile CdmiRequestHedger hedger;
+    private volatile CdmiMetricsListener metricsListener;
     private boolean multiThreaded;
+    private volatile CdmiMetadataCache metadataCache;
+    private volatile boolean keepRawMetadata;
+    private volatile CdmiBufferPool bufferPool;
+    private volatile CdmiEndpointRouter router;
+    private volatile CdmiPartSizer partSizer;
 
     /**
      * Constructor
@@ -105,6 +131,8 @@ public class CdmiConnector {
         this.nonCdmiRequestFactory = factory.newNonCdmiFactory();
         this.httpClient = httpClient;
         this.retryStrategy = retryStrategy;
+        this.retryPolicy = retryStrategy.getRetryPolicy() != null ? retryStrategy
+                .getRetryPolicy() : new BackoffRetryPolicy(retryStrategy);
         this.multiThreaded = multiThreaded;
     }
 
@@ -116,46 +144,451 @@ public class CdmiConnector {
     }
 
     /**
+     * @return the policy deciding when the requests of this connector are
+     *         retried.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @param retryPolicy
+     *            the policy deciding when the requests of this connector are
+     *            retried.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return the hedger of the idempotent reads of this connector, or null
+     *         if reads are not hedged.
+     */
+    public CdmiRequestHedger getHedger() {
+        return hedger;
+    }
+
+    /**
+     * Hedge the metadata and ranged object reads: when they are not answered
+     * quickly enough, send them a second time and keep the first answer.
+     * Only used by multi-threaded connectors.
+     * 
+     * @param hedger
+     *            the hedger of the idempotent reads, or null to disable
+     *            hedging.
+     */
+    public void setHedger(CdmiRequestHedger hedger) {
+        this.hedger = hedger;
+    }
+
+    /**
+     * @return the listener receiving the measures of the requests, or null.
+     */
+    public CdmiMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * @param metricsListener
+     *            the listener receiving the measures of the requests, or null
+     *            to disable measures.
+     */
+    public void setMetricsListener(CdmiMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    /**
+     * @return the metadata cache shared by all the users of this connector, or
+     *         null if metadata is not cached.
+     */
+    public CdmiMetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    /**
+     * @param metadataCache
+     *            the metadata cache to be shared by all the users of this
+     *            connector, or null to disable caching.
+     */
+    public void setMetadataCache(CdmiMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    /**
+     * @return the pool of part buffers shared by the output streams of this
+     *         connector, or null if each stream allocates its own buffers.
+     */
+    public CdmiBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * @param bufferPool
+     *            the pool of part buffers to be shared by the output streams of
+     *            this connector, or null to disable pooling.
+     */
+    public void setBufferPool(CdmiBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * @return the settings of the adaptive part size of the output streams of
+     *         this connector, or null if they use a fixed part size.
+     */
+    public CdmiPartSizer getPartSizer() {
+        return partSizer;
+    }
+
+    /**
+     * @param partSizer
+     *            the settings of the adaptive part size of the output streams
+     *            of this connector, each stream adapting its own copy, or null
+     *            to use a fixed part size.
+     */
+    public void setPartSizer(CdmiPartSizer partSizer) {
+        this.partSizer = partSizer;
+    }
+
+    /**
+     * @return the router spreading the requests over several endpoints, or
+     *         null if all the requests are sent to the host of the request
+     *         factory.
+     */
+    public CdmiEndpointRouter getRouter() {
+        return router;
+    }
+
+    /**
+     * Spread the requests over several endpoints. Ejected endpoints are
+     * probed with a capability discovery.
+     * 
+     * @param router
+     *            the router choosing the endpoint of each request, or null to
+     *            send all the requests to the host of the request factory.
+     */
+    public void setRouter(CdmiEndpointRouter router) {
+        if (router != null) {
+            router.setProbe(new CdmiEndpointRouter.Probe() {
+                @Override
+                public boolean probe(HttpHost target) {
+                    return probeCapabilities(target);
+                }
+            });
+        }
+        this.router = router;
+    }
+
+    /**
+     * @return true if the JSON representation of the metadata read through
+     *         this connector is kept.
+     */
+    public boolean isKeepRawMetadata() {
+        return keepRawMetadata;
+    }
+
+    /**
+     * @param keepRawMetadata
+     *            true to keep the JSON representation of the metadata read
+     *            through this connector, false to only keep the parsed fields.
+     */
+    public void setKeepRawMetadata(boolean keepRawMetadata) {
+        this.keepRawMetadata = keepRawMetadata;
+    }
+
+    /**
+     * Execute a request, retrying it as long as the {@link RetryPolicy} allows
+     * and waiting for the delay it returns between two attempts.
+     * 
+     * @param operation
+     *            the name of the operation, for the metrics.
      * @param request
      * @return
      * @throws CdmiConnectionException
      */
-    private HttpResponse stubbornExecute(HttpUriRequest request)
+    private HttpResponse stubbornExecute(String operation, HttpUriRequest request)
             throws CdmiConnectionException {
-        int status = -1;
+        CdmiMetricsListener listener = metricsListener;
+        if (listener == null) {
+            return stubbornExecute(operation, request, null);
+        }
+        long start = System.nanoTime();
         HttpResponse response = null;
-        int i = retryStrategy.getMaxRetries();
-        do {
-            if (response != null) {
-                // Release connection.
-                EntityUtils.consumeQuietly(response.getEntity());
+        try {
+            response = stubbornExecute(operation, request, listener);
+            return response;
+        } finally {
+            long sent = 0;
+            if (request instanceof HttpEntityEnclosingRequest) {
+                sent = contentLength(((HttpEntityEnclosingRequest) request).getEntity());
             }
-            // FIXME: add some sleep for retries.
+            listener.onRequest(operation, response != null ? response.getStatusLine()
+                    .getStatusCode() : -1, System.nanoTime() - start, sent,
+                    response != null ? contentLength(response.getEntity()) : 0);
+        }
+    }
+
+    private static long contentLength(HttpEntity entity) {
+        return entity != null ? Math.max(0, entity.getContentLength()) : 0;
+    }
+
+    private HttpResponse stubbornExecute(String operation, HttpUriRequest request,
+            CdmiMetricsListener listener) throws CdmiConnectionException {
+        RetryPolicy policy = retryPolicy;
+        policy.onRequest(request);
+        long delay = 0;
+        for (int attempt = 1;; ++attempt) {
+            HttpResponse response = null;
+            IOException error = null;
             try {
                 debugRequest(request);
-                response = httpClient.execute(request);
+                response = execute(request);
                 debugResponse(response);
             } catch (ClientProtocolException e) {
                 throw new CdmiConnectionException(e);
-            } catch (ConnectTimeoutException e) {
-                --i;
-                continue;
             } catch (IOException e) {
-                throw new CdmiConnectionException(e);
+                if (request.isAborted()) {
+                    // A hedged request that lost, or a request cancelled by
+                    // the caller: neither an error nor worth a retry.
+                    throw new CdmiConnectionException(e);
+                }
+                error = e;
+                if (listener != null) {
+                    listener.onError(operation, e);
+                }
             }
-            status = response.getStatusLine().getStatusCode();
-        } while (HttpStatus.SC_INTERNAL_SERVER_ERROR == status && --i > 0);
-        if (-1 == status) {
-            throw new CdmiConnectionException(
-                    "Cannot connect to server. All requests timed out.");
-        } else if (HttpStatus.SC_INTERNAL_SERVER_ERROR == status) {
-            throw new CdmiConnectionException(
-                    "Can't seem to get any response from server. Got response "
-                            + response.getStatusLine());
+            if (response != null && !isServerError(response) && !isThrottled(response)) {
+                return response;
+            }
+            delay = policy.nextRetryDelay(request, attempt, delay, response, error);
+            if (delay < 0) {
+                if (error instanceof ConnectTimeoutException) {
+                    throw new CdmiConnectionException(
+                            "Cannot connect to server. All requests timed out.");
+                } else if (error != null) {
+                    throw new CdmiConnectionException(error);
+                } else if (HttpStatus.SC_INTERNAL_SERVER_ERROR == response.getStatusLine()
+                        .getStatusCode()) {
+                    throw new CdmiConnectionException(
+                            "Can't seem to get any response from server. Got response "
+                                    + response.getStatusLine());
+                }
+                return response;
+            }
+            if (listener != null) {
+                listener.onRetry(operation, attempt, response != null ? response
+                        .getStatusLine().getStatusCode() : -1, delay);
+            }
+            if (response != null) {
+                // Release connection.
+                EntityUtils.consumeQuietly(response.getEntity());
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Retrying " + request.getRequestLine() + " in " + delay + "ms");
+            }
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CdmiConnectionException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Send a single attempt of a request, to the endpoint chosen by the
+     * router if any.
+     */
+    private HttpResponse execute(HttpUriRequest request) throws IOException {
+        CdmiEndpointRouter router = this.router;
+        if (router == null) {
+            return httpClient.execute(request);
+        }
+        CdmiEndpointRouter.Endpoint endpoint = router.select();
+        router.onStart(endpoint);
+        long start = System.nanoTime();
+        HttpResponse response;
+        try {
+            response = httpClient.execute(endpoint.getHost(), request);
+        } catch (IOException e) {
+            onFailure(router, endpoint, request);
+            throw e;
+        } catch (RuntimeException e) {
+            onFailure(router, endpoint, request);
+            throw e;
+        }
+        HttpEntity entity = response.getEntity();
+        if (isServerError(response)) {
+            router.onFailure(endpoint);
+        } else if (isThrottled(response)) {
+            // The endpoint is alive, only busy: release it without blame.
+            router.onCancel(endpoint);
+        } else if (entity != null && entity.isStreaming()) {
+            // Done once the body is consumed or released.
+            response.setEntity(new RoutedEntity(entity, router, endpoint, start));
+        } else {
+            router.onSuccess(endpoint, System.nanoTime() - start);
         }
         return response;
     }
 
+    private static void onFailure(CdmiEndpointRouter router,
+            CdmiEndpointRouter.Endpoint endpoint, HttpUriRequest request) {
+        if (request.isAborted()) {
+            // Aborted by the client, the endpoint is not to blame.
+            router.onCancel(endpoint);
+        } else {
+            router.onFailure(endpoint);
+        }
+    }
+
+    /**
+     * Check the health of an endpoint with a single capability discovery.
+     */
+    private boolean probeCapabilities(HttpHost target) {
+        try {
+            HttpGet get = requestFactory.newGet(CdmiTypes.CDMI_CAPABILITY,
+                    CdmiURI.DISCOVER_CAPABILITIES);
+            HttpResponse response = httpClient.execute(target, get);
+            EntityUtils.consumeQuietly(response.getEntity());
+            return !isServerError(response);
+        } catch (CdmiConfigurationException e) {
+            return false;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Execute an idempotent GET, sending a copy of it if it has not been
+     * answered within the delay of the {@link CdmiRequestHedger} and its budget
+     * allows it. The first answer is returned and the other request is
+     * aborted. The latency is recorded from the start of the first request.
+     * 
+     * @param operation
+     *            the type of operation, to track its latency.
+     * @param request
+     * @return
+     * @throws CdmiConnectionException
+     */
+    private HttpResponse hedgedExecute(String operation, HttpGet request)
+            throws CdmiConnectionException {
+        CdmiRequestHedger hedger = this.hedger;
+        if (hedger == null || !multiThreaded) {
+            return stubbornExecute(operation, request);
+        }
+        hedger.onRequest();
+        long start = System.nanoTime();
+        AtomicReference<HttpGet> winner = new AtomicReference<HttpGet>();
+        HttpGet answered = null;
+        CompletionService<HttpResponse> attempts = new ExecutorCompletionService<HttpResponse>(
+                hedger.getExecutor());
+        List<HttpGet> requests = new ArrayList<HttpGet>(2);
+        requests.add(request);
+        try {
+            attempts.submit(new HedgedAttempt(hedger, operation, request, winner, start));
+        } catch (RejectedExecutionException e) {
+            // The hedger was shut down or all its threads are busy.
+            return stubbornExecute(operation, request);
+        }
+        CdmiConnectionException failure = null;
+        try {
+            int pending = 1;
+            Future<HttpResponse> done = attempts.poll(hedger.getDelayMillis(operation),
+                    TimeUnit.MILLISECONDS);
+            if (done == null) {
+                if (hedger.tryHedge()) {
+                    HttpGet copy = new HttpGet(request.getURI());
+                    copy.setHeaders(request.getAllHeaders());
+                    try {
+                        attempts.submit(new HedgedAttempt(hedger, operation, copy, winner,
+                                start));
+                        requests.add(copy);
+                        ++pending;
+                    } catch (RejectedExecutionException e) {
+                        // The hedger was shut down or all its threads are
+                        // busy, wait for the first request.
+                    }
+                }
+                done = attempts.take();
+            }
+            while (true) {
+                --pending;
+                try {
+                    HttpResponse response = done.get();
+                    if (response != null) {
+                        answered = winner.get();
+                        return response;
+                    }
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof CdmiConnectionException
+                                ? (CdmiConnectionException) e.getCause()
+                                : new CdmiConnectionException(e.getCause());
+                    }
+                }
+                if (pending == 0) {
+                    throw failure;
+                }
+                done = attempts.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CdmiConnectionException(e);
+        } finally {
+            // Make the late answers release their connection, and abort the
+            // requests still running, but not the one whose response is read.
+            winner.compareAndSet(null, request);
+            for (HttpGet attempt : requests) {
+                if (attempt != answered) {
+                    attempt.abort();
+                }
+            }
+        }
+    }
+
+    /**
+     * One of the copies of a hedged request. The first copy to be answered
+     * becomes the winner and returns the response, the others release their
+     * connection and return null.
+     */
+    private class HedgedAttempt implements Callable<HttpResponse> {
+        private final CdmiRequestHedger hedger;
+        private final String operation;
+        private final HttpGet request;
+        private final AtomicReference<HttpGet> winner;
+        private final long start;
+
+        HedgedAttempt(CdmiRequestHedger hedger, String operation, HttpGet request,
+                AtomicReference<HttpGet> winner, long start) {
+            this.hedger = hedger;
+            this.operation = operation;
+            this.request = request;
+            this.winner = winner;
+            this.start = start;
+        }
+
+        @Override
+        public HttpResponse call() throws CdmiConnectionException {
+            HttpResponse response = stubbornExecute(operation, request);
+            if (!winner.compareAndSet(null, request)) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                return null;
+            }
+            hedger.record(operation, (System.nanoTime() - start) / 1000000);
+            return response;
+        }
+    }
+
+    private static boolean isServerError(HttpResponse response) {
+        return response.getStatusLine().getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    private static boolean isThrottled(HttpResponse response) {
+        return response.getStatusLine().getStatusCode() == 429;
+    }
+
     /**
      * Common operations.
      * 
@@ -166,7 +599,7 @@ public class CdmiConnector {
         try {
             HttpGet get = requestFactory.newGet(CdmiTypes.CDMI_CAPABILITY,
                     CdmiURI.DISCOVER_CAPABILITIES);
-            return stubbornExecute(get);
+            return stubbornExecute("discoverCapabilities", get);
         } catch (CdmiConfigurationException e) {
             throw new CdmiConnectionException(e);
         }
@@ -195,7 +628,7 @@ public class CdmiConnector {
         try {
             HttpPut put = requestFactory.newPut(CdmiTypes.CDMI_CONTAINER,
                     containerPath).build();
-            return stubbornExecute(put);
+            return stubbornExecute("createContainer", put);
         } catch (CdmiConfigurationException e) {
             throw new CdmiConnectionException(e);
         }
@@ -210,7 +643,29 @@ public class CdmiConnector {
             throws CdmiConnectionException {
         try {
             HttpGet get = requestFactory.newGet(containerPath, "children");
-            return stubbornExecute(get);
+            return stubbornExecute("listContainer", get);
+        } catch (CdmiConfigurationException e) {
+            throw new CdmiConnectionException(e);
+        }
+    }
+
+    /**
+     * List a range of the children of a container.
+     * 
+     * @param containerPath
+     * @param start
+     *            the position of the first child.
+     * @param end
+     *            the position of the last child, included.
+     * @return
+     * @throws CdmiConnectionException
+     */
+    public HttpResponse listContainer(String containerPath, long start, long end)
+            throws CdmiConnectionException {
+        try {
+            HttpGet get = requestFactory.newGet(containerPath,
+                    String.format("children:%d-%d", start, end));
+            return stubbornExecute("listContainer", get);
         } catch (CdmiConfigurationException e) {
             throw new CdmiConnectionException(e);
         }
@@ -230,7 +685,9 @@ public class CdmiConnector {
                     .addBody("move",
                             RequestFactory.URIEscapeString(srcContainerPath))
                     .build();
-            return stubbornExecute(put);
+            // A retried move would fail once the first attempt moved it.
+            put.getParams().setBooleanParameter(RetryPolicy.NON_IDEMPOTENT, true);
+            return stubbornExecute("moveContainer", put);
         } catch (CdmiConfigurationException e) {
             throw new CdmiConnectionException(e);
         } catch (ParseException e) {
@@ -251,7 +708,7 @@ public class CdmiConnector {
                     .addBody("metadata",
                             String.format("{\"%s\":\"%s\"}", key, value))
                     .build();
-            return stubbornExecute(put);
+            return stubbornExecute("setContainerMetadata", put);
         } catch (CdmiConfigurationException e) {
             throw new CdmiConnectionException(e);
         }
@@ -265,7 +722,7 @@ public class CdmiConnector {
     public HttpResponse delete(String path) throws CdmiConnectionException {
         try {
             HttpDelete delete = requestFactory.newDelete(path);
-            return stubbornExecute(delete);
+            return stubbornExecute("delete", delete);
         } catch (CdmiConfigurationException e) {
             throw new CdmiConnectionException(e);
         }
@@ -282,7 +739,7 @@ public class CdmiConnector {
         try {
             HttpGet get = requestFactory.newGet(path,
                     concatFieldNames(metadatafields));
-            return stubbornExecute(get);
+            return hedgedExecute("readMetadata", get);
         } catch (CdmiConfigurationException e) {
             throw new CdmiConnectionException(e);
         }
@@ -309,7 +766,30 @@ public class CdmiConnector {
                         .newPut(CdmiTypes.CDMI_OBJECT, dataObjectPath)
                         .addContents("").build();
             }
-            return stubbornExecute(put);
+            return stubbornExecute("createEmptyObject", put);
+        } catch (CdmiConfigurationException e) {
+            throw new CdmiConnectionException(e);
+        }
+    }
+
+    /**
+     * Create a data object with its contents in a single request. The request
+     * is conditional: the server answers 412 (Precondition Failed) instead of
+     * overwriting an existing data object.
+     * 
+     * @param dataObjectPath
+     * @param data
+     * @return
+     * @throws CdmiConnectionException
+     */
+    public HttpResponse createObject(String dataObjectPath, byte[] data)
+            throws CdmiConnectionException {
+        try {
+            HttpPut put = requestFactory
+                    .newPut(CdmiTypes.CDMI_OBJECT, dataObjectPath)
+                    .addContents(data).setHeader("If-None-Match", "*")
+                    .build();
+            return stubbornExecute("createObject", put);
         } catch (CdmiConfigurationException e) {
             throw new CdmiConnectionException(e);
         }
@@ -326,7 +806,7 @@ public class CdmiConnector {
             HttpPut put = nonCdmiRequestFactory
                     .newPut(CdmiTypes.CDMI_OBJECT, dataObjectPath)
                     .addContents(new byte[0]).build();
-            return stubbornExecute(put);
+            return stubbornExecute("createEmptyObjectNonCdmi", put);
         } catch (CdmiConfigurationException e) {
             throw new CdmiConnectionException(e);
         }
@@ -346,7 +826,7 @@ public class CdmiConnector {
                     .addBody("copy",
                             RequestFactory.URIEscapeString(srcObjectPath))
                     .build();
-            return stubbornExecute(put);
+            return stubbornExecute("copyObject", put);
         } catch (CdmiConfigurationException e) {
             throw new CdmiConnectionException(e);
         }
@@ -366,7 +846,9 @@ public class CdmiConnector {
                     .addBody("move",
                             RequestFactory.URIEscapeString(srcObjectPath))
                     .build();
-            return stubbornExecute(put);
+            // A retried move would fail once the first attempt moved it.
+            put.getParams().setBooleanParameter(RetryPolicy.NON_IDEMPOTENT, true);
+            return stubbornExecute("moveObject", put);
         } catch (CdmiConfigurationException e) {
             throw new CdmiConnectionException(e);
         } catch (ParseException e) {
@@ -388,7 +870,7 @@ public class CdmiConnector {
         try {
             HttpGet get = requestFactory.newGetWithRange(dataObjectPath,
                     offset, length);
-            return stubbornExecute(get);
+            return hedgedExecute("readObject", get);
         } catch (CdmiConfigurationException e) {
             throw new CdmiConnectionException(e);
         }
@@ -406,7 +888,7 @@ public class CdmiConnector {
         try {
             HttpGet get = nonCdmiRequestFactory.newGetWithRange(dataObjectPath,
                     offset, length);
-            return stubbornExecute(get);
+            return hedgedExecute("readObjectNonCdmi", get);
         } catch (CdmiConfigurationException e) {
             throw new CdmiConnectionException(e);
         }
@@ -426,7 +908,7 @@ public class CdmiConnector {
             HttpPut put = requestFactory
                     .newPutWithRange(CdmiTypes.CDMI_OBJECT, dataObjectPath,
                             offset, length).addContents(binaryData).build();
-            return stubbornExecute(put);
+            return stubbornExecute("updateObject", put);
         } catch (CdmiConfigurationException e) {
             throw new CdmiConnectionException(e);
         }
@@ -446,7 +928,7 @@ public class CdmiConnector {
             HttpPut put = requestFactory
                     .newPutWithRange(CdmiTypes.CDMI_OBJECT, dataObjectPath,
                             offset, length).addContents(utf8Data).build();
-            return stubbornExecute(put);
+            return stubbornExecute("updateObject", put);
         } catch (CdmiConfigurationException e) {
             throw new CdmiConnectionException(e);
         }
@@ -466,7 +948,55 @@ public class CdmiConnector {
             HttpPut put = nonCdmiRequestFactory
                     .newPutWithRange(CdmiTypes.CDMI_OBJECT, dataObjectPath,
                             offset, length).addContents(data).build();
-            return stubbornExecute(put);
+            return stubbornExecute("updateObjectNonCdmi", put);
+        } catch (CdmiConfigurationException e) {
+            throw new CdmiConnectionException(e);
+        }
+    }
+
+    /**
+     * Update a range of a data object with the remaining bytes of a buffer,
+     * which are sent without being copied.
+     * 
+     * @param dataObjectPath
+     * @param offset
+     * @param data
+     * @return
+     * @throws CdmiConnectionException
+     */
+    public HttpResponse updateObjectNonCdmi(String dataObjectPath, long offset,
+            ByteBuffer data) throws CdmiConnectionException {
+        try {
+            HttpPut put = nonCdmiRequestFactory
+                    .newPutWithRange(CdmiTypes.CDMI_OBJECT, dataObjectPath,
+                            offset, data.remaining()).addContents(data).build();
+            return stubbornExecute("updateObjectNonCdmi", put);
+        } catch (CdmiConfigurationException e) {
+            throw new CdmiConnectionException(e);
+        }
+    }
+
+    /**
+     * Update a range of a data object with a region of a local file. The
+     * region is streamed from the file without being loaded in memory.
+     * 
+     * @param dataObjectPath
+     * @param offset
+     * @param length
+     * @param file
+     * @param fileOffset
+     * @return
+     * @throws CdmiConnectionException
+     */
+    public HttpResponse updateObjectNonCdmi(String dataObjectPath, long offset,
+            long length, File file, long fileOffset)
+            throws CdmiConnectionException {
+        try {
+            HttpPut put = nonCdmiRequestFactory
+                    .newPutWithRange(CdmiTypes.CDMI_OBJECT, dataObjectPath,
+                            offset, length).addContents(file, fileOffset, length)
+                    .build();
+            return stubbornExecute("updateObjectNonCdmi", put);
         } catch (CdmiConfigurationException e) {
             throw new CdmiConnectionException(e);
         }
@@ -492,7 +1022,7 @@ public class CdmiConnector {
             throws CdmiConnectionException {
         try {
             HttpGet get = requestFactory.newGet(key, query);
-            return stubbornExecute(get);
+            return stubbornExecute("userSpecificQuery", get);
         } catch (CdmiConfigurationException e) {
             throw new CdmiConnectionException(e);
         }
@@ -509,7 +1039,7 @@ public class CdmiConnector {
         try {
             HttpHead head = requestFactory.newHead(dataObjectPath);
             head.setHeader("X-Scal-Synchronize", "data");
-            HttpResponse response = stubbornExecute(head);
+            HttpResponse response = stubbornExecute("forceFlushCdmi", head);
             EntityUtils.consumeQuietly(response.getEntity());
         } catch (CdmiConfigurationException e) {
             throw new CdmiConnectionException(e);
@@ -527,7 +1057,7 @@ public class CdmiConnector {
         try {
             HttpHead head = nonCdmiRequestFactory.newHead(dataObjectPath);
             head.setHeader("X-Scal-Synchronize", "data");
-            HttpResponse response = stubbornExecute(head);
+            HttpResponse response = stubbornExecute("forceFlushNonCdmi", head);
             EntityUtils.consumeQuietly(response.getEntity());
         } catch (CdmiConfigurationException e) {
             throw new CdmiConnectionException(e);
@@ -542,7 +1072,7 @@ public class CdmiConnector {
                     .addBody("metadata",
                             String.format("{\"%s\":\"%s\"}", key, value))
                     .build();
-            return stubbornExecute(put);
+            return stubbornExecute("setObjectMetadata", put);
         } catch (CdmiConfigurationException e) {
             throw new CdmiConnectionException(e);
         }
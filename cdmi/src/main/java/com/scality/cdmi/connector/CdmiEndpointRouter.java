@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.connector;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpHost;
+
+/**
+ * Spread the requests of a {@link CdmiConnector} over several CDMI
+ * endpoints, such as the connectors of a ring. Each attempt of a request is
+ * sent to the available endpoint with the fewest outstanding requests, or
+ * with the lowest latency weighted by its outstanding requests.
+ * 
+ * An endpoint failing several requests in a row, with an I/O error or a
+ * server error, is ejected. An ejected endpoint is probed with a capability
+ * discovery after a delay doubling at each failed probe, and receives
+ * requests again once a probe succeeds. When all the endpoints are ejected,
+ * requests are still sent to one of them.
+ * 
+ * The endpoints must serve both the CDMI and non-CDMI requests, and the
+ * credentials of the HTTP client must be valid for all of them.
+ */
+public class CdmiEndpointRouter {
+    /**
+     * How an endpoint is chosen among the available ones.
+     */
+    public enum Strategy {
+        /** The endpoint with the fewest outstanding requests. */
+        LEAST_OUTSTANDING,
+        /**
+         * The endpoint with the lowest moving average of its latency,
+         * multiplied by its outstanding requests plus one.
+         */
+        LATENCY
+    }
+
+    /** Weight of a new latency sample in the moving average. */
+    private static final double DECAY = 0.3;
+
+    private final Endpoint[] endpoints;
+    private final Strategy strategy;
+    private final AtomicInteger next;
+    private volatile int failureThreshold;
+    private volatile long ejectMillis;
+    private volatile long maxEjectMillis;
+    private volatile Probe probe;
+    private ScheduledExecutorService prober;
+    private boolean shutdown;
+
+    /**
+     * Check the health of an endpoint.
+     */
+    interface Probe {
+        /**
+         * @param target
+         *            the endpoint.
+         * @return true if the endpoint answered properly.
+         */
+        boolean probe(HttpHost target);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param endpoints
+     *            the URIs of the endpoints, only their scheme, host and port
+     *            are used.
+     * @param strategy
+     *            how an endpoint is chosen for each request.
+     */
+    public CdmiEndpointRouter(List<URI> endpoints, Strategy strategy) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("No endpoint");
+        }
+        this.endpoints = new Endpoint[endpoints.size()];
+        for (int i = 0; i < this.endpoints.length; ++i) {
+            this.endpoints[i] = new Endpoint(endpoints.get(i));
+        }
+        this.strategy = strategy;
+        this.next = new AtomicInteger();
+        this.failureThreshold = 3;
+        this.ejectMillis = 1000;
+        this.maxEjectMillis = 30000;
+    }
+
+    /**
+     * @param failureThreshold
+     *            the number of consecutive failures after which an endpoint
+     *            is ejected.
+     * @param ejectMillis
+     *            the delay before the first probe of an ejected endpoint.
+     * @param maxEjectMillis
+     *            the maximum delay between two probes.
+     */
+    public void setCircuitBreaker(int failureThreshold, long ejectMillis,
+            long maxEjectMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.ejectMillis = ejectMillis;
+        this.maxEjectMillis = Math.max(ejectMillis, maxEjectMillis);
+    }
+
+    /**
+     * @return the endpoints, in the order they were given.
+     */
+    public List<Endpoint> getEndpoints() {
+        List<Endpoint> list = new ArrayList<Endpoint>(endpoints.length);
+        Collections.addAll(list, endpoints);
+        return list;
+    }
+
+    /**
+     * @return the strategy choosing the endpoints.
+     */
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    void setProbe(Probe probe) {
+        this.probe = probe;
+    }
+
+    /**
+     * Choose the endpoint of a request.
+     * 
+     * @return the endpoint.
+     */
+    Endpoint select() {
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % endpoints.length;
+        Endpoint best = null;
+        double bestScore = 0;
+        int bestOutstanding = 0;
+        for (int i = 0; i < endpoints.length; ++i) {
+            Endpoint endpoint = endpoints[(start + i) % endpoints.length];
+            if (!endpoint.isAvailable()) {
+                continue;
+            }
+            int outstanding = endpoint.outstanding.get();
+            double score;
+            if (strategy == Strategy.LATENCY) {
+                long latency = endpoint.latencyNanos;
+                score = latency < 0 ? 0 : (double) latency * (outstanding + 1);
+            } else {
+                score = outstanding;
+            }
+            if (best == null || score < bestScore
+                    || (score == bestScore && outstanding < bestOutstanding)) {
+                best = endpoint;
+                bestScore = score;
+                bestOutstanding = outstanding;
+            }
+        }
+        return best != null ? best : endpoints[start];
+    }
+
+    void onStart(Endpoint endpoint) {
+        endpoint.outstanding.incrementAndGet();
+        endpoint.requests.incrementAndGet();
+    }
+
+    void onSuccess(Endpoint endpoint, long latencyNanos) {
+        endpoint.outstanding.decrementAndGet();
+        endpoint.record(latencyNanos);
+        endpoint.failures.set(0);
+    }
+
+    /**
+     * A request aborted by the client, which tells nothing about the health
+     * of the endpoint.
+     */
+    void onCancel(Endpoint endpoint) {
+        endpoint.outstanding.decrementAndGet();
+    }
+
+    void onFailure(Endpoint endpoint) {
+        endpoint.outstanding.decrementAndGet();
+        endpoint.errors.incrementAndGet();
+        if (endpoint.failures.incrementAndGet() >= failureThreshold) {
+            eject(endpoint);
+        }
+    }
+
+    private void eject(final Endpoint endpoint) {
+        long delay;
+        synchronized (endpoint) {
+            if (endpoint.ejected) {
+                return;
+            }
+            endpoint.ejected = true;
+            endpoint.ejections.incrementAndGet();
+            delay = endpoint.ejectMillis = ejectMillis;
+            endpoint.ejectedUntil = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(delay);
+        }
+        scheduleProbe(endpoint, delay);
+    }
+
+    private void scheduleProbe(final Endpoint endpoint, long delay) {
+        if (probe == null) {
+            // Readmitted when the delay has elapsed, see isAvailable.
+            return;
+        }
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            if (prober == null) {
+                prober = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "cdmi-endpoint-probe");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            prober.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    probe(endpoint);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void probe(Endpoint endpoint) {
+        Probe current = probe;
+        boolean healthy;
+        long start = System.nanoTime();
+        try {
+            healthy = current == null || current.probe(endpoint.host);
+        } catch (RuntimeException e) {
+            healthy = false;
+        }
+        long delay;
+        synchronized (endpoint) {
+            if (healthy) {
+                endpoint.latencyNanos = System.nanoTime() - start;
+                endpoint.failures.set(0);
+                endpoint.ejected = false;
+                return;
+            }
+            delay = endpoint.ejectMillis = Math.min(maxEjectMillis,
+                    endpoint.ejectMillis * 2);
+            endpoint.ejectedUntil = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(delay);
+        }
+        scheduleProbe(endpoint, delay);
+    }
+
+    /**
+     * Stop probing the ejected endpoints. They are readmitted once their
+     * last delay has elapsed.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            probe = null;
+            if (prober != null) {
+                prober.shutdownNow();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CdmiEndpointRouter [strategy=" + strategy + ", endpoints="
+                + getEndpoints() + "]";
+    }
+
+    /**
+     * An endpoint and its statistics.
+     */
+    public class Endpoint {
+        private final URI uri;
+        private final HttpHost host;
+        private final AtomicInteger outstanding;
+        private final AtomicInteger failures;
+        private final AtomicLong requests;
+        private final AtomicLong errors;
+        private final AtomicLong ejections;
+        private volatile long latencyNanos;
+        private volatile boolean ejected;
+        private volatile long ejectedUntil;
+        private long ejectMillis;
+
+        Endpoint(URI uri) {
+            this.uri = uri;
+            this.host = new HttpHost(uri.getHost(), uri.getPort(),
+                    uri.getScheme());
+            this.outstanding = new AtomicInteger();
+            this.failures = new AtomicInteger();
+            this.requests = new AtomicLong();
+            this.errors = new AtomicLong();
+            this.ejections = new AtomicLong();
+            this.latencyNanos = -1;
+        }
+
+        private void record(long latency) {
+            // Concurrent updates may lose a sample, which is harmless.
+            long average = latencyNanos;
+            latencyNanos = average < 0 ? latency
+                    : (long) (DECAY * latency + (1 - DECAY) * average);
+        }
+
+        /**
+         * @return the URI of the endpoint.
+         */
+        public URI getURI() {
+            return uri;
+        }
+
+        HttpHost getHost() {
+            return host;
+        }
+
+        /**
+         * @return true if the endpoint receives requests, false if it is
+         *         ejected.
+         */
+        public boolean isAvailable() {
+            if (!ejected) {
+                return true;
+            }
+            if (probe == null && System.nanoTime() - ejectedUntil >= 0) {
+                // Without probes, one more failure ejects it again.
+                synchronized (this) {
+                    if (ejected) {
+                        ejected = false;
+                        failures.set(failureThreshold - 1);
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return the number of requests currently sent to the endpoint.
+         */
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        /**
+         * @return the moving average of the latency of the endpoint in
+         *         milliseconds, or -1 if unknown.
+         */
+        public double getLatencyMillis() {
+            long latency = latencyNanos;
+            return latency < 0 ? -1 : latency / 1e6;
+        }
+
+        /**
+         * @return the number of requests sent to the endpoint.
+         */
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * @return the number of failed requests.
+         */
+        public long getErrors() {
+            return errors.get();
+        }
+
+        /**
+         * @return the number of times the endpoint was ejected.
+         */
+        public long getEjections() {
+            return ejections.get();
+        }
+
+        @Override
+        public String toString() {
+            return host.toURI() + (ejected ? " (ejected)" : "");
+        }
+    }
+}
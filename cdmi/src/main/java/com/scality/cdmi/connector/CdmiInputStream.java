@@ -36,13 +36,30 @@ package com.scality.cdmi.connector;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.util.EntityUtils;
 
 import com.scality.cdmi.api.CdmiConnectionException;
 import com.scality.cdmi.impl.metadata.CdmiMetadata;
 import com.scality.cdmi.impl.metadata.CdmiMetadataReader;
+import com.scality.cdmi.impl.metadata.CdmiObjectIdCache;
 
 /**
  * An {@link InputStream} implementation specific for reading CDMI data objects.
@@ -51,16 +68,60 @@ import com.scality.cdmi.impl.metadata.CdmiMetadataReader;
  * reasons, and the contents are streamed directly from the partial response
  * from the server. In effect this stream is not repeatable.
  * 
+ * When read-ahead is enabled on a multi-threaded connector, the remaining range
+ * is split into fixed-size windows and up to a given number of them are
+ * fetched concurrently, each with its own ranged GET. The windows are handed
+ * back in order to the caller, which allows large sequential reads to use
+ * several connections of the pool at the same time. The windows are fetched on
+ * the executor given to {@link #setExecutor}, usually the one shared by the
+ * client, or else on daemon threads of the stream. Windows dropped by a seek
+ * or by {@link #close()} are cancelled and their connections released.
+ * 
+ * A stream can also be opened directly from the object ID of a data object,
+ * see {@link #fromObjectID}. No metadata is read in this case, and the size of
+ * the data object is discovered from the responses of the server.
+ * 
  * @author ziad.bizri@ezako.com for Scality
  * 
  */
 public class CdmiInputStream extends InputStream {
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 10;
     private CdmiConnector connector;
-    private String path;
+    private volatile String path;
+    /**
+     * The key of the data object and the cache its object ID was read from,
+     * until the first response shows the object ID is still valid.
+     */
+    private String key;
+    private volatile CdmiObjectIdCache objectIdCache;
     private long pos_in_target;
     private long final_pos;
+    /**
+     * False until the end of the data object is known, when the stream was
+     * opened from an object ID.
+     */
+    private boolean size_known;
+    /**
+     * The size of the data object reported by the server in a Content-Range
+     * header, or -1 if not reported yet.
+     */
+    private volatile long discovered_size;
     private boolean closed;
     private InputStream in;
+    /**
+     * The size in bytes of each read-ahead window, 0 if read-ahead is disabled.
+     */
+    private int readAheadSize;
+    /**
+     * The maximum number of windows being fetched at the same time.
+     */
+    private int readAheadWindows;
+    private ExecutorService executor;
+    private boolean ownExecutor;
+    private LinkedList<WindowFetch> pending;
+    private long next_fetch_pos;
+    private byte[] window;
+    private int pos_in_window;
 
     /**
      * Constructor only used in tests.
@@ -74,21 +135,206 @@ public class CdmiInputStream extends InputStream {
     
     public CdmiInputStream(String path, CdmiConnector conn, long startPos, int length)
             throws CdmiConnectionException, FileNotFoundException {
+        this(path, conn, startPos, length, 0, 0);
+    }
+
+    /**
+     * Constructor with read-ahead. Read-ahead is only enabled if the connector
+     * is multi-threaded, otherwise the stream behaves as if it was created
+     * without read-ahead.
+     * 
+     * @param path
+     *            the name of the data object in the repository.
+     * @param conn
+     *            the {@link CdmiConnector} used for sending the requests.
+     * @param startPos
+     *            the offset into the data object.
+     * @param length
+     *            the maximum length to be read, or -1 to read up to the end.
+     * @param readAheadSize
+     *            the size in bytes of each read-ahead window.
+     * @param readAheadWindows
+     *            the maximum number of windows fetched concurrently.
+     * @throws CdmiConnectionException
+     * @throws FileNotFoundException
+     */
+    public CdmiInputStream(String path, CdmiConnector conn, long startPos, int length,
+            int readAheadSize, int readAheadWindows) throws CdmiConnectionException,
+            FileNotFoundException {
+        this(new CdmiMetadataReader(conn).readMetadata(path), conn, startPos, length,
+                readAheadSize, readAheadWindows);
+    }
+
+    /**
+     * Constructor for a data object whose metadata was already read.
+     * 
+     * @param meta
+     *            the metadata of the data object.
+     * @param conn
+     *            the {@link CdmiConnector} used for sending the requests.
+     * @param startPos
+     *            the offset into the data object.
+     * @param length
+     *            the maximum length to be read, or -1 to read up to the end.
+     * @param readAheadSize
+     *            the size in bytes of each read-ahead window.
+     * @param readAheadWindows
+     *            the maximum number of windows fetched concurrently.
+     */
+    public CdmiInputStream(CdmiMetadata meta, CdmiConnector conn, long startPos, int length,
+            int readAheadSize, int readAheadWindows) {
+        this(conn, "cdmi_objectid/" + meta.getObjectID(), meta.getSize(), startPos, length,
+                readAheadSize, readAheadWindows);
+    }
+
+    private CdmiInputStream(CdmiConnector conn, String objectPath, long size, long startPos,
+            int length, int readAheadSize, int readAheadWindows) {
         this.connector = conn;
+        this.path = objectPath;
         this.pos_in_target = startPos;
-        CdmiMetadataReader metareader = new CdmiMetadataReader(this.connector);
-        CdmiMetadata meta = metareader.readMetadata(path);
-        this.path = "cdmi_objectid/" + meta.getObjectID();
+        this.size_known = size >= 0;
+        this.discovered_size = -1;
         if (length > 0) {
             this.final_pos = startPos + length;
-            if (this.final_pos > meta.getSize()) {
-                this.final_pos = meta.getSize();
+            if (size_known && this.final_pos > size) {
+                this.final_pos = size;
             }
         } else {
-            this.final_pos = meta.getSize();
+            this.final_pos = size_known ? size : Long.MAX_VALUE;
         }
         this.closed = false;
         this.in = null;
+        if (conn.isMultiThreaded() && readAheadSize > 0 && readAheadWindows > 0) {
+            this.readAheadSize = readAheadSize;
+            this.readAheadWindows = readAheadWindows;
+            this.pending = new LinkedList<WindowFetch>();
+            this.next_fetch_pos = this.pos_in_target;
+        } else {
+            this.readAheadSize = 0;
+            this.readAheadWindows = 0;
+        }
+    }
+
+    /**
+     * Open a data object from its object ID, without reading its metadata.
+     * 
+     * @param objectID
+     *            the object ID of the data object.
+     * @param conn
+     *            the {@link CdmiConnector} used for sending the requests.
+     * @param startPos
+     *            the offset into the data object.
+     * @param length
+     *            the maximum length to be read, or -1 to read up to the end.
+     * @param readAheadSize
+     *            the size in bytes of each read-ahead window.
+     * @param readAheadWindows
+     *            the maximum number of windows fetched concurrently.
+     * @return a {@link CdmiInputStream} reading the data object.
+     */
+    public static CdmiInputStream fromObjectID(String objectID, CdmiConnector conn,
+            long startPos, int length, int readAheadSize, int readAheadWindows) {
+        return new CdmiInputStream(conn, "cdmi_objectid/" + objectID, -1L, startPos, length,
+                readAheadSize, readAheadWindows);
+    }
+
+    /**
+     * Declare that the object ID of this stream was read from a cache. If the
+     * first read through the object ID finds nothing, the entry is dropped,
+     * the object ID is resolved again from the key, and the read is retried.
+     * 
+     * @param key
+     *            the name of the data object in the repository.
+     * @param cache
+     *            the cache the object ID was read from.
+     */
+    public void setObjectIdCache(String key, CdmiObjectIdCache cache) {
+        this.key = key;
+        this.objectIdCache = cache;
+    }
+
+    /**
+     * Send a ranged read, resolving the object ID again if it was found stale.
+     */
+    private HttpResponse readRange(long offset, long length) throws CdmiConnectionException {
+        HttpResponse response = connector.readObjectNonCdmi(path, offset, length);
+        CdmiObjectIdCache cache = objectIdCache;
+        if (cache == null) {
+            return response;
+        }
+        objectIdCache = null;
+        if (HttpStatus.SC_NOT_FOUND != response.getStatusLine().getStatusCode()) {
+            return response;
+        }
+        EntityUtils.consumeQuietly(response.getEntity());
+        cache.invalidate(key);
+        CdmiMetadataReader reader = new CdmiMetadataReader(connector);
+        reader.invalidate(key);
+        String objectID;
+        try {
+            objectID = reader.readMetadata(key).getObjectID();
+        } catch (FileNotFoundException e) {
+            throw new CdmiConnectionException(e);
+        }
+        cache.put(key, objectID);
+        path = "cdmi_objectid/" + objectID;
+        return connector.readObjectNonCdmi(path, offset, length);
+    }
+
+    /**
+     * Fetch the read-ahead windows on a shared executor instead of threads of
+     * this stream. The executor is not stopped when the stream is closed.
+     * 
+     * @param executor
+     *            the executor, or null to use threads of this stream.
+     */
+    public void setExecutor(ExecutorService executor) {
+        if (this.executor != null && ownExecutor) {
+            this.executor.shutdown();
+        }
+        this.executor = executor;
+        this.ownExecutor = false;
+    }
+
+    /**
+     * Extract the total size of the data object from the Content-Range header
+     * of a partial response, e.g. "bytes 0-99/1000".
+     * 
+     * @return the total size, or -1 if the header is missing or does not
+     *         specify it.
+     */
+    private static long parseTotalSize(HttpResponse response) {
+        Header header = response.getFirstHeader("Content-Range");
+        if (header == null) {
+            return -1L;
+        }
+        String value = header.getValue();
+        int slash = value.lastIndexOf('/');
+        if (slash < 0) {
+            return -1L;
+        }
+        try {
+            return Long.parseLong(value.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Record the end of the data object once it is known.
+     */
+    private void setSize(long size) {
+        if (size < final_pos) {
+            final_pos = Math.max(size, pos_in_target);
+        }
+        size_known = true;
+    }
+
+    /**
+     * @return true if the windows are fetched in the background.
+     */
+    private boolean isReadAhead() {
+        return readAheadSize > 0;
     }
 
     /**
@@ -101,9 +347,25 @@ public class CdmiInputStream extends InputStream {
      */
     private InputStream connectorRead() throws CdmiConnectionException {
         try {
-            HttpResponse response = connector.readObjectNonCdmi(path, pos_in_target, final_pos - pos_in_target);
+            long toread = final_pos == Long.MAX_VALUE ? -1L : final_pos - pos_in_target;
+            HttpResponse response = readRange(pos_in_target, toread);
             int status = response.getStatusLine().getStatusCode();
+            if (!size_known && HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE == status) {
+                // Reading past the end of the data object.
+                EntityUtils.consumeQuietly(response.getEntity());
+                setSize(pos_in_target);
+                return null;
+            }
             if (HttpStatus.SC_OK == status || HttpStatus.SC_PARTIAL_CONTENT == status) {
+                if (!size_known) {
+                    long total = parseTotalSize(response);
+                    long contentLength = response.getEntity().getContentLength();
+                    if (total >= 0) {
+                        setSize(total);
+                    } else if (contentLength >= 0) {
+                        setSize(pos_in_target + contentLength);
+                    }
+                }
                 return response.getEntity().getContent();
             } else {
                 throw new CdmiConnectionException("Impossible to read path " + path
@@ -114,6 +376,203 @@ public class CdmiInputStream extends InputStream {
         }
     }
 
+    /**
+     * Read a full window from the server.
+     * 
+     * @param offset
+     *            the start position of the window in the data object.
+     * @param length
+     *            the length of the window.
+     * @return the contents of the window.
+     * @throws CdmiConnectionException
+     */
+    private byte[] fetchWindow(long offset, int length, AtomicReference<InputStream> contents)
+            throws CdmiConnectionException {
+        HttpResponse response = readRange(offset, length);
+        try {
+            int status = response.getStatusLine().getStatusCode();
+            if (!size_known && HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE == status) {
+                return new byte[0];
+            }
+            if (HttpStatus.SC_OK != status && HttpStatus.SC_PARTIAL_CONTENT != status) {
+                throw new CdmiConnectionException("Impossible to read path " + path
+                        + " got response " + response.getStatusLine());
+            }
+            if (!size_known) {
+                discovered_size = parseTotalSize(response);
+            }
+            byte[] data = new byte[length];
+            InputStream content = response.getEntity().getContent();
+            contents.set(content);
+            if (Thread.currentThread().isInterrupted()) {
+                // Cancelled while waiting for the response.
+                abort(content);
+                throw new CdmiConnectionException("Read of path " + path + " cancelled");
+            }
+            int read = 0;
+            int lastread;
+            while (read < length && (lastread = content.read(data, read, length - read)) != -1) {
+                read += lastread;
+            }
+            if (read != length && !size_known) {
+                // Reached the end of the data object.
+                return Arrays.copyOf(data, read);
+            }
+            if (read != length) {
+                throw new CdmiConnectionException("Impossible to read path " + path
+                        + " at offset " + offset + " length " + length + " got only "
+                        + read + " bytes");
+            }
+            return data;
+        } catch (IOException e) {
+            throw new CdmiConnectionException(e);
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
+        }
+    }
+
+    /**
+     * Release the connection of a response body without reading it.
+     */
+    private static void abort(InputStream content) {
+        if (content instanceof ConnectionReleaseTrigger) {
+            try {
+                ((ConnectionReleaseTrigger) content).abortConnection();
+            } catch (IOException e) {
+                // Already released.
+            }
+        }
+    }
+
+    /**
+     * A window being fetched. Cancelling it aborts the response being read.
+     */
+    private static class WindowFetch extends FutureTask<byte[]> {
+        private final AtomicReference<InputStream> contents;
+
+        WindowFetch(Callable<byte[]> fetch, AtomicReference<InputStream> contents) {
+            super(fetch);
+            this.contents = contents;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                abort(contents.get());
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * Make sure that up to {@link #readAheadWindows} windows are being fetched.
+     */
+    private void scheduleWindows() {
+        if (executor == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(readAheadWindows,
+                    readAheadWindows, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "cdmi-read-ahead");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+            ownExecutor = true;
+        }
+        // Only fetch one window at a time until the size is known.
+        int windows = size_known ? readAheadWindows : 1;
+        while (pending.size() < windows && next_fetch_pos < final_pos) {
+            final long offset = next_fetch_pos;
+            final int length = (int) Math.min(readAheadSize, final_pos - offset);
+            final AtomicReference<InputStream> contents = new AtomicReference<InputStream>();
+            WindowFetch fetch = new WindowFetch(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws CdmiConnectionException {
+                    return fetchWindow(offset, length, contents);
+                }
+            }, contents);
+            pending.add(fetch);
+            try {
+                executor.execute(fetch);
+            } catch (RejectedExecutionException e) {
+                // The shared executor was shut down, fetch it now.
+                fetch.run();
+            }
+            next_fetch_pos += length;
+        }
+    }
+
+    /**
+     * Wait for the next window in order and make it the current one.
+     * 
+     * @throws IOException
+     */
+    private void nextWindow() throws IOException {
+        scheduleWindows();
+        Future<byte[]> next = pending.poll();
+        try {
+            int expected = (int) Math.min(readAheadSize, final_pos - pos_in_target);
+            window = next.get();
+            pos_in_window = 0;
+            if (!size_known) {
+                if (discovered_size >= 0) {
+                    setSize(discovered_size);
+                } else if (window.length < expected) {
+                    setSize(pos_in_target + window.length);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CdmiConnectionException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CdmiConnectionException) {
+                throw (CdmiConnectionException) e.getCause();
+            }
+            throw new CdmiConnectionException(e.getCause());
+        }
+        // Keep the pipeline full while the caller consumes this window.
+        scheduleWindows();
+    }
+
+    /**
+     * Drop all the windows fetched in advance, aborting the ones being read so
+     * that their connections are released, and restart fetching from the
+     * current position.
+     */
+    private void discardWindows() {
+        if (pending != null) {
+            for (WindowFetch fetch : pending) {
+                fetch.cancel(true);
+            }
+            pending.clear();
+        }
+        window = null;
+        pos_in_window = 0;
+        next_fetch_pos = pos_in_target;
+    }
+
+    /**
+     * Read from the current window, fetching the next one if needed.
+     */
+    private int readAhead(byte[] b, int offset, int length) throws IOException {
+        if (window == null || pos_in_window == window.length) {
+            nextWindow();
+            if (window.length == 0) {
+                return -1;
+            }
+        }
+        int toread = Math.min(length, window.length - pos_in_window);
+        System.arraycopy(window, pos_in_window, b, offset, toread);
+        pos_in_window += toread;
+        pos_in_target += toread;
+        return toread;
+    }
+
     /**
      * Allow closing the input stream earlier to release connections.
      * 
@@ -137,6 +596,13 @@ public class CdmiInputStream extends InputStream {
     @Override
     public void close() throws IOException {
         closeInputStream();
+        if (isReadAhead()) {
+            discardWindows();
+            if (executor != null && ownExecutor) {
+                executor.shutdown();
+            }
+            executor = null;
+        }
         closed = true;
     }
 
@@ -145,6 +611,9 @@ public class CdmiInputStream extends InputStream {
         if (closed) {
             throw new IOException("Stream has already been closed.");
         }
+        if (!size_known) {
+            return 0;
+        }
         return (int) Math.min(final_pos - pos_in_target, Integer.MAX_VALUE);
     }
 
@@ -174,16 +643,28 @@ public class CdmiInputStream extends InputStream {
             // End of file.
             return -1;
         }
+        if (isReadAhead()) {
+            return readAhead(b, offset, length);
+        }
         if (in == null) {
             in = connectorRead();
+            if (in == null) {
+                return -1;
+            }
         }
         int totalbytesread = 0;
         try {
             totalbytesread = in.read(b, offset, length);
-            pos_in_target += totalbytesread;
         } catch (CdmiConnectionException e) {
             throw new IOException(e);
         }
+        if (totalbytesread == -1) {
+            // The server sent less than expected.
+            setSize(pos_in_target);
+            closeInputStream();
+            return -1;
+        }
+        pos_in_target += totalbytesread;
         if (pos_in_target == final_pos) {
             closeInputStream();
         }
@@ -202,6 +683,18 @@ public class CdmiInputStream extends InputStream {
         }
 
        
+        if (isReadAhead()) {
+            long skipped = Math.min(Math.max(n, 0), final_pos - pos_in_target);
+            if (window != null && skipped <= window.length - pos_in_window) {
+                pos_in_window += (int) skipped;
+                pos_in_target += skipped;
+            } else {
+                pos_in_target += skipped;
+                discardWindows();
+            }
+            return skipped;
+        }
+
         // Get the maximum number of bytes that can be skipped.
         long max_skippable_bytes;
         if (in == null) {
@@ -210,7 +703,9 @@ public class CdmiInputStream extends InputStream {
             pos_in_target += skipped;
             return skipped;
         } else {
-            return in.skip(n);
+            long skipped = in.skip(n);
+            pos_in_target += skipped;
+            return skipped;
         }
     }
 
@@ -222,10 +717,25 @@ public class CdmiInputStream extends InputStream {
         if (pos_in_target == final_pos && in == null) {
             return -1;
         }
+        if (isReadAhead()) {
+            byte[] single = new byte[1];
+            if (readAhead(single, 0, 1) == -1) {
+                return -1;
+            }
+            return single[0] & 0xff;
+        }
         if (in == null) {
             in = connectorRead();
+            if (in == null) {
+                return -1;
+            }
         }
         int value = in.read();
+        if (value == -1) {
+            setSize(pos_in_target);
+            closeInputStream();
+            return -1;
+        }
         pos_in_target++;
         if (pos_in_target == final_pos) {
             closeInputStream();
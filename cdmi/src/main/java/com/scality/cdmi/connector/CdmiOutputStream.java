@@ -35,18 +35,25 @@ package com.scality.cdmi.connector;
 
 import java.io.FileNotFoundException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
-import org.apache.http.util.ByteArrayBuffer;
 import org.apache.http.util.EntityUtils;
 
 import com.scality.cdmi.api.CdmiConnectionException;
 import com.scality.cdmi.impl.metadata.CdmiMetadata;
 import com.scality.cdmi.impl.metadata.CdmiMetadataReader;
+import com.scality.cdmi.impl.metadata.CdmiObjectIdCache;
 
 /**
  * An {@link OutputStream} implementation for writing CDMI data objects. It
@@ -56,6 +63,17 @@ import com.scality.cdmi.impl.metadata.CdmiMetadataReader;
  * performance. The actual PUT request to the CDMI server is done in a separate
  * thread to allow continuously filling the buffer.
  * 
+ * If the connector has a {@link CdmiPartSizer}, the size of the parts adapts
+ * to the observed throughput between its bounds instead of being maxPutSize.
+ * 
+ * If the connector has a {@link CdmiBufferPool}, the buffers are taken from
+ * the pool and sent without being copied; otherwise a new buffer is allocated
+ * for each part.
+ * 
+ * Each part sent in the background is tracked by a {@link Future}. If a part
+ * fails, the error is reported by the next call to write, flush or close, and
+ * the stream cannot be used anymore.
+ * 
  * @author ziad.bizri@ezako.com for Scality
  */
 public class CdmiOutputStream extends OutputStream {
@@ -65,74 +83,237 @@ public class CdmiOutputStream extends OutputStream {
 	 */
 	private final int maxPutSize;
 	private final int maxPutThreads;
-	private String path;
-	private ByteArrayBuffer buffer;
-	private int pos_in_buffer;
+	private volatile String path;
+	/**
+	 * The name used by the caller, used for invalidating cached metadata. Null
+	 * if the stream was opened from an object ID.
+	 */
+	private String key;
+	private volatile String objectID;
+	/**
+	 * The cache the object ID was read from, until a part shows the object ID
+	 * is still valid.
+	 */
+	private volatile CdmiObjectIdCache objectIdCache;
+	/**
+	 * The part being filled, or null if no buffer is held.
+	 */
+	private ByteBuffer buffer;
+	private CdmiBufferPool pool;
+	/**
+	 * The adaptive size of the parts, or null if all the parts are of
+	 * maxPutSize bytes.
+	 */
+	private CdmiPartSizer sizer;
 	private long pos_in_target;
 	private boolean closed;
 	private ThreadPoolExecutor executor;
+	/**
+	 * The parts sent in the background and not checked yet.
+	 */
+	private LinkedList<Future<Void>> parts;
+	/**
+	 * The first error of a part sent in the background.
+	 */
+	private CdmiConnectionException failure;
 	private CdmiMetadataReader metareader;
 
 	private static void writeOut(CdmiConnector connector, String path,
-			long offset, byte[] data) throws CdmiConnectionException {
+			long offset, ByteBuffer data) throws CdmiConnectionException {
+		int length = data.remaining();
 		HttpResponse response = connector.updateObjectNonCdmi(path, offset,
-				data.length, data);
+				data);
+		checkWritten(path, offset, length, response);
+	}
+
+	private static void checkWritten(String path, long offset, int length,
+			HttpResponse response) throws CdmiConnectionException {
 		int status = response.getStatusLine().getStatusCode();
 		if (HttpStatus.SC_NO_CONTENT != status
 				&& HttpStatus.SC_CREATED != status) {
 			throw new CdmiConnectionException("Impossible to write path "
-					+ path + " at offset " + offset + " length " + data.length
+					+ path + " at offset " + offset + " length " + length
 					+ " got response " + response.getStatusLine());
 		}
 		EntityUtils.consumeQuietly(response.getEntity());
 	}
 
-	private class PutThread extends Thread {
-		private CdmiConnector connector;
+	/**
+	 * Send a part, resolving the object ID again if it was found stale.
+	 */
+	private void writePart(long offset, ByteBuffer data)
+			throws CdmiConnectionException {
+		CdmiObjectIdCache cache = objectIdCache;
+		if (cache == null) {
+			writeOut(connector, path, offset, data);
+			return;
+		}
+		String stale = path;
+		int length = data.remaining();
+		HttpResponse response = connector.updateObjectNonCdmi(stale, offset,
+				data.duplicate());
+		if (HttpStatus.SC_NOT_FOUND != response.getStatusLine()
+				.getStatusCode()) {
+			checkWritten(stale, offset, length, response);
+			objectIdCache = null;
+			return;
+		}
+		EntityUtils.consumeQuietly(response.getEntity());
+		writeOut(connector, resolve(cache, stale), offset, data);
+	}
+
+	/**
+	 * Drop a stale object ID from the cache and read it again from the key.
+	 * Parts failing concurrently only resolve it once.
+	 * 
+	 * @return the path of the data object.
+	 */
+	private synchronized String resolve(CdmiObjectIdCache cache, String stale)
+			throws CdmiConnectionException {
+		if (stale.equals(path)) {
+			cache.invalidate(key);
+			metareader.invalidate(key);
+			objectID = readObjectID(connector, key);
+			cache.put(key, objectID);
+			path = "cdmi_objectid/" + objectID;
+			objectIdCache = null;
+		}
+		return path;
+	}
+
+	/**
+	 * Send a part, recording its throughput.
+	 */
+	private void send(long offset, ByteBuffer data)
+			throws CdmiConnectionException {
+		CdmiPartSizer current = sizer;
+		if (current == null) {
+			writePart(offset, data);
+			return;
+		}
+		int length = data.remaining();
+		long start = System.nanoTime();
+		writePart(offset, data);
+		current.record(length, System.nanoTime() - start);
+	}
+
+	private class PartWriter implements Callable<Void> {
 		private long offset;
-		private byte[] data;
+		private ByteBuffer data;
 
-		public PutThread(CdmiConnector connector, long offset, byte[] data) {
-			this.connector = connector;
+		public PartWriter(long offset, ByteBuffer data) {
 			this.offset = offset;
 			this.data = data;
 		}
 
 		@Override
-		public void run() {
+		public Void call() throws CdmiConnectionException {
 			try {
-				writeOut(connector, path, offset, data);
-			} catch (CdmiConnectionException e) {
-				throw new RuntimeException(e);
+				send(offset, data);
+				return null;
+			} finally {
+				releaseBuffer(data);
 			}
 		}
 	}
 
 	public CdmiOutputStream(String path, long offset, CdmiConnector connector,
 			int maxPutSize, int maxPutThreads) throws CdmiConnectionException {
+		this(path, readObjectID(connector, path), offset, connector,
+				maxPutSize, maxPutThreads);
+	}
+
+	private CdmiOutputStream(String key, String objectID, long offset,
+			CdmiConnector connector, int maxPutSize, int maxPutThreads) {
 		this.connector = connector;
 		this.maxPutSize = maxPutSize;
 		this.maxPutThreads = maxPutThreads;
 		this.buffer = null;
-		this.pos_in_buffer = 0;
 		this.pos_in_target = offset;
 		this.closed = false;
-		this.buffer = new ByteArrayBuffer(maxPutSize);
+		CdmiPartSizer settings = connector.getPartSizer();
+		this.sizer = settings != null ? new CdmiPartSizer(settings) : null;
+		this.pool = connector.getBufferPool();
+		if (pool != null
+				&& pool.getBufferSize() < (sizer != null ? sizer
+						.getMaxPartSize() : maxPutSize)) {
+			// The pool was configured for smaller parts.
+			this.pool = null;
+		}
 		if (connector.isMultiThreaded()) {
 			// FIXME: remove hardcoded value.
-			executor = new ThreadPoolExecutor(maxPutThreads, maxPutThreads, 0L,
-					TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+			executor = new ThreadPoolExecutor(maxPutThreads, maxPutThreads, 60L,
+					TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
 							maxPutThreads),
 					new ThreadPoolExecutor.CallerRunsPolicy());
+			// Do not keep idle threads for streams that are never closed.
+			executor.allowCoreThreadTimeOut(true);
+			parts = new LinkedList<Future<Void>>();
 		} else {
 			executor = null;
+			parts = null;
 		}
+		failure = null;
 		metareader = new CdmiMetadataReader(this.connector);
+		this.key = key;
+		this.objectID = objectID;
+		this.path = "cdmi_objectid/" + objectID;
+	}
+
+	private static String readObjectID(CdmiConnector connector, String path)
+			throws CdmiConnectionException {
 		try {
-		    CdmiMetadata meta = metareader.readMetadata(path);
-		    this.path = "cdmi_objectid/" + meta.getObjectID();
+			CdmiMetadata meta = new CdmiMetadataReader(connector)
+					.readMetadata(path);
+			return meta.getObjectID();
 		} catch (FileNotFoundException e) {
-		    throw new CdmiConnectionException(e);
+			throw new CdmiConnectionException(e);
+		}
+	}
+
+	/**
+	 * Open a data object from its object ID, without reading its metadata.
+	 * 
+	 * @param objectID
+	 *            the object ID of the data object.
+	 * @param key
+	 *            the name of the data object if known, or null. Only used for
+	 *            invalidating cached metadata.
+	 * @param offset
+	 *            the start position for the write.
+	 * @param connector
+	 *            the {@link CdmiConnector} used for sending the requests.
+	 * @param maxPutSize
+	 *            the maximum content length of each request.
+	 * @param maxPutThreads
+	 *            the maximum number of concurrent requests.
+	 * @return a {@link CdmiOutputStream} writing to the data object.
+	 */
+	public static CdmiOutputStream fromObjectID(String objectID, String key,
+			long offset, CdmiConnector connector, int maxPutSize,
+			int maxPutThreads) {
+		return new CdmiOutputStream(key, objectID, offset, connector,
+				maxPutSize, maxPutThreads);
+	}
+
+	/**
+	 * Declare that the object ID of this stream was read from a cache. If the
+	 * first part written through the object ID finds nothing, the entry is
+	 * dropped, the object ID is resolved again from the key, and the part is
+	 * sent again. Only effective if the key is known.
+	 * 
+	 * @param cache
+	 *            the cache the object ID was read from.
+	 */
+	public void setObjectIdCache(CdmiObjectIdCache cache) {
+		this.objectIdCache = key != null ? cache : null;
+	}
+
+	private void invalidateMetadata() {
+		if (key != null) {
+			metareader.invalidate(key);
+		} else {
+			metareader.invalidateObjectID(objectID);
 		}
 	}
 
@@ -145,9 +326,70 @@ public class CdmiOutputStream extends OutputStream {
 		// For tests.
 	}
 
-	private void reinit() {
-		buffer.clear();
-		pos_in_buffer = 0;
+	/**
+	 * Get a new part buffer, waiting for the pool if needed.
+	 */
+	private void acquireBuffer() throws CdmiConnectionException {
+		int size = nextPartSize();
+		if (pool == null) {
+			buffer = ByteBuffer.allocate(size);
+			return;
+		}
+		try {
+			buffer = pool.acquire(size);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CdmiConnectionException(e);
+		}
+	}
+
+	/**
+	 * @return the size of the part starting at the current position.
+	 */
+	private int nextPartSize() {
+		return sizer != null ? sizer.getPartSize(pos_in_target) : maxPutSize;
+	}
+
+	private void releaseBuffer(ByteBuffer data) {
+		if (pool != null) {
+			pool.release(data);
+		}
+	}
+
+	/**
+	 * Forget the parts that are complete, and record the first error.
+	 * 
+	 * @param wait
+	 *            true to wait for all the parts to complete.
+	 */
+	private void checkParts(boolean wait) throws CdmiConnectionException {
+		if (parts != null) {
+			Iterator<Future<Void>> it = parts.iterator();
+			while (it.hasNext()) {
+				Future<Void> part = it.next();
+				if (!wait && !part.isDone()) {
+					continue;
+				}
+				try {
+					part.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new CdmiConnectionException(e);
+				} catch (ExecutionException e) {
+					// Only the first error is reported.
+					if (failure == null) {
+						Throwable cause = e.getCause();
+						failure = cause instanceof CdmiConnectionException ? (CdmiConnectionException) cause
+								: new CdmiConnectionException(cause);
+					}
+				}
+				it.remove();
+			}
+		}
+		if (failure != null) {
+			throw new CdmiConnectionException("Impossible to write path "
+					+ path + ", a previous part failed", failure);
+		}
 	}
 
 	@Override
@@ -169,13 +411,16 @@ public class CdmiOutputStream extends OutputStream {
 		if (closed) {
 			throw new CdmiConnectionException("Output stream is already closed");
 		}
+		checkParts(false);
 
 		int remaining = length;
 		while (remaining > 0) {
-			int towrite = Math.min(remaining, maxPutSize - pos_in_buffer);
-			buffer.append(b, offset, towrite);
-			pos_in_buffer += towrite;
-			if (pos_in_buffer == maxPutSize) {
+			if (buffer == null) {
+				acquireBuffer();
+			}
+			int towrite = Math.min(remaining, buffer.remaining());
+			buffer.put(b, offset, towrite);
+			if (!buffer.hasRemaining()) {
 				writeout();
 			}
 			remaining -= towrite;
@@ -193,10 +438,13 @@ public class CdmiOutputStream extends OutputStream {
 		if (closed) {
 			throw new CdmiConnectionException("Output stream is already closed");
 		}
+		checkParts(false);
 
-		int towrite = b % 256;
-		buffer.append(towrite);
-		if (++pos_in_buffer == maxPutSize) {
+		if (buffer == null) {
+			acquireBuffer();
+		}
+		buffer.put((byte) b);
+		if (!buffer.hasRemaining()) {
 			writeout();
 		}
 	}
@@ -207,18 +455,15 @@ public class CdmiOutputStream extends OutputStream {
 			throw new CdmiConnectionException("Output stream is already closed");
 		}
 		writeout();
-
-		if (executor != null) {
-			executor.shutdown();
-			while (!executor.isTerminated()) {
-			}
-			executor = new ThreadPoolExecutor(maxPutThreads, maxPutThreads, 0L,
-					TimeUnit.MILLISECONDS,
-					new ArrayBlockingQueue<Runnable>(maxPutThreads),
-					new ThreadPoolExecutor.CallerRunsPolicy());
+		if (buffer != null && pool != null) {
+			// Do not hold a pooled buffer while idle.
+			pool.release(buffer);
+			buffer = null;
 		}
+		checkParts(true);
 
 		connector.forceFlushNonCdmi(path);
+		invalidateMetadata();
 	}
 
 	/**
@@ -228,22 +473,78 @@ public class CdmiOutputStream extends OutputStream {
 	@Override
 	public void close() throws CdmiConnectionException {
 		if (!closed) {
-			flush();
+			try {
+				flush();
+			} finally {
+				closed = true;
+				if (executor != null) {
+					executor.shutdown();
+				}
+				if (buffer != null) {
+					releaseBuffer(buffer);
+					buffer = null;
+				}
+			}
 		}
-		closed = true;
+	}
+
+	/**
+	 * Close the stream without waiting for the pending parts. The stream must
+	 * not be used anymore once this method is called. With a single threaded
+	 * connector, the stream is closed before this method returns.
+	 * 
+	 * @return a {@link Future} completed once all the parts are written and
+	 *         flushed, whose get() method throws an {@link ExecutionException}
+	 *         wrapping the {@link CdmiConnectionException} if a part failed.
+	 */
+	public Future<Void> closeAsync() {
+		FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+			@Override
+			public Void call() throws CdmiConnectionException {
+				close();
+				return null;
+			}
+		});
+		if (closed || executor == null) {
+			task.run();
+		} else {
+			Thread thread = new Thread(task, "CdmiOutputStream-close-" + path);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return task;
 	}
 
 	private void writeout() throws CdmiConnectionException {
-		int length = buffer.length();
-		if (length > 0) {
-			if (connector.isMultiThreaded()) {
-				executor.execute(new PutThread(connector, pos_in_target, buffer
-						.toByteArray()));
+		if (buffer == null || buffer.position() == 0) {
+			return;
+		}
+		buffer.flip();
+		int length = buffer.remaining();
+		if (connector.isMultiThreaded()) {
+			// The buffer now belongs to the part, which releases it.
+			ByteBuffer data = buffer;
+			buffer = null;
+			parts.add(executor.submit(new PartWriter(pos_in_target, data)));
+		} else {
+			try {
+				send(pos_in_target, buffer);
+			} finally {
+				buffer.clear();
+			}
+		}
+		pos_in_target += length;
+		if (buffer != null) {
+			// Reuse the buffer for the next part if it is large enough.
+			int size = nextPartSize();
+			if (buffer.capacity() < size) {
+				releaseBuffer(buffer);
+				buffer = null;
+				acquireBuffer();
 			} else {
-				writeOut(connector, path, pos_in_target, buffer.toByteArray());
+				buffer.limit(size);
 			}
-			pos_in_target += length;
-			reinit();
 		}
+		invalidateMetadata();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.connector;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive sizing of the parts of a {@link CdmiOutputStream}. A stream starts
+ * with parts of the minimum size, so that small writes stay cheap, and
+ * doubles them while they are sent faster than the target duration without
+ * losing throughput, so that the fixed latency of each request is amortized
+ * on fast links. Parts are halved when they take much longer than the target
+ * duration, or when their throughput falls far below the best one observed,
+ * which limits the cost of a retried part.
+ * 
+ * The part sizes are multiples of the alignment, and parts end on aligned
+ * offsets of the data object. A sizer set on a connector holds the settings;
+ * each stream uses its own copy to track its parts.
+ */
+public class CdmiPartSizer {
+    /** Growing is allowed while the throughput is above this share of the best one. */
+    private static final double GROW_RATIO = 0.8;
+    /** Parts are shrunk when the throughput is below this share of the best one. */
+    private static final double SHRINK_RATIO = 0.5;
+    /** How fast the best throughput is forgotten, at each part. */
+    private static final double DECAY = 0.95;
+
+    private final int minPartSize;
+    private final int maxPartSize;
+    private final int alignment;
+    private final long targetNanos;
+    private int partSize;
+    private double bestThroughput;
+
+    /**
+     * Constructor.
+     * 
+     * @param minPartSize
+     *            the size of the first parts, and the smallest size.
+     * @param maxPartSize
+     *            the largest size of a part.
+     * @param alignment
+     *            the boundary of the parts in bytes, 1 for none.
+     * @param targetPartMillis
+     *            the time it should take to send a part.
+     */
+    public CdmiPartSizer(int minPartSize, int maxPartSize, int alignment,
+            long targetPartMillis) {
+        this.alignment = Math.max(1, alignment);
+        this.minPartSize = Math.max(this.alignment, minPartSize
+                - minPartSize % this.alignment);
+        this.maxPartSize = Math.max(this.minPartSize, maxPartSize
+                - maxPartSize % this.alignment);
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetPartMillis);
+        this.partSize = this.minPartSize;
+        this.bestThroughput = 0;
+    }
+
+    /**
+     * Create a sizer for a new stream, with the same settings and without
+     * the observations of the given sizer.
+     * 
+     * @param settings
+     *            the sizer to copy.
+     */
+    public CdmiPartSizer(CdmiPartSizer settings) {
+        this(settings.minPartSize, settings.maxPartSize, settings.alignment,
+                TimeUnit.NANOSECONDS.toMillis(settings.targetNanos));
+    }
+
+    /**
+     * @return the smallest size of a part.
+     */
+    public int getMinPartSize() {
+        return minPartSize;
+    }
+
+    /**
+     * @return the largest size of a part.
+     */
+    public int getMaxPartSize() {
+        return maxPartSize;
+    }
+
+    /**
+     * @return the boundary of the parts.
+     */
+    public int getAlignment() {
+        return alignment;
+    }
+
+    /**
+     * @return the current size of the parts.
+     */
+    public synchronized int getPartSize() {
+        return partSize;
+    }
+
+    /**
+     * @param offset
+     *            the offset of the part in the data object.
+     * @return the length of the part starting at this offset, so that it ends
+     *         on an aligned offset.
+     */
+    public synchronized int getPartSize(long offset) {
+        int misalignment = (int) (offset % alignment);
+        return misalignment == 0 ? partSize : partSize - misalignment;
+    }
+
+    /**
+     * Adapt the size of the next parts to a part that was sent.
+     * 
+     * @param length
+     *            the length of the part.
+     * @param nanos
+     *            the time it took to send it.
+     */
+    public synchronized void record(int length, long nanos) {
+        if (length < partSize / 2) {
+            // A flushed or realigned part, too small to be representative.
+            return;
+        }
+        double throughput = length / (double) Math.max(1, nanos);
+        bestThroughput = Math.max(throughput, bestThroughput * DECAY);
+        if (nanos > 2 * targetNanos || throughput < SHRINK_RATIO * bestThroughput) {
+            partSize = Math.max(minPartSize, align(partSize / 2));
+        } else if (nanos < targetNanos && throughput >= GROW_RATIO * bestThroughput) {
+            partSize = Math.min(maxPartSize, align(2L * partSize));
+        }
+    }
+
+    private int align(long size) {
+        return (int) Math.min(Integer.MAX_VALUE, size - size % alignment);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CdmiPartSizer [partSize=" + partSize + ", minPartSize="
+                + minPartSize + ", maxPartSize=" + maxPartSize
+                + ", alignment=" + alignment + "]";
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.connector;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Settings and latency statistics for hedged reads. When a hedger is set on
+ * a multi-threaded {@link CdmiConnector}, idempotent GETs that have not been
+ * answered after {@link #getDelayMillis(String)} are sent a second time, and
+ * the first answer wins while the other request is aborted.
+ * 
+ * The delay is the configured percentile of the latencies recently observed
+ * for the same operation, bounded by a minimum and a maximum; the maximum is
+ * used until enough latencies have been observed. A hedged request uses a
+ * second connection, so the connection pool should allow for it.
+ * 
+ * The latency of a request is measured from its first attempt, so that the
+ * samples include the delay of the hedged requests. The hedges are limited to
+ * a fraction of the requests by a {@link RetryBudget}, and the requests are
+ * sent by a bounded number of threads; when they are all busy, the requests
+ * are sent by the calling thread without hedging.
+ */
+public class CdmiRequestHedger {
+    private static final int WINDOW = 128;
+    private static final int MIN_SAMPLES = 16;
+    private static final int REFRESH_SAMPLES = 8;
+    /** Default maximum number of threads sending the hedged requests. */
+    public static final int DEFAULT_MAX_THREADS = 64;
+    /** Default number of hedges allowed per request. */
+    public static final double DEFAULT_HEDGE_RATIO = 0.1;
+    /** Default number of hedges that can be spent at once. */
+    public static final int DEFAULT_MAX_HEDGES = 10;
+
+    private final double percentile;
+    private final long minDelayMillis;
+    private final long maxDelayMillis;
+    private final ConcurrentHashMap<String, LatencyWindow> latencies;
+    private final ExecutorService executor;
+    private volatile RetryBudget budget;
+    private final AtomicLong requests;
+    private final AtomicLong hedges;
+
+    /**
+     * Constructor.
+     * 
+     * @param percentile
+     *            the percentile of the observed latencies after which a
+     *            request is hedged, between 0 and 1, for example 0.95.
+     * @param minDelayMillis
+     *            the minimum delay before hedging a request.
+     * @param maxDelayMillis
+     *            the maximum delay before hedging a request, also used until
+     *            enough latencies have been observed.
+     */
+    public CdmiRequestHedger(double percentile, long minDelayMillis, long maxDelayMillis) {
+        this(percentile, minDelayMillis, maxDelayMillis, DEFAULT_MAX_THREADS);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param percentile
+     *            the percentile of the observed latencies after which a
+     *            request is hedged, between 0 and 1, for example 0.95.
+     * @param minDelayMillis
+     *            the minimum delay before hedging a request.
+     * @param maxDelayMillis
+     *            the maximum delay before hedging a request, also used until
+     *            enough latencies have been observed.
+     * @param maxThreads
+     *            the maximum number of requests and hedges sent at once.
+     */
+    public CdmiRequestHedger(double percentile, long minDelayMillis, long maxDelayMillis,
+            int maxThreads) {
+        this.percentile = Math.max(0, Math.min(1, percentile));
+        this.minDelayMillis = minDelayMillis;
+        this.maxDelayMillis = Math.max(minDelayMillis, maxDelayMillis);
+        this.latencies = new ConcurrentHashMap<String, LatencyWindow>();
+        this.executor = new ThreadPoolExecutor(0, Math.max(2, maxThreads), 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "cdmi-hedged-read");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.budget = new RetryBudget(DEFAULT_HEDGE_RATIO, DEFAULT_MAX_HEDGES);
+        this.requests = new AtomicLong();
+        this.hedges = new AtomicLong();
+    }
+
+    /**
+     * Limit the hedges to a fraction of the requests.
+     * 
+     * @param ratio
+     *            the number of hedges allowed per request, for example 0.1
+     *            for at most one hedge every ten requests.
+     * @param maxHedges
+     *            the maximum number of hedges that can be saved up and spent
+     *            at once.
+     */
+    public void setBudget(double ratio, int maxHedges) {
+        this.budget = new RetryBudget(ratio, maxHedges);
+    }
+
+    /**
+     * @return the budget limiting the hedges.
+     */
+    public RetryBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * @param operation
+     *            the type of operation.
+     * @return the time to wait for an answer before hedging a request.
+     */
+    public long getDelayMillis(String operation) {
+        LatencyWindow window = latencies.get(operation);
+        long delay = window != null ? window.getPercentile() : -1;
+        if (delay < 0) {
+            return maxDelayMillis;
+        }
+        return Math.max(minDelayMillis, Math.min(maxDelayMillis, delay));
+    }
+
+    /**
+     * Record the latency of an answered request.
+     * 
+     * @param operation
+     *            the type of operation.
+     * @param latencyMillis
+     *            the time it took to get the answer, from the first attempt.
+     */
+    public void record(String operation, long latencyMillis) {
+        LatencyWindow window = latencies.get(operation);
+        if (window == null) {
+            LatencyWindow created = new LatencyWindow();
+            window = latencies.putIfAbsent(operation, created);
+            if (window == null) {
+                window = created;
+            }
+        }
+        window.add(latencyMillis);
+    }
+
+    /**
+     * @return the number of requests sent through this hedger.
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of requests that were sent a second time.
+     */
+    public long getHedges() {
+        return hedges.get();
+    }
+
+    void onRequest() {
+        requests.incrementAndGet();
+        budget.deposit();
+    }
+
+    /**
+     * @return true if a hedge is allowed by the budget, and count it.
+     */
+    boolean tryHedge() {
+        if (!budget.withdraw()) {
+            return false;
+        }
+        hedges.incrementAndGet();
+        return true;
+    }
+
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Stop the threads sending the requests once they are done. Later reads
+     * are not hedged.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "CdmiRequestHedger [percentile=" + percentile + ", minDelay=" + minDelayMillis
+                + ", maxDelay=" + maxDelayMillis + ", budget=" + budget + "]";
+    }
+
+    /**
+     * The last latencies observed for an operation, with their percentile
+     * recomputed every few samples.
+     */
+    private class LatencyWindow {
+        private final long[] samples = new long[WINDOW];
+        private int count;
+        private int next;
+        private int sinceRefresh;
+        private long cached = -1;
+
+        synchronized void add(long latencyMillis) {
+            samples[next] = latencyMillis;
+            next = (next + 1) % WINDOW;
+            count = Math.min(WINDOW, count + 1);
+            if (++sinceRefresh >= REFRESH_SAMPLES && count >= MIN_SAMPLES) {
+                sinceRefresh = 0;
+                long[] sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                int rank = (int) Math.ceil(percentile * count) - 1;
+                cached = sorted[Math.max(0, Math.min(count - 1, rank))];
+            }
+        }
+
+        synchronized long getPercentile() {
+            return cached;
+        }
+    }
+}
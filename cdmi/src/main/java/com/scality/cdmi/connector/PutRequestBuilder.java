@@ -33,6 +33,9 @@
  */
 package com.scality.cdmi.connector;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+
 import org.apache.http.client.methods.HttpPut;
 
 import com.scality.cdmi.api.CdmiConfigurationException;
@@ -64,6 +67,31 @@ public interface PutRequestBuilder {
      */
     public PutRequestBuilder addContents(byte[] contents);
 
+    /**
+     * Add contents to the request, without copying them. The buffer must not
+     * be modified until the request is complete.
+     * 
+     * @param contents
+     *            a buffer whose remaining bytes are the contents to be
+     *            included in the request.
+     * @return the builder
+     */
+    public PutRequestBuilder addContents(ByteBuffer contents);
+
+    /**
+     * Add contents to the request, read from a region of a local file when the
+     * request is sent.
+     * 
+     * @param file
+     *            the local file storing the contents.
+     * @param offset
+     *            the start of the region in the file.
+     * @param length
+     *            the length of the region.
+     * @return the builder
+     */
+    public PutRequestBuilder addContents(File file, long offset, long length);
+
     /**
      * Add specific metadata to be sent to the CDMI server during the request.
      * 
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.connector;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * A response entity which reports the end of its request to the
+ * {@link CdmiEndpointRouter} once the body is consumed or released, rather
+ * than when the headers arrive. The outstanding count of the endpoint then
+ * covers the whole transfer, and the recorded latency includes the body.
+ * 
+ * Reaching the end of the body or closing it counts as a success, a read
+ * error as a failure, and an abort as a cancellation.
+ */
+class RoutedEntity extends HttpEntityWrapper {
+    private final CdmiEndpointRouter router;
+    private final CdmiEndpointRouter.Endpoint endpoint;
+    private final long start;
+    private final AtomicBoolean done;
+    private InputStream content;
+
+    /**
+     * Constructor.
+     * 
+     * @param entity
+     *            the streamed entity of the response.
+     * @param router
+     *            the router which selected the endpoint.
+     * @param endpoint
+     *            the endpoint the request was sent to.
+     * @param start
+     *            the start of the request, from {@link System#nanoTime()}.
+     */
+    RoutedEntity(HttpEntity entity, CdmiEndpointRouter router,
+            CdmiEndpointRouter.Endpoint endpoint, long start) {
+        super(entity);
+        this.router = router;
+        this.endpoint = endpoint;
+        this.start = start;
+        this.done = new AtomicBoolean();
+    }
+
+    void onSuccess() {
+        if (done.compareAndSet(false, true)) {
+            router.onSuccess(endpoint, System.nanoTime() - start);
+        }
+    }
+
+    void onFailure() {
+        if (done.compareAndSet(false, true)) {
+            router.onFailure(endpoint);
+        }
+    }
+
+    void onCancel() {
+        if (done.compareAndSet(false, true)) {
+            router.onCancel(endpoint);
+        }
+    }
+
+    @Override
+    public synchronized InputStream getContent() throws IOException {
+        if (content == null) {
+            InputStream wrapped = wrappedEntity.getContent();
+            if (wrapped == null) {
+                onSuccess();
+                return null;
+            }
+            content = new RoutedInputStream(wrapped);
+        }
+        return content;
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        InputStream in = getContent();
+        if (in == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[4096];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                outstream.write(buffer, 0, length);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * The body of the response, reporting its end to the router.
+     */
+    private class RoutedInputStream extends FilterInputStream implements
+            ConnectionReleaseTrigger {
+
+        RoutedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int b = super.read();
+                if (b == -1) {
+                    onSuccess();
+                }
+                return b;
+            } catch (IOException e) {
+                onFailure();
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                int read = super.read(b, off, len);
+                if (read == -1) {
+                    onSuccess();
+                }
+                return read;
+            } catch (IOException e) {
+                onFailure();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } catch (IOException e) {
+                onFailure();
+                throw e;
+            }
+            onSuccess();
+        }
+
+        @Override
+        public void abortConnection() throws IOException {
+            onCancel();
+            if (in instanceof ConnectionReleaseTrigger) {
+                ((ConnectionReleaseTrigger) in).abortConnection();
+            } else {
+                in.close();
+            }
+        }
+
+        @Override
+        public void releaseConnection() throws IOException {
+            close();
+        }
+    }
+}
@@ -45,11 +45,11 @@ import org.apache.http.params.CoreConnectionPNames;
 import org.apache.http.params.HttpParams;
 
 import com.scality.cdmi.api.CdmiAuthScope;
-import com.scality.cdmi.api.CdmiClient;
 import com.scality.cdmi.api.CdmiConnectionManager;
 import com.scality.cdmi.api.CdmiCredentials;
 import com.scality.cdmi.api.RequestFactory;
 import com.scality.cdmi.api.RetryStrategy;
+import com.scality.cdmi.connector.BackoffRetryPolicy;
 
 /**
  * All the requests are sent on a single thread. A response must be consumed
@@ -61,7 +61,7 @@ public class CdmiBasicConnectionManager extends CdmiConnectionManager {
 	private SchemeRegistry schemeRegistry;
 	private BasicClientConnectionManager connectionManager;
 	private DefaultHttpClient httpClient;
-	private CdmiClient client;
+	private CdmiClientImpl client;
 
 	/**
 	 * Constructor
@@ -85,6 +85,8 @@ public class CdmiBasicConnectionManager extends CdmiConnectionManager {
 		params.setParameter(CoreConnectionPNames.CONNECTION_TIMEOUT,
 				retryStrategy.getTimeOutMillis());
 		httpClient = new DefaultHttpClient(connectionManager, params);
+		httpClient.setHttpRequestRetryHandler(BackoffRetryPolicy
+				.newHttpRetryHandler());
 		httpClient.getCredentialsProvider().setCredentials(
 				authscope.getScope(), credentials.getCred());
 		client = new CdmiClientImpl(httpClient, factory, retryStrategy,
@@ -92,7 +94,7 @@ public class CdmiBasicConnectionManager extends CdmiConnectionManager {
 	}
 
 	@Override
-	public CdmiClient getClient() {
+	public CdmiClientImpl getClient() {
 		return client;
 	}
 
@@ -103,6 +105,7 @@ public class CdmiBasicConnectionManager extends CdmiConnectionManager {
 
 	@Override
 	public void shutdown() {
+		client.shutdown();
 		if (connectionManager != null) {
 			connectionManager.shutdown();
 			connectionManager = null;
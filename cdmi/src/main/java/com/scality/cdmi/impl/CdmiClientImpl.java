@@ -34,15 +34,34 @@
 package com.scality.cdmi.impl;
 
 import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryIteratorException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
@@ -53,15 +72,26 @@ import org.apache.http.util.EntityUtils;
 
 import com.scality.cdmi.api.CdmiClient;
 import com.scality.cdmi.api.CdmiConnectionException;
+import com.scality.cdmi.api.CdmiMetricsListener;
+import com.scality.cdmi.api.CdmiVisitor;
 import com.scality.cdmi.api.FileMetadata;
 import com.scality.cdmi.api.RequestFactory;
 import com.scality.cdmi.api.RetryStrategy;
+import com.scality.cdmi.connector.CdmiBufferPool;
+import com.scality.cdmi.connector.CdmiChildrenIterator;
 import com.scality.cdmi.connector.CdmiConnector;
+import com.scality.cdmi.connector.CdmiEndpointRouter;
 import com.scality.cdmi.connector.CdmiInputStream;
 import com.scality.cdmi.connector.CdmiOutputStream;
+import com.scality.cdmi.connector.CdmiPartSizer;
+import com.scality.cdmi.connector.CdmiRequestHedger;
 import com.scality.cdmi.connector.CdmiTypes;
+import com.scality.cdmi.impl.metadata.CdmiContainerCache;
 import com.scality.cdmi.impl.metadata.CdmiMetadata;
+import com.scality.cdmi.impl.metadata.CdmiMetadataCache;
 import com.scality.cdmi.impl.metadata.CdmiMetadataReader;
+import com.scality.cdmi.impl.metadata.CdmiObjectIdCache;
+import com.scality.cdmi.impl.metrics.CdmiMetrics;
 import com.scality.cdmi.impl.utils.KeyUtils;
 import com.scality.cdmi.impl.utils.ParsingUtils;
 
@@ -70,12 +100,40 @@ import com.scality.cdmi.impl.utils.ParsingUtils;
  *
  */
 public class CdmiClientImpl implements CdmiClient {
+    /**
+     * The default number of children requested at a time.
+     */
+    public static final int DEFAULT_LIST_PAGE_SIZE = 1000;
+    /**
+     * The default maximum number of threads shared by the parallel operations.
+     */
+    public static final int DEFAULT_MAX_THREADS = 32;
+    /**
+     * Default time to live of the cached object IDs, in milliseconds.
+     */
+    public static final long DEFAULT_OBJECT_ID_TTL_MILLIS = 60000;
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
     private CdmiConnector connector;
     private CdmiMetadataReader metadatareader;
     private int ioBufferSize;
     private int maxPutSize;
     private int maxPutThreads;
+    private int readAheadSize;
+    private int readAheadWindows;
+    private int downloadPartSize;
+    private int downloadThreads;
+    private int uploadPartSize;
+    private int uploadThreads;
+    private int listThreads;
+    private int listPageSize;
+    private int deleteThreads;
+    private int fastCreateSize;
+    private volatile CdmiObjectIdCache objectIdCache;
+    private volatile CdmiContainerCache containerCache;
     private ParsingUtils parser;
+    private int maxThreads;
+    private ThreadPoolExecutor executor;
+    private boolean shutdown;
 
     /**
      * Constructor
@@ -89,26 +147,510 @@ public class CdmiClientImpl implements CdmiClient {
     public CdmiClientImpl(HttpClient httpClient, RequestFactory factory,
             RetryStrategy retryStrategy, int ioBufferSize, int maxPutSize,
             boolean multiThreaded, int maxPutThreads) {
-        this.connector = new CdmiConnector(factory, httpClient, retryStrategy,
-                multiThreaded);
+        this(new CdmiConnector(factory, httpClient, retryStrategy,
+                multiThreaded), ioBufferSize, maxPutSize, maxPutThreads);
+    }
+
+    /**
+     * Constructor
+     * @param connector
+     * @param ioBufferSize
+     * @param maxPutSize
+     * @param maxPutThreads
+     */
+    public CdmiClientImpl(CdmiConnector connector, int ioBufferSize,
+            int maxPutSize, int maxPutThreads) {
+        this.connector = connector;
         this.metadatareader = new CdmiMetadataReader(connector);
         this.ioBufferSize = ioBufferSize;
         this.maxPutSize = maxPutSize;
         this.parser = new ParsingUtils();
         this.maxPutThreads = maxPutThreads;
+        this.readAheadSize = 0;
+        this.readAheadWindows = 0;
+        this.downloadPartSize = 0;
+        this.downloadThreads = 0;
+        this.uploadPartSize = 0;
+        this.uploadThreads = 0;
+        this.listThreads = 0;
+        this.listPageSize = DEFAULT_LIST_PAGE_SIZE;
+        this.deleteThreads = 0;
+        this.fastCreateSize = 0;
+        this.objectIdCache = null;
+        this.containerCache = null;
+        this.maxThreads = DEFAULT_MAX_THREADS;
+    }
+
+    /**
+     * Set the maximum number of threads shared by the parallel uploads,
+     * downloads, listings and deletes of this client. Each operation uses at
+     * most its own number of threads, and the operations running at the same
+     * time share this limit. The threads are created when needed.
+     * 
+     * @param maxThreads
+     *            the maximum number of threads.
+     */
+    public synchronized void setMaxThreads(int maxThreads) {
+        this.maxThreads = Math.max(1, maxThreads);
+        if (executor != null) {
+            if (this.maxThreads > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(this.maxThreads);
+                executor.setCorePoolSize(this.maxThreads);
+            } else {
+                executor.setCorePoolSize(this.maxThreads);
+                executor.setMaximumPoolSize(this.maxThreads);
+            }
+        }
+    }
+
+    /**
+     * @return the pool of daemon threads shared by the parallel operations,
+     *         created on the first call, or null once this client is shut
+     *         down.
+     */
+    synchronized ExecutorService getExecutor() {
+        if (executor == null && !shutdown) {
+            executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+                    THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "cdmi-client-"
+                                    + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Stop the threads of the parallel operations, interrupting the running
+     * ones. Later operations run in the calling thread only. Called by the
+     * connection manager when it is shut down.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Enable read-ahead for all the input streams opened by this client. Each
+     * stream fetches up to readAheadWindows windows of readAheadSize bytes
+     * concurrently. Only effective with a multi-threaded connector.
+     * 
+     * @param readAheadSize
+     *            the size in bytes of each window, 0 to disable read-ahead.
+     * @param readAheadWindows
+     *            the maximum number of windows fetched concurrently.
+     */
+    public void setReadAhead(int readAheadSize, int readAheadWindows) {
+        this.readAheadSize = readAheadSize;
+        this.readAheadWindows = readAheadWindows;
+    }
+
+    /**
+     * Enable parallel downloads in {@link #get(String, File)}. The data object
+     * is split in parts of downloadPartSize bytes, and up to downloadThreads
+     * parts are fetched concurrently and written in place in the destination
+     * file. Only effective with a multi-threaded connector.
+     * 
+     * @param downloadPartSize
+     *            the size in bytes of each part, 0 to disable parallel
+     *            downloads.
+     * @param downloadThreads
+     *            the maximum number of parts fetched concurrently.
+     */
+    public void setParallelDownload(int downloadPartSize, int downloadThreads) {
+        this.downloadPartSize = downloadPartSize;
+        this.downloadThreads = downloadThreads;
+    }
+
+    /**
+     * Enable caching of the metadata read by this client and by the streams it
+     * opens. Entries are dropped when the client modifies the corresponding
+     * keys, but changes made by other clients are only seen once the entries
+     * expire.
+     * 
+     * @param maxEntries
+     *            the maximum number of cached entries, 0 to disable caching.
+     * @param ttlMillis
+     *            the time to live of each entry in milliseconds, 0 for
+     *            entries that never expire.
+     */
+    public void setMetadataCache(int maxEntries, long ttlMillis) {
+        if (maxEntries > 0) {
+            connector.setMetadataCache(new CdmiMetadataCache(maxEntries,
+                    ttlMillis));
+        } else {
+            connector.setMetadataCache(null);
+        }
+    }
+
+    /**
+     * @return the metadata cache, or null if metadata is not cached.
+     */
+    public CdmiMetadataCache getMetadataCache() {
+        return connector.getMetadataCache();
+    }
+
+    /**
+     * Share a bounded pool of part buffers between all the output streams of
+     * this client. The buffers are reused between parts and sent without
+     * being copied; once maxBytes bytes of buffers are in use, writers wait
+     * for pending parts to complete.
+     * 
+     * @param maxBytes
+     *            the maximum size of all the part buffers, 0 to disable
+     *            pooling.
+     * @param direct
+     *            true to allocate the buffers outside of the heap.
+     */
+    public void setBufferPool(long maxBytes, boolean direct) {
+        if (maxBytes > 0) {
+            connector.setBufferPool(new CdmiBufferPool(maxPutSize, maxBytes,
+                    direct));
+        } else {
+            connector.setBufferPool(null);
+        }
+    }
+
+    /**
+     * @return the pool of part buffers, or null if buffers are not pooled.
+     */
+    public CdmiBufferPool getBufferPool() {
+        return connector.getBufferPool();
+    }
+
+    /**
+     * Adapt the size of the parts of the output streams of this client to the
+     * observed throughput, instead of always using maxPutSize. Each stream
+     * starts with parts of minPartSize bytes and grows or shrinks them
+     * between the bounds, see {@link CdmiPartSizer}. The buffer pool is only
+     * used if maxPartSize is not larger than maxPutSize.
+     * 
+     * @param minPartSize
+     *            the size of the first parts, 0 to disable adaptive sizing.
+     * @param maxPartSize
+     *            the largest size of a part.
+     * @param alignment
+     *            the boundary of the parts in bytes, 1 for none.
+     * @param targetPartMillis
+     *            the time it should take to send a part.
+     */
+    public void setAdaptivePartSize(int minPartSize, int maxPartSize,
+            int alignment, long targetPartMillis) {
+        if (minPartSize > 0) {
+            connector.setPartSizer(new CdmiPartSizer(minPartSize, maxPartSize,
+                    alignment, targetPartMillis));
+        } else {
+            connector.setPartSizer(null);
+        }
+    }
+
+    /**
+     * @return the settings of the adaptive part size, or null if parts are
+     *         of maxPutSize bytes.
+     */
+    public CdmiPartSizer getPartSizer() {
+        return connector.getPartSizer();
+    }
+
+    /**
+     * Hedge the metadata and ranged data reads of this client: a read that has
+     * not been answered after the given percentile of the recent latencies of
+     * the same operation is sent a second time, and the first answer is kept.
+     * Only used with a multi-threaded connection manager, whose pool should
+     * allow for the extra connections.
+     * 
+     * @param percentile
+     *            the percentile of the latencies after which reads are
+     *            hedged, for example 0.95, 0 to disable hedging.
+     * @param minDelayMillis
+     *            the minimum delay before hedging a read.
+     * @param maxDelayMillis
+     *            the maximum delay before hedging a read.
+     */
+    public void setHedgedReads(double percentile, long minDelayMillis, long maxDelayMillis) {
+        CdmiRequestHedger previous = connector.getHedger();
+        if (percentile > 0) {
+            connector.setHedger(new CdmiRequestHedger(percentile, minDelayMillis,
+                    maxDelayMillis));
+        } else {
+            connector.setHedger(null);
+        }
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * @return the hedger of the reads, or null if reads are not hedged.
+     */
+    public CdmiRequestHedger getHedger() {
+        return connector.getHedger();
+    }
+
+    /**
+     * Spread the requests of this client over several CDMI endpoints, such as
+     * the connectors of a ring, instead of the host of the request factory.
+     * See {@link CdmiEndpointRouter}.
+     * 
+     * @param endpoints
+     *            the URIs of the endpoints, or null or empty to send all the
+     *            requests to the host of the request factory.
+     * @param strategy
+     *            how an endpoint is chosen for each request.
+     */
+    public void setEndpoints(List<URI> endpoints,
+            CdmiEndpointRouter.Strategy strategy) {
+        CdmiEndpointRouter previous = connector.getRouter();
+        if (endpoints != null && !endpoints.isEmpty()) {
+            connector.setRouter(new CdmiEndpointRouter(endpoints, strategy));
+        } else {
+            connector.setRouter(null);
+        }
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * @return the router of the requests, or null if all the requests are
+     *         sent to the host of the request factory.
+     */
+    public CdmiEndpointRouter getRouter() {
+        return connector.getRouter();
+    }
+
+    /**
+     * Send the measures of the requests of this client to a listener, for
+     * example a {@link CdmiMetrics}.
+     * 
+     * @param listener
+     *            the listener of the measures, or null to disable measures.
+     */
+    public void setMetricsListener(CdmiMetricsListener listener) {
+        connector.setMetricsListener(listener);
+    }
+
+    /**
+     * @return the listener of the measures, or null if requests are not
+     *         measured.
+     */
+    public CdmiMetricsListener getMetricsListener() {
+        return connector.getMetricsListener();
+    }
+
+    /**
+     * Keep the JSON representation of the metadata read by this client, as
+     * returned by {@link FileMetadata#getCdmiMetadata()}. It is not kept by
+     * default, to reduce the memory used when listing large containers.
+     * 
+     * @param keepRawMetadata
+     *            true to keep the JSON representation of the metadata.
+     */
+    public void setKeepRawMetadata(boolean keepRawMetadata) {
+        connector.setKeepRawMetadata(keepRawMetadata);
+    }
+
+    /**
+     * Enable caching of the object IDs of the data objects opened by this
+     * client, with entries expiring after
+     * {@link #DEFAULT_OBJECT_ID_TTL_MILLIS}.
+     * 
+     * @param maxEntries
+     *            the maximum number of cached entries, 0 to disable caching.
+     * @see #setObjectIdCache(int, long)
+     */
+    public void setObjectIdCache(int maxEntries) {
+        setObjectIdCache(maxEntries, DEFAULT_OBJECT_ID_TTL_MILLIS);
+    }
+
+    /**
+     * Enable caching of the object IDs of the data objects opened by this
+     * client, so that reopening a data object does not read its metadata
+     * again. Entries are updated when the client moves or deletes the
+     * corresponding keys. A data object replaced by another client is noticed
+     * when its old object ID is not found: the entry is dropped and the key is
+     * resolved again.
+     * 
+     * @param maxEntries
+     *            the maximum number of cached entries, 0 to disable caching.
+     * @param ttlMillis
+     *            the time to live of the entries in milliseconds, 0 for
+     *            entries that never expire.
+     */
+    public void setObjectIdCache(int maxEntries, long ttlMillis) {
+        objectIdCache = maxEntries > 0 ? new CdmiObjectIdCache(maxEntries,
+                ttlMillis) : null;
+    }
+
+    /**
+     * @return the object ID cache, or null if object IDs are not cached.
+     */
+    public CdmiObjectIdCache getObjectIdCache() {
+        return objectIdCache;
+    }
+
+    /**
+     * Enable caching of the keys known to be containers, so that
+     * {@link #makedirs(String)} starts from the deepest known ancestor and
+     * only creates the missing part of the path. Entries are removed when the
+     * client moves or deletes the corresponding keys; the time to live bounds
+     * how long a container deleted by another client is assumed to exist.
+     * 
+     * @param maxEntries
+     *            the maximum number of cached entries, 0 to disable caching.
+     * @param ttlMillis
+     *            the time to live of the entries in milliseconds, 0 for
+     *            entries that never expire.
+     */
+    public void setContainerCache(int maxEntries, long ttlMillis) {
+        containerCache = maxEntries > 0 ? new CdmiContainerCache(maxEntries,
+                ttlMillis) : null;
+    }
+
+    /**
+     * @return the container cache, or null if containers are not cached.
+     */
+    public CdmiContainerCache getContainerCache() {
+        return containerCache;
+    }
+
+    private void cacheContainer(String key) {
+        CdmiContainerCache cache = containerCache;
+        if (cache != null) {
+            cache.put(key);
+        }
+    }
+
+    private void invalidateContainers(String key) {
+        CdmiContainerCache cache = containerCache;
+        if (cache != null) {
+            cache.invalidateTree(key);
+        }
+    }
+
+    private void cacheObjectID(String key, CdmiMetadata metadata) {
+        CdmiObjectIdCache cache = objectIdCache;
+        if (cache != null && !metadata.isContainer()) {
+            cache.put(key, metadata.getObjectID());
+        }
+    }
+
+    /**
+     * Enable parallel uploads in {@link #put(String, File)}. The local file is
+     * split in parts of uploadPartSize bytes, and up to uploadThreads parts
+     * are streamed concurrently from the file to the CDMI server. Only
+     * effective with a multi-threaded connector.
+     * 
+     * @param uploadPartSize
+     *            the size in bytes of each part, 0 to disable parallel uploads.
+     * @param uploadThreads
+     *            the maximum number of parts sent concurrently.
+     */
+    public void setParallelUpload(int uploadPartSize, int uploadThreads) {
+        this.uploadPartSize = uploadPartSize;
+        this.uploadThreads = uploadThreads;
+    }
+
+    /**
+     * Enable parallel listings in {@link #listMetadata(String)}. The metadata
+     * of up to listThreads children of a container are fetched concurrently,
+     * instead of one after the other. Only effective with a multi-threaded
+     * connector.
+     * 
+     * @param listThreads
+     *            the maximum number of metadata requests sent concurrently, 0
+     *            or 1 to disable parallel listings.
+     */
+    public void setParallelList(int listThreads) {
+        this.listThreads = listThreads;
+    }
+
+    /**
+     * Enable client-side recursive deletes in {@link #delete(String, boolean)}.
+     * Instead of a single DELETE of the container, the tree is deleted by
+     * {@link #deleteTree(String, CdmiVisitor)} with up to deleteThreads
+     * concurrent requests. Only effective with a multi-threaded connector.
+     * 
+     * @param deleteThreads
+     *            the maximum number of requests sent concurrently, 0 or 1 to
+     *            let the server delete the tree.
+     */
+    public void setParallelDelete(int deleteThreads) {
+        this.deleteThreads = deleteThreads;
+    }
+
+    private boolean isParallelDelete() {
+        return connector.isMultiThreaded() && deleteThreads > 1;
+    }
+
+    /**
+     * Set the number of children requested at a time by
+     * {@link #listChildren(String)} and {@link #listMetadata(String)}.
+     * 
+     * @param listPageSize
+     *            the number of children in each page, 0 to list all the
+     *            children of a container in a single request, for servers
+     *            not supporting children ranges.
+     */
+    public void setListPageSize(int listPageSize) {
+        this.listPageSize = listPageSize;
+    }
+
+    /**
+     * Enable fast creation in {@link #put(String, File)}. The data object is
+     * created with its first inlineSize bytes in a single conditional CDMI
+     * request, instead of checking for its existence and creating it empty
+     * first. Files up to inlineSize bytes are uploaded in one round trip; the
+     * rest of larger files is written as usual.
+     * 
+     * @param inlineSize
+     *            the maximum number of bytes sent with the creation request, 0
+     *            to disable fast creation.
+     */
+    public void setFastCreate(int inlineSize) {
+        this.fastCreateSize = inlineSize;
+    }
+
+    private boolean isParallelUpload() {
+        return connector.isMultiThreaded() && uploadPartSize > 0
+                && uploadThreads > 1;
     }
 
     @Override
     public boolean put(String key, File file) throws IOException {
+        if (fastCreateSize > 0) {
+            return fastPut(key, file);
+        }
         if (exists(key)) {
             return false; // File already exists.
         }
+        if (isParallelUpload()) {
+            return parallelPut(key, file);
+        }
         FileInputStream is = new FileInputStream(file.getPath());
-        BufferedInputStream buff = new BufferedInputStream(is);
         touch(key);
         CdmiOutputStream os = new CdmiOutputStream(key, 0L, connector,
                 maxPutSize, maxPutThreads);
+        copy(is, os);
+        return true;
+    }
 
+    /**
+     * Copy a local stream to a data object, and close both.
+     */
+    private void copy(InputStream is, CdmiOutputStream os) throws IOException {
+        BufferedInputStream buff = new BufferedInputStream(is);
         int length;
         byte[] data = new byte[ioBufferSize];
         while ((length = buff.read(data)) != -1) {
@@ -116,12 +658,80 @@ public class CdmiClientImpl implements CdmiClient {
         }
         os.close();
         buff.close();
+    }
 
+    /**
+     * Create a data object together with the beginning of a local file, using
+     * a conditional request that fails if the data object already exists.
+     */
+    private boolean fastPut(String key, File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        long size;
+        byte[] data;
+        try {
+            size = in.length();
+            data = new byte[(int) Math.min(size, fastCreateSize)];
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        HttpResponse response = connector.createObject(key, data);
+        String result = EntityUtils.toString(response.getEntity());
+        StatusLine statusLine = response.getStatusLine();
+        if (HttpStatus.SC_PRECONDITION_FAILED == statusLine.getStatusCode()
+                || HttpStatus.SC_CONFLICT == statusLine.getStatusCode()) {
+            return false; // File already exists.
+        }
+        if (HttpStatus.SC_CREATED != statusLine.getStatusCode()
+                && HttpStatus.SC_OK != statusLine.getStatusCode()
+                && HttpStatus.SC_NO_CONTENT != statusLine.getStatusCode()) {
+            throw new CdmiConnectionException("Impossible to create path "
+                    + key + " got response " + statusLine);
+        }
+        metadatareader.invalidate(key);
+        CdmiObjectIdCache cache = objectIdCache;
+        if (cache != null) {
+            cache.invalidateTree(key);
+        }
+        if (size == data.length) {
+            return true;
+        }
+        String objectID = result.startsWith("{") ? parser.extractField(result,
+                "objectID") : null;
+        if (objectID == null) {
+            objectID = metadatareader.readMetadata(key).getObjectID();
+        }
+        if (cache != null) {
+            cache.put(key, objectID);
+        }
+        if (isParallelUpload()) {
+            String path = "cdmi_objectid/" + objectID;
+            uploadParts(path, file, data.length, size);
+            connector.forceFlushNonCdmi(path);
+            metadatareader.invalidate(key);
+        } else {
+            FileInputStream is = new FileInputStream(file.getPath());
+            try {
+                FileChannel channel = is.getChannel();
+                if (channel.size() < data.length) {
+                    throw new EOFException("File " + file
+                            + " was truncated while being uploaded");
+                }
+                channel.position(data.length);
+                copy(is, writeObjectID(objectID, key, data.length));
+            } finally {
+                is.close();
+            }
+        }
         return true;
     }
 
     @Override
     public boolean get(String key, File destFile) throws IOException {
+        if (connector.isMultiThreaded() && downloadPartSize > 0
+                && downloadThreads > 1) {
+            return parallelGet(key, destFile);
+        }
         if (!exists(key)) {
             return false; // File does not exist.
         }
@@ -139,6 +749,209 @@ public class CdmiClientImpl implements CdmiClient {
         return true;
     }
 
+    /**
+     * Upload a local file with concurrent ranged PUTs. Each worker streams its
+     * own region of the file to the CDMI server.
+     */
+    private boolean parallelPut(String key, final File file) throws IOException {
+        if (!file.canRead()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        touch(key);
+        CdmiMetadata metadata = metadatareader.readMetadata(key);
+        String path = "cdmi_objectid/" + metadata.getObjectID();
+        uploadParts(path, file, 0L, file.length());
+        connector.forceFlushNonCdmi(path);
+        metadatareader.invalidate(key);
+        return true;
+    }
+
+    /**
+     * Send the region [start, size) of a local file at the same offsets in a
+     * data object, with up to uploadThreads concurrent requests.
+     */
+    private void uploadParts(final String path, final File file, long start,
+            long size) throws IOException {
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (long offset = start; offset < size; offset += uploadPartSize) {
+            final long partOffset = offset;
+            final long partLength = Math.min(uploadPartSize, size - offset);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    uploadPart(path, partOffset, partLength, file);
+                    return null;
+                }
+            });
+        }
+        runAll(tasks, uploadThreads);
+    }
+
+    /**
+     * Send one region of a local file at the same offset in a data object.
+     */
+    private void uploadPart(String path, long offset, long length, File file)
+            throws IOException {
+        HttpResponse response = connector.updateObjectNonCdmi(path, offset,
+                length, file, offset);
+        EntityUtils.consumeQuietly(response.getEntity());
+        int status = response.getStatusLine().getStatusCode();
+        if (HttpStatus.SC_NO_CONTENT != status
+                && HttpStatus.SC_CREATED != status) {
+            throw new CdmiConnectionException("Impossible to write path "
+                    + path + " at offset " + offset + " length " + length
+                    + " got response " + response.getStatusLine());
+        }
+    }
+
+    /**
+     * Download a data object with concurrent ranged GETs. Each part is written
+     * at its own position in the destination file, which is preallocated to
+     * the size of the data object.
+     */
+    private boolean parallelGet(String key, File destFile) throws IOException {
+        final CdmiMetadata metadata;
+        try {
+            // The destination is sized from the metadata, which must be
+            // fresh: a cached size would truncate or pad the copy.
+            metadatareader.invalidate(key);
+            metadata = metadatareader.readMetadata(key);
+        } catch (FileNotFoundException e) {
+            return false; // File does not exist.
+        }
+        if (metadata.isContainer()) {
+            return false;
+        }
+        final String path = "cdmi_objectid/" + metadata.getObjectID();
+        long size = metadata.getSize();
+        RandomAccessFile out = new RandomAccessFile(destFile, "rw");
+        try {
+            out.setLength(size);
+            final FileChannel channel = out.getChannel();
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (long offset = 0; offset < size; offset += downloadPartSize) {
+                final long partOffset = offset;
+                final long partLength = Math.min(downloadPartSize, size - offset);
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        downloadPart(path, partOffset, partLength, channel);
+                        return null;
+                    }
+                });
+            }
+            runAll(tasks, downloadThreads);
+        } finally {
+            out.close();
+        }
+        return true;
+    }
+
+    /**
+     * Fetch one range of a data object and write it at the same offset in the
+     * destination channel.
+     */
+    private void downloadPart(String path, long offset, long length,
+            FileChannel channel) throws IOException {
+        HttpResponse response = connector.readObjectNonCdmi(path, offset,
+                length);
+        try {
+            int status = response.getStatusLine().getStatusCode();
+            if (HttpStatus.SC_OK != status
+                    && HttpStatus.SC_PARTIAL_CONTENT != status) {
+                throw new CdmiConnectionException("Impossible to read path "
+                        + path + " got response " + response.getStatusLine());
+            }
+            InputStream in = response.getEntity().getContent();
+            byte[] data = new byte[(int) Math.min(ioBufferSize, length)];
+            long position = offset;
+            long end = offset + length;
+            int read;
+            while (position < end
+                    && (read = in.read(data, 0,
+                            (int) Math.min(data.length, end - position))) != -1) {
+                ByteBuffer buffer = ByteBuffer.wrap(data, 0, read);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+            if (position != end) {
+                throw new CdmiConnectionException("Impossible to read path "
+                        + path + " at offset " + offset + " length " + length
+                        + " got only " + (position - offset) + " bytes");
+            }
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
+        }
+    }
+
+    /**
+     * Run tasks on the shared threads of this client, at most parallelism at a
+     * time, and return their results in order. The calling thread runs tasks
+     * as well, and only waits for tasks already started, so that operations
+     * nested in the tasks cannot starve the shared threads. The first error
+     * stops the tasks not started yet and is thrown.
+     */
+    private <T> List<T> runAll(final List<Callable<T>> tasks, int parallelism)
+            throws IOException {
+        final int count = tasks.size();
+        final Object[] results = new Object[count];
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        final CountDownLatch done = new CountDownLatch(count);
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int i;
+                while ((i = next.getAndIncrement()) < count) {
+                    try {
+                        if (failure.get() == null) {
+                            results[i] = tasks.get(i).call();
+                        }
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+        List<Future<?>> workers = new ArrayList<Future<?>>();
+        ExecutorService pool = getExecutor();
+        try {
+            for (int i = 1; pool != null && i < Math.min(parallelism, count); ++i) {
+                workers.add(pool.submit(worker));
+            }
+        } catch (RejectedExecutionException e) {
+            // Shut down in between, the calling thread does the work.
+        }
+        try {
+            worker.run();
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, new CdmiConnectionException(e));
+        } finally {
+            for (Future<?> future : workers) {
+                // Not started yet, or interrupted after a failure.
+                future.cancel(failure.get() != null);
+            }
+        }
+        Exception error = failure.get();
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error != null) {
+            throw new CdmiConnectionException(error);
+        }
+        List<T> list = new ArrayList<T>(count);
+        for (Object result : results) {
+            @SuppressWarnings("unchecked")
+            T value = (T) result;
+            list.add(value);
+        }
+        return list;
+    }
+
     @Override
     public boolean touch(String key) throws IOException {
         HttpResponse response = connector.createEmptyObject(key, true);
@@ -146,6 +959,11 @@ public class CdmiClientImpl implements CdmiClient {
         if (HttpStatus.SC_CREATED == response.getStatusLine()
                 .getStatusCode()) {
             connector.forceFlushCdmi(key);
+            metadatareader.invalidate(key);
+            CdmiObjectIdCache cache = objectIdCache;
+            if (cache != null) {
+                cache.invalidateTree(key);
+            }
             return true;
         }
         return false;
@@ -153,6 +971,9 @@ public class CdmiClientImpl implements CdmiClient {
 
     @Override
     public boolean exists(String key) throws IOException {
+        if (metadatareader.getCachedMetadata(key) != null) {
+            return true;
+        }
         HttpResponse response = connector.getObjectType(key);
         String result = new String(EntityUtils.toByteArray(response.getEntity()));
         if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_FOUND) {
@@ -170,31 +991,93 @@ public class CdmiClientImpl implements CdmiClient {
 
     @Override
     public CdmiInputStream open(String key) throws IOException {
-        return new CdmiInputStream(key, connector);
+        return open(key, 0L, -1);
     }
 
     @Override
     public CdmiInputStream open(String key, long startPos) throws IOException {
-        return new CdmiInputStream(key, connector, startPos, -1);
+        return open(key, startPos, -1);
     }
 
     @Override
     public CdmiInputStream open(String key, long startPos, int maxRead)
             throws IOException {
-        return new CdmiInputStream(key, connector, startPos, maxRead);
+        CdmiObjectIdCache cache = objectIdCache;
+        if (cache != null) {
+            String objectID = cache.get(key);
+            if (objectID != null) {
+                CdmiInputStream in = openObjectID(objectID, startPos, maxRead);
+                in.setObjectIdCache(key, cache);
+                return in;
+            }
+        }
+        CdmiMetadata metadata = metadatareader.readMetadata(key);
+        cacheObjectID(key, metadata);
+        CdmiInputStream in = new CdmiInputStream(metadata, connector, startPos,
+                maxRead, readAheadSize, readAheadWindows);
+        in.setExecutor(getExecutor());
+        return in;
+    }
+
+    @Override
+    public CdmiInputStream openObjectID(String objectID, long startPos,
+            int maxRead) throws IOException {
+        CdmiInputStream in = CdmiInputStream.fromObjectID(objectID, connector,
+                startPos, maxRead, readAheadSize, readAheadWindows);
+        in.setExecutor(getExecutor());
+        return in;
     }
 
     @Override
     public CdmiOutputStream write(String key, long startPos) throws IOException {
-        return new CdmiOutputStream(key, startPos, connector, maxPutSize,
-                maxPutThreads);
+        String objectID;
+        try {
+            objectID = getObjectID(key);
+        } catch (FileNotFoundException e) {
+            throw new CdmiConnectionException(e);
+        }
+        return writeObjectID(objectID, key, startPos);
+    }
+
+    /**
+     * Open a data object for writing from an object ID which may have been
+     * read from the object ID cache.
+     */
+    private CdmiOutputStream writeObjectID(String objectID, String key,
+            long startPos) {
+        CdmiOutputStream out = CdmiOutputStream.fromObjectID(objectID, key,
+                startPos, connector, maxPutSize, maxPutThreads);
+        out.setObjectIdCache(objectIdCache);
+        return out;
+    }
+
+    @Override
+    public CdmiOutputStream writeObjectID(String objectID, long startPos)
+            throws IOException {
+        return CdmiOutputStream.fromObjectID(objectID, null, startPos,
+                connector, maxPutSize, maxPutThreads);
     }
 
     @Override
     public CdmiOutputStream append(String key) throws IOException {
         CdmiMetadata metadata = metadatareader.readMetadata(key);
-        return new CdmiOutputStream(key, metadata.getSize(), connector,
-                maxPutSize, maxPutThreads);
+        cacheObjectID(key, metadata);
+        return CdmiOutputStream.fromObjectID(metadata.getObjectID(), key,
+                metadata.getSize(), connector, maxPutSize, maxPutThreads);
+    }
+
+    @Override
+    public String getObjectID(String key) throws IOException {
+        CdmiObjectIdCache cache = objectIdCache;
+        if (cache != null) {
+            String objectID = cache.get(key);
+            if (objectID != null) {
+                return objectID;
+            }
+        }
+        CdmiMetadata metadata = metadatareader.readMetadata(key);
+        cacheObjectID(key, metadata);
+        return metadata.getObjectID();
     }
 
     @Override
@@ -209,15 +1092,127 @@ public class CdmiClientImpl implements CdmiClient {
             key += "/";
         }
         if (metadata.isContainer() && !recursive) {
-            Iterator<String> it = getChildren(key).iterator();
-            if (it.hasNext()) {
-                throw new IOException("Cannot delete non empty container.");
+            // A single child is enough, unless the server has no ranges.
+            CdmiChildrenIterator it = new CdmiChildrenIterator(connector, key,
+                    listPageSize == 0 ? 0 : 1);
+            try {
+                if (it.hasNext()) {
+                    throw new IOException("Cannot delete non empty container.");
+                }
+            } catch (DirectoryIteratorException e) {
+                throw e.getCause();
+            } finally {
+                it.close();
             }
         }
+        if (metadata.isContainer() && recursive && isParallelDelete()) {
+            return deleteTree(key, null);
+        }
+        return sendDelete(key, metadata.isContainer()) == HttpStatus.SC_NO_CONTENT;
+    }
+
+    private int sendDelete(String key, boolean container) throws IOException {
         HttpResponse response = connector.delete(key);
         EntityUtils.consume(response.getEntity());
-        int statusCode = response.getStatusLine().getStatusCode();
-        return statusCode == HttpStatus.SC_NO_CONTENT;
+        if (container) {
+            metadatareader.invalidateTree(key);
+        } else {
+            metadatareader.invalidate(key);
+        }
+        if (container) {
+            invalidateContainers(key);
+        }
+        CdmiObjectIdCache cache = objectIdCache;
+        if (cache != null) {
+            cache.invalidateTree(key);
+        }
+        return response.getStatusLine().getStatusCode();
+    }
+
+    /**
+     * Delete a container and all its contents from the client. The tree is
+     * walked with a {@link CdmiTreeWalker}, data objects are deleted as soon
+     * as their container is listed, then the containers are deleted bottom-up, each level
+     * in parallel. Up to the number of threads set with
+     * {@link #setParallelDelete(int)} requests are sent concurrently.
+     * 
+     * Entries already deleted are skipped, so an interrupted delete can be
+     * restarted by calling this method again.
+     * 
+     * @param key
+     *            the name of the container or data object in the CDMI
+     *            repository.
+     * @param progress
+     *            a {@link CdmiVisitor} called from several threads after each
+     *            entry is deleted, or null. Its return value is ignored, and
+     *            an exception stops the delete.
+     * @return true if the key was deleted, false if it did not exist.
+     * @throws IOException
+     *             if any error occurred during communication.
+     */
+    public boolean deleteTree(String key, final CdmiVisitor progress)
+            throws IOException {
+        final int threads = Math.max(1, deleteThreads);
+        final TreeMap<Integer, List<FileMetadata>> levels = new TreeMap<Integer, List<FileMetadata>>(
+                Collections.reverseOrder());
+        try {
+            new CdmiTreeWalker(this, threads).walk(key, new CdmiVisitor() {
+                @Override
+                public boolean visit(FileMetadata metadata) throws IOException {
+                    if (metadata.isContainer()) {
+                        int depth = metadata.getKey().split("/").length;
+                        synchronized (levels) {
+                            List<FileMetadata> level = levels.get(depth);
+                            if (level == null) {
+                                level = new ArrayList<FileMetadata>();
+                                levels.put(depth, level);
+                            }
+                            level.add(metadata);
+                        }
+                        return true;
+                    }
+                    deleteEntry(metadata, progress);
+                    return false;
+                }
+            });
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+        if (levels.isEmpty()) {
+            // A data object.
+            return true;
+        }
+        // Deepest containers first.
+        for (List<FileMetadata> level : levels.values()) {
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(level.size());
+            for (final FileMetadata metadata : level) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        deleteEntry(metadata, progress);
+                        return null;
+                    }
+                });
+            }
+            runAll(tasks, threads);
+        }
+        return true;
+    }
+
+    private void deleteEntry(FileMetadata metadata, CdmiVisitor progress)
+            throws IOException {
+        int status = sendDelete(metadata.getKey(), metadata.isContainer());
+        if (HttpStatus.SC_NOT_FOUND == status) {
+            // Already deleted, by an earlier attempt or someone else.
+            return;
+        }
+        if (HttpStatus.SC_NO_CONTENT != status) {
+            throw new CdmiConnectionException("Impossible to delete path "
+                    + metadata.getKey() + " got response " + status);
+        }
+        if (progress != null) {
+            progress.visit(metadata);
+        }
     }
 
     @Override
@@ -231,6 +1226,7 @@ public class CdmiClientImpl implements CdmiClient {
             dstMeta = null;
         }
         HttpResponse response;
+        String destination;
         if (srcMeta.isContainer()) {
             if (!srcKey.endsWith("/")) {
                 srcKey += "/";
@@ -246,17 +1242,17 @@ public class CdmiClientImpl implements CdmiClient {
                 return false;
             }
             if (dstMeta != null) {
-                response = connector.moveContainer(srcKey,
-                        dstKey + KeyUtils.getBaseName(srcKey) + "/");
+                destination = dstKey + KeyUtils.getBaseName(srcKey) + "/";
             } else {
-                response = connector.moveContainer(srcKey, dstKey);
+                destination = dstKey;
             }
+            response = connector.moveContainer(srcKey, destination);
         } else {
             if (srcKey.equals(dstKey)) {
                 // Same, nothing to do.
                 return true;
             }
-            String destination = dstKey;
+            destination = dstKey;
             if (dstMeta != null && dstMeta.isContainer()) {
                 destination = dstMeta.getKey() + "/"
                         + KeyUtils.getBaseName(srcKey);
@@ -264,10 +1260,22 @@ public class CdmiClientImpl implements CdmiClient {
             response = connector.moveObject(srcKey, destination);
         }
         EntityUtils.consumeQuietly(response.getEntity());
+        metadatareader.invalidateTree(srcKey);
+        metadatareader.invalidateTree(dstKey);
+        invalidateContainers(srcKey);
         StatusLine statusLine = response.getStatusLine();
         // FIXME: code should only be SC_CREATED,
-        return statusLine.getStatusCode() == HttpStatus.SC_NO_CONTENT
+        boolean moved = statusLine.getStatusCode() == HttpStatus.SC_NO_CONTENT
                 || statusLine.getStatusCode() == HttpStatus.SC_CREATED;
+        CdmiObjectIdCache cache = objectIdCache;
+        if (cache != null) {
+            if (moved) {
+                cache.moveTree(srcKey, destination);
+            } else {
+                cache.invalidateTree(srcKey);
+            }
+        }
+        return moved;
     }
 
     @Override
@@ -276,20 +1284,37 @@ public class CdmiClientImpl implements CdmiClient {
             key += "/";
         }
         try {
-            FileMetadata status = getMetadata(key);
-            if (!status.isContainer()) {
-                throw new CdmiConnectionException(
-                        "Cannot create a directory over an existing file.");
-            }
+            checkContainer(key);
             return false;
         } catch (FileNotFoundException e) {
-            HttpResponse response = connector.createContainer(key);
-            EntityUtils.consumeQuietly(response.getEntity());
-            StatusLine statusLine = response.getStatusLine();
-            // FIXME: code should only be SC_CREATED,
-            return statusLine.getStatusCode() == HttpStatus.SC_NO_CONTENT
-                    || statusLine.getStatusCode() == HttpStatus.SC_CREATED;
+            return createContainer(key);
+        }
+    }
+
+    /**
+     * Check that a key is an existing container, and remember it.
+     */
+    private void checkContainer(String key) throws IOException {
+        FileMetadata status = getMetadata(key);
+        if (!status.isContainer()) {
+            throw new CdmiConnectionException(
+                    "Cannot create a directory over an existing file.");
+        }
+        cacheContainer(key);
+    }
+
+    private boolean createContainer(String key) throws IOException {
+        HttpResponse response = connector.createContainer(key);
+        EntityUtils.consumeQuietly(response.getEntity());
+        metadatareader.invalidate(key);
+        StatusLine statusLine = response.getStatusLine();
+        // FIXME: code should only be SC_CREATED,
+        boolean created = statusLine.getStatusCode() == HttpStatus.SC_NO_CONTENT
+                || statusLine.getStatusCode() == HttpStatus.SC_CREATED;
+        if (created) {
+            cacheContainer(key);
         }
+        return created;
     }
 
     @Override
@@ -297,12 +1322,12 @@ public class CdmiClientImpl implements CdmiClient {
         if (!key.endsWith("/")) {
             key += "/";
         }
+        CdmiContainerCache cache = containerCache;
+        if (cache != null && cache.contains(key)) {
+            return false;
+        }
         try {
-            FileMetadata status = getMetadata(key);
-            if (!status.isContainer()) {
-                throw new CdmiConnectionException(
-                        "Cannot create a directory over an existing file.");
-            }
+            checkContainer(key);
             return false;
         } catch (FileNotFoundException e) {
             // Normal flow
@@ -316,19 +1341,72 @@ public class CdmiClientImpl implements CdmiClient {
             file = parent;
         }
         Collections.reverse(allpaths);
-        for (String p : allpaths) {
-            if (!p.endsWith("/")) {
-                p += "/";
+        for (int i = 0; i < allpaths.size(); ++i) {
+            if (!allpaths.get(i).endsWith("/")) {
+                allpaths.set(i, allpaths.get(i) + "/");
+            }
+        }
+        if (!createMissing(allpaths, cache) && cache != null) {
+            // A cached ancestor may have been deleted by another client.
+            for (String p : allpaths) {
+                cache.invalidate(p);
+            }
+            createMissing(allpaths, null);
+        }
+        return true;
+    }
+
+    /**
+     * Find the deepest existing ancestor of the last path, going up from its
+     * parent, then create the containers below it.
+     * 
+     * @param allpaths
+     *            the ancestors of the container to create, root first.
+     * @param cache
+     *            the known containers, or null to check every ancestor on
+     *            the server.
+     * @return false if a container of the missing part could not be created.
+     */
+    private boolean createMissing(List<String> allpaths,
+            CdmiContainerCache cache) throws IOException {
+        int existing = -1;
+        for (int i = allpaths.size() - 2; i >= 0; --i) {
+            String p = allpaths.get(i);
+            if ("/".equals(p) || (cache != null && cache.contains(p))) {
+                existing = i;
+                break;
+            }
+            try {
+                checkContainer(p);
+                existing = i;
+                break;
+            } catch (FileNotFoundException e) {
+                // Keep going up.
+            }
+        }
+        for (int i = existing + 1; i < allpaths.size(); ++i) {
+            if (!createContainer(allpaths.get(i))) {
+                return false;
             }
-            makedir(p); // Don't care about result.
         }
         return true;
     }
 
-    private Iterable<String> getChildren(String key) throws IOException {
-        HttpResponse response = connector.listContainer(key);
-        return Arrays.asList(parser.extractArray(new String(
-                EntityUtils.toByteArray(response.getEntity())), "children"));
+    /**
+     * {@inheritDoc}
+     * 
+     * The next pages are prefetched on the executor of this client. Close
+     * the iterator if it is abandoned before its end.
+     */
+    @Override
+    public CdmiChildrenIterator listChildren(String key) throws IOException {
+        if (!key.endsWith("/")) {
+            key += "/";
+        }
+        CdmiChildrenIterator children = new CdmiChildrenIterator(connector,
+                key, listPageSize);
+        children.setExecutor(getExecutor());
+        return children;
     }
 
     @Override
@@ -349,22 +1427,69 @@ public class CdmiClientImpl implements CdmiClient {
             if (!key.endsWith("/")) {
                 key += "/";
             }
+            if (connector.isMultiThreaded() && listThreads > 1) {
+                return parallelListMetadata(key);
+            }
             ArrayList<FileMetadata> result = new ArrayList<FileMetadata>();
-            for (String child : this.getChildren(key)) {
-                String target = key + child;
-                try {
-                    FileMetadata metadata = getMetadata(target);
-                    if (metadata != null) {
-                        result.add(metadata);
+            CdmiChildrenIterator children = listChildren(key);
+            try {
+                while (children.hasNext()) {
+                    String target = key + children.next();
+                    try {
+                        FileMetadata metadata = getMetadata(target);
+                        if (metadata != null) {
+                            result.add(metadata);
+                        }
+                    } catch (FileNotFoundException e) {
+                        // Continue, the child may have disappeared in between.
                     }
-                } catch (FileNotFoundException e) {
-                    // Continue, the child may have disappeared in between.
                 }
+            } catch (DirectoryIteratorException e) {
+                throw e.getCause();
+            } finally {
+                children.close();
             }
             return result.toArray(new FileMetadata[0]);
         }
     }
 
+    private FileMetadata[] parallelListMetadata(String key) throws IOException {
+        List<String> children = new ArrayList<String>();
+        CdmiChildrenIterator it = listChildren(key);
+        try {
+            while (it.hasNext()) {
+                children.add(it.next());
+            }
+        } catch (DirectoryIteratorException e) {
+            throw e.getCause();
+        } finally {
+            it.close();
+        }
+        if (children.isEmpty()) {
+            return new FileMetadata[0];
+        }
+        List<Callable<FileMetadata>> tasks = new ArrayList<Callable<FileMetadata>>(
+                children.size());
+        for (String child : children) {
+            final String target = key + child;
+            tasks.add(new Callable<FileMetadata>() {
+                @Override
+                public FileMetadata call() throws IOException {
+                    try {
+                        return getMetadata(target);
+                    } catch (FileNotFoundException e) {
+                        // The child may have disappeared in between.
+                        return null;
+                    }
+                }
+            });
+        }
+        List<FileMetadata> result = runAll(tasks, listThreads);
+        // Keep the order of the children.
+        result.removeAll(Collections.singleton(null));
+        return result.toArray(new FileMetadata[0]);
+    }
+
     @Override
     public String userExtension(String key, String query) throws IOException {
         HttpResponse response = connector.userSpecificQuery(key, query);
@@ -396,6 +1521,7 @@ public class CdmiClientImpl implements CdmiClient {
                     "Cannot set metadata for object type " + objectType);
         }
         EntityUtils.consumeQuietly(response.getEntity());
+        metadatareader.invalidate(key);
         StatusLine statusLine = response.getStatusLine();
         if (statusLine.getStatusCode() == HttpStatus.SC_NO_CONTENT) {
             connector.forceFlushCdmi(key);
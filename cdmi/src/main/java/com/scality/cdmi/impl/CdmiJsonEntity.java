@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Base64InputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * A repeatable entity sending a CDMI JSON body whose value is the base64
+ * encoding of another entity. The value is encoded chunk by chunk while it is
+ * sent, so the encoded body is never held in memory, and the content length
+ * is known in advance.
+ */
+public class CdmiJsonEntity extends AbstractHttpEntity {
+    /** A multiple of 3, so that only the last chunk is padded. */
+    private static final int CHUNK_SIZE = 3 * 16 * 1024;
+
+    private final byte[] prefix;
+    private final HttpEntity value;
+    private final byte[] suffix;
+
+    /**
+     * Constructor.
+     * 
+     * @param prefix
+     *            the JSON text sent before the value, up to its opening quote.
+     * @param value
+     *            the raw value, sent base64 encoded, or null.
+     * @param suffix
+     *            the JSON text sent after the value, from its closing quote.
+     */
+    public CdmiJsonEntity(byte[] prefix, HttpEntity value, byte[] suffix) {
+        this.prefix = prefix;
+        this.value = value;
+        this.suffix = suffix;
+    }
+
+    /**
+     * @param length
+     *            the length of the raw data.
+     * @return the length of its base64 encoding, without line separators.
+     */
+    public static long encodedLength(long length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return value == null || value.isRepeatable();
+    }
+
+    @Override
+    public long getContentLength() {
+        if (value == null) {
+            return prefix.length + suffix.length;
+        }
+        long length = value.getContentLength();
+        if (length < 0) {
+            return -1;
+        }
+        return prefix.length + encodedLength(length) + suffix.length;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        List<InputStream> parts = new ArrayList<InputStream>(3);
+        parts.add(new ByteArrayInputStream(prefix));
+        if (value != null) {
+            parts.add(new Base64InputStream(value.getContent(), true, 0, null));
+        }
+        parts.add(new ByteArrayInputStream(suffix));
+        return new SequenceInputStream(Collections.enumeration(parts));
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        if (outstream == null) {
+            throw new IllegalArgumentException("Output stream may not be null");
+        }
+        outstream.write(prefix);
+        if (value != null) {
+            InputStream in = value.getContent();
+            try {
+                byte[] chunk = new byte[CHUNK_SIZE];
+                int filled;
+                do {
+                    // Only encode full chunks, except for the last one.
+                    filled = 0;
+                    int read;
+                    while (filled < chunk.length
+                            && (read = in.read(chunk, filled, chunk.length
+                                    - filled)) >= 0) {
+                        filled += read;
+                    }
+                    if (filled == chunk.length) {
+                        outstream.write(Base64.encodeBase64(chunk));
+                    } else if (filled > 0) {
+                        byte[] last = new byte[filled];
+                        System.arraycopy(chunk, 0, last, 0, filled);
+                        outstream.write(Base64.encodeBase64(last));
+                    }
+                } while (filled == chunk.length);
+            } finally {
+                in.close();
+            }
+        }
+        outstream.write(suffix);
+        outstream.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
@@ -33,7 +33,26 @@
  */
 package com.scality.cdmi.impl;
 
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
 import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
@@ -42,26 +61,49 @@ import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
 
+import com.scality.cdmi.api.AsyncCdmiClient;
 import com.scality.cdmi.api.CdmiAuthScope;
-import com.scality.cdmi.api.CdmiClient;
+import com.scality.cdmi.api.CdmiConfigurationException;
 import com.scality.cdmi.api.CdmiConnectionManager;
 import com.scality.cdmi.api.CdmiCredentials;
 import com.scality.cdmi.api.RequestFactory;
 import com.scality.cdmi.api.RetryStrategy;
+import com.scality.cdmi.connector.BackoffRetryPolicy;
+import com.scality.cdmi.connector.CdmiEndpointRouter;
+import com.scality.cdmi.impl.metrics.CdmiMetrics;
 
 /**
  * Maintains a pool of threads used for sending requests in parallel.
  * 
+ * Idle connections are closed in the background after
+ * {@link #DEFAULT_IDLE_MILLIS}, and a read blocked for more than
+ * {@link #DEFAULT_SOCKET_TIMEOUT_MILLIS} fails instead of hanging on a
+ * half-dead socket. Connections can be opened in advance with
+ * {@link #warmUp(int)}.
+ * 
  * @author julien.muller@ezako.com for Scality
  * 
  */
 public class CdmiPooledConnectionManager extends CdmiConnectionManager {
+    /** Default timeout of the reads on the connections. */
+    public static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 300000;
+    /** Default time after which an idle connection is closed. */
+    public static final long DEFAULT_IDLE_MILLIS = 60000;
+    /** Time to wait for a connection of the pool while warming it up. */
+    private static final long WARM_UP_LEASE_MILLIS = 100;
+
     private SchemeRegistry schemeRegistry;
     private PoolingClientConnectionManager connectionManager;
     private DefaultHttpClient httpClient;
-    private CdmiClient client;
+    private CdmiClientImpl client;
+    private AsyncCdmiClient asyncClient;
+    private CdmiMetrics metrics;
+    private RequestFactory factory;
+    private ScheduledExecutorService evictor;
 
     /**
      * Constructor
@@ -90,20 +132,262 @@ public class CdmiPooledConnectionManager extends CdmiConnectionManager {
         params.setParameter(CoreConnectionPNames.SO_REUSEADDR, true);
         params.setParameter(CoreConnectionPNames.TCP_NODELAY, true);
         params.setParameter(CoreConnectionPNames.SO_LINGER, 1);
-        // TODO: Add a data transfer timeout CoreConnectionPNames.SO_TIMEOUT
+        params.setParameter(CoreConnectionPNames.SO_TIMEOUT,
+                DEFAULT_SOCKET_TIMEOUT_MILLIS);
         params.setParameter(CoreConnectionPNames.SOCKET_BUFFER_SIZE, 524288);
         httpClient = new DefaultHttpClient(connectionManager, params);
+        httpClient.setHttpRequestRetryHandler(BackoffRetryPolicy.newHttpRetryHandler());
         httpClient.getCredentialsProvider().setCredentials(authscope.getScope(),
                 credentials.getCred());
         client = new CdmiClientImpl(httpClient, factory, retryStrategy, ioBufferSize,
                 maxPutSize, true /*multiThreaded*/, maxPutThreads);
+        this.factory = factory;
+        setIdleEviction(DEFAULT_IDLE_MILLIS);
+    }
+
+    /**
+     * @param millis
+     *            the maximum time a read on a connection may block, 0 for no
+     *            timeout.
+     */
+    public void setSocketTimeout(int millis) {
+        HttpConnectionParams.setSoTimeout(httpClient.getParams(), millis);
+    }
+
+    /**
+     * Close the connections idle for longer than a delay, and the ones whose
+     * keep-alive has expired, from a background thread.
+     * 
+     * @param idleMillis
+     *            the time after which an idle connection is closed, 0 to keep
+     *            idle connections open.
+     */
+    public synchronized void setIdleEviction(final long idleMillis) {
+        if (evictor != null) {
+            evictor.shutdownNow();
+            evictor = null;
+        }
+        if (idleMillis <= 0 || connectionManager == null) {
+            return;
+        }
+        final PoolingClientConnectionManager pool = connectionManager;
+        evictor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "cdmi-connection-evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(10, Math.min(idleMillis / 2, 5000));
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                pool.closeExpiredConnections();
+                pool.closeIdleConnections(idleMillis, TimeUnit.MILLISECONDS);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the maximum number of connections for all the hosts.
+     */
+    public int getMaxTotal() {
+        return connectionManager.getMaxTotal();
+    }
+
+    /**
+     * Set the maximum number of connections for all the hosts.
+     * 
+     * @param maxTotal
+     *            the maximum number of connections.
+     */
+    public void setMaxTotal(int maxTotal) {
+        connectionManager.setMaxTotal(maxTotal);
+    }
+
+    /**
+     * Set the maximum number of connections of the CDMI and non-CDMI hosts of
+     * the request factory. When they are the same host, the largest limit is
+     * used. The total is raised to allow both limits if needed.
+     * 
+     * @param cdmiMax
+     *            the maximum number of connections to the CDMI host.
+     * @param nonCdmiMax
+     *            the maximum number of connections to the non-CDMI host.
+     */
+    public void setRouteLimits(int cdmiMax, int nonCdmiMax) {
+        HttpRoute cdmi = newRoute(factory.getTarget());
+        HttpRoute nonCdmi = newRoute(factory.newNonCdmiFactory().getTarget());
+        if (cdmi.equals(nonCdmi)) {
+            connectionManager.setMaxPerRoute(cdmi, Math.max(cdmiMax, nonCdmiMax));
+            return;
+        }
+        connectionManager.setMaxPerRoute(cdmi, cdmiMax);
+        connectionManager.setMaxPerRoute(nonCdmi, nonCdmiMax);
+        if (connectionManager.getMaxTotal() < cdmiMax + nonCdmiMax) {
+            connectionManager.setMaxTotal(cdmiMax + nonCdmiMax);
+        }
+    }
+
+    /**
+     * Set the maximum number of connections to a host, such as one of the
+     * endpoints given to {@link CdmiClientImpl#setEndpoints}.
+     * 
+     * @param endpoint
+     *            the URI of the host.
+     * @param max
+     *            the maximum number of connections.
+     */
+    public void setMaxPerRoute(URI endpoint, int max) {
+        connectionManager.setMaxPerRoute(newRoute(new HttpHost(endpoint.getHost(),
+                endpoint.getPort(), endpoint.getScheme())), max);
+    }
+
+    private HttpRoute newRoute(HttpHost target) {
+        // Same route as the one planned for the requests.
+        return new HttpRoute(target, null, schemeRegistry.getScheme(target)
+                .isLayered());
+    }
+
+    /**
+     * Open connections in advance to the CDMI and non-CDMI hosts, and to the
+     * endpoints of the client if its requests are routed, so that the first
+     * requests do not pay for the TCP and TLS setup. The connections are
+     * opened in parallel, and are left idle in the pool.
+     * 
+     * At most {@link #getMaxTotal()} connections are opened, minus the ones
+     * currently in use, and the pool is never waited for: hosts whose
+     * connections are all in use are skipped.
+     * 
+     * @param connectionsPerRoute
+     *            the number of connections to open to each host, bounded by
+     *            its limit.
+     * @return the number of connections open and idle in the pool for these
+     *         hosts. Connections that could not be opened are ignored.
+     */
+    public int warmUp(int connectionsPerRoute) {
+        Set<HttpHost> targets = new LinkedHashSet<HttpHost>();
+        targets.add(factory.getTarget());
+        targets.add(factory.newNonCdmiFactory().getTarget());
+        CdmiEndpointRouter router = client.getRouter();
+        if (router != null) {
+            for (CdmiEndpointRouter.Endpoint endpoint : router.getEndpoints()) {
+                URI uri = endpoint.getURI();
+                targets.add(new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme()));
+            }
+        }
+        List<ManagedClientConnection> connections = new ArrayList<ManagedClientConnection>();
+        List<HttpRoute> routes = new ArrayList<HttpRoute>();
+        int available = connectionManager.getMaxTotal()
+                - connectionManager.getTotalStats().getLeased();
+        try {
+            // Hold the connections, so that each request gets a new one.
+            for (HttpHost target : targets) {
+                HttpRoute route = newRoute(target);
+                int count = Math.min(connectionsPerRoute,
+                        connectionManager.getMaxPerRoute(route));
+                for (int i = 0; i < count && connections.size() < available; ++i) {
+                    try {
+                        connections.add(connectionManager.requestConnection(route, null)
+                                .getConnection(WARM_UP_LEASE_MILLIS, TimeUnit.MILLISECONDS));
+                    } catch (ConnectionPoolTimeoutException e) {
+                        // The connections of this host are in use.
+                        break;
+                    }
+                    routes.add(route);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+                connections.size()));
+        int opened = 0;
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < connections.size(); ++i) {
+                final ManagedClientConnection connection = connections.get(i);
+                final HttpRoute route = routes.get(i);
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        if (!connection.isOpen()) {
+                            connection.open(route, new BasicHttpContext(),
+                                    httpClient.getParams());
+                        }
+                        connection.markReusable();
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                try {
+                    result.get();
+                    ++opened;
+                } catch (ExecutionException e) {
+                    // Not opened, released as not reusable.
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            for (ManagedClientConnection connection : connections) {
+                connectionManager.releaseConnection(connection, 0,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+        return opened;
     }
 
     @Override
-    public CdmiClient getClient() {
+    public CdmiClientImpl getClient() {
         return client;
     }
     
+    /**
+     * Get an asynchronous client sharing the connections of this manager. Its
+     * operations run on a pool of at most as many daemon threads as
+     * connections, which is created on the first call and stopped by
+     * {@link #shutdown()}.
+     * 
+     * @return an {@link AsyncCdmiClient} object.
+     */
+    public synchronized AsyncCdmiClient getAsyncClient() {
+        if (asyncClient == null) {
+            asyncClient = new ExecutorCdmiClient(client, getMaxTotal());
+        }
+        return asyncClient;
+    }
+
+    /**
+     * Measure the requests of the client of this manager, along with the
+     * statistics of the connection pool. The measures can also be published
+     * as JMX MBeans, which are removed by {@link #shutdown()}.
+     * 
+     * @param jmxName
+     *            the name of the client in the MBean names, or null to not
+     *            publish the measures.
+     * @return the measures.
+     * @throws CdmiConfigurationException
+     *             if the MBeans cannot be registered.
+     */
+    public synchronized CdmiMetrics enableMetrics(String jmxName)
+            throws CdmiConfigurationException {
+        if (metrics == null) {
+            metrics = new CdmiMetrics(connectionManager);
+            client.setMetricsListener(metrics);
+        }
+        if (jmxName != null) {
+            metrics.registerMBeans(jmxName);
+        } else {
+            metrics.unregisterMBeans();
+        }
+        return metrics;
+    }
+
     @Override
     public HttpClient getHttpClient() {
         return httpClient;
@@ -111,6 +395,20 @@ public class CdmiPooledConnectionManager extends CdmiConnectionManager {
 
     @Override
     public void shutdown() {
+        synchronized (this) {
+            if (evictor != null) {
+                evictor.shutdownNow();
+                evictor = null;
+            }
+            if (metrics != null) {
+                metrics.unregisterMBeans();
+            }
+            if (asyncClient != null) {
+                asyncClient.shutdown();
+                asyncClient = null;
+            }
+        }
+        client.shutdown();
         if (connectionManager != null) {
             connectionManager.shutdown();
             connectionManager = null;
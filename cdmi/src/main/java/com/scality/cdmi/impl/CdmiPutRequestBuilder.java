@@ -33,47 +33,71 @@
  */
 package com.scality.cdmi.impl;
 
+import java.io.File;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.TreeMap;
 
-import org.apache.commons.codec.binary.Base64;
+import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.HttpPut;
-import org.apache.http.entity.StringEntity;
 
 import com.scality.cdmi.api.CdmiConfigurationException;
 import com.scality.cdmi.connector.PutRequestBuilder;
 
 /**
+ * Build the JSON body of CDMI put requests. Binary contents are base64
+ * encoded while the request is sent, see {@link CdmiJsonEntity}.
+ * 
  * @author julien.muller@ezako.com for Scality
  *
  */
 public class CdmiPutRequestBuilder implements PutRequestBuilder {
+    private static final String VALUE = "value";
+    private static final String ENCODING = "UTF-8";
+
     private HttpPut put;
     private TreeMap<String, String> entity;
     private TreeMap<String, String> metadata;
+    private HttpEntity binary;
 
     public CdmiPutRequestBuilder(HttpPut put) {
         this.put = put;
         this.entity = new TreeMap<String, String>();
         this.metadata = new TreeMap<String, String>();
+        this.binary = null;
     }
     
     @Override
     public PutRequestBuilder addContents(String contents) {
         entity.put("valuetransferencoding", "utf-8");
-        entity.put("value", contents);
+        entity.put(VALUE, contents);
+        binary = null;
         return this;
     }
 
     @Override
     public PutRequestBuilder addContents(byte[] contents) {
+        return addContents(ByteBuffer.wrap(contents));
+    }
+    
+    @Override
+    public PutRequestBuilder addContents(ByteBuffer contents) {
+        return addBinary(new ByteBufferEntity(contents));
+    }
+
+    @Override
+    public PutRequestBuilder addContents(File file, long offset, long length) {
+        return addBinary(new FileRegionEntity(file, offset, length));
+    }
+
+    private PutRequestBuilder addBinary(HttpEntity contents) {
         entity.put("valuetransferencoding", "base64");
-        String encodedValue = new String(Base64.encodeBase64(contents));
-        entity.put("value", encodedValue);
+        entity.remove(VALUE);
+        binary = contents;
         return this;
     }
-    
+
     @Override
     public PutRequestBuilder addMetadata(String key, String value) {
         metadata.put(key, value);
@@ -86,24 +110,33 @@ public class CdmiPutRequestBuilder implements PutRequestBuilder {
         return this;
     }
 
-    private static String formatMap(Map<String, String> entries) {
-        boolean hasValue = false;
-        StringBuffer buffer = new StringBuffer();
-        buffer.append('{');
+    /**
+     * Append the entries of a map to a JSON object.
+     * 
+     * @return true if nothing was appended and first was true.
+     */
+    private static boolean appendEntries(StringBuilder buffer,
+            Map<String, String> entries, boolean first) {
         for (Map.Entry<String, String> item : entries.entrySet()) {
+            if (!first) {
+                buffer.append(',');
+            }
+            first = false;
+            buffer.append(" \"").append(item.getKey()).append("\": ");
             if (item.getValue().startsWith("{")) {
                 // Embedded JSON object.
-                buffer.append(String.format(" \"%s\": %s,", item.getKey(),
-                        item.getValue()));
+                buffer.append(item.getValue());
             } else {
-                buffer.append(String.format(" \"%s\": \"%s\",", item.getKey(),
-                        item.getValue()));
+                buffer.append('"').append(item.getValue()).append('"');
             }
-            hasValue = true;
-        }
-        if (hasValue) {
-            buffer.delete(buffer.length() - 1, buffer.length());
         }
+        return first;
+    }
+
+    private static String formatMap(Map<String, String> entries) {
+        StringBuilder buffer = new StringBuilder();
+        buffer.append('{');
+        appendEntries(buffer, entries, true);
         buffer.append('}');
         return buffer.toString();
     }
@@ -114,7 +147,25 @@ public class CdmiPutRequestBuilder implements PutRequestBuilder {
             entity.put("metadata", formatMap(metadata));
         }
         try {
-            put.setEntity(new StringEntity(formatMap(entity)));
+            if (binary == null) {
+                put.setEntity(new CdmiJsonEntity(formatMap(entity).getBytes(
+                        ENCODING), null, new byte[0]));
+                return put;
+            }
+            // The encoded value is streamed between the entries before and
+            // after it.
+            StringBuilder head = new StringBuilder();
+            head.append('{');
+            if (!appendEntries(head, entity.headMap(VALUE), true)) {
+                head.append(',');
+            }
+            head.append(" \"").append(VALUE).append("\": \"");
+            StringBuilder tail = new StringBuilder();
+            tail.append('"');
+            appendEntries(tail, entity.tailMap(VALUE, false), false);
+            tail.append('}');
+            put.setEntity(new CdmiJsonEntity(head.toString().getBytes(ENCODING),
+                    binary, tail.toString().getBytes(ENCODING)));
         } catch (UnsupportedEncodingException e) {
             throw new CdmiConfigurationException(e);
         }
@@ -34,23 +34,29 @@
 package com.scality.cdmi.impl;
 
 import java.net.URI;
-import java.net.URISyntaxException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.apache.http.Header;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.message.BasicHeader;
 
 import com.scality.cdmi.api.CdmiConfigurationException;
 import com.scality.cdmi.api.RequestFactory;
 import com.scality.cdmi.connector.PutRequestBuilder;
+import com.scality.cdmi.impl.utils.UriUtils;
 
 /**
  * @author ziad.bizri@ezako.com for Scality
  *
  */
 public class CdmiRequestFactory extends RequestFactory {
-    private String cdmiVersion;
+    /** Headers are immutable, and shared by all the requests. */
+    private final Header versionHeader;
+    private final ConcurrentMap<String, Header[]> typeHeaders;
 
     /**
      * @param uri
@@ -58,7 +64,8 @@ public class CdmiRequestFactory extends RequestFactory {
      */
     public CdmiRequestFactory(URI uri, String cdmiVersion) {
         super(uri.getScheme(), uri.getHost(), uri.getPort());
-        this.cdmiVersion = cdmiVersion;
+        this.versionHeader = newVersionHeader(cdmiVersion);
+        this.typeHeaders = new ConcurrentHashMap<String, Header[]>();
     }
 
     /**
@@ -69,7 +76,8 @@ public class CdmiRequestFactory extends RequestFactory {
     public CdmiRequestFactory(URI uri, URI nonCdmiUri, String cdmiVersion) {
         super(uri.getScheme(), uri.getHost(), uri.getPort(), nonCdmiUri
                 .getHost(), nonCdmiUri.getPort());
-        this.cdmiVersion = cdmiVersion;
+        this.versionHeader = newVersionHeader(cdmiVersion);
+        this.typeHeaders = new ConcurrentHashMap<String, Header[]>();
     }
 
     /**
@@ -81,7 +89,25 @@ public class CdmiRequestFactory extends RequestFactory {
     public CdmiRequestFactory(String scheme, String host, int port,
             String cdmiVersion) {
         super(scheme, host, port);
-        this.cdmiVersion = cdmiVersion;
+        this.versionHeader = newVersionHeader(cdmiVersion);
+        this.typeHeaders = new ConcurrentHashMap<String, Header[]>();
+    }
+
+    private static Header newVersionHeader(String cdmiVersion) {
+        return new BasicHeader("X-CDMI-Specification-Version", cdmiVersion);
+    }
+
+    /**
+     * @return the Accept and Content-Type headers of a type of resource.
+     */
+    private Header[] getTypeHeaders(String containerType) {
+        Header[] headers = typeHeaders.get(containerType);
+        if (headers == null) {
+            headers = new Header[] { new BasicHeader("Accept", containerType),
+                    new BasicHeader("Content-Type", containerType) };
+            typeHeaders.putIfAbsent(containerType, headers);
+        }
+        return headers;
     }
 
     @Override
@@ -93,27 +119,19 @@ public class CdmiRequestFactory extends RequestFactory {
     @Override
     public PutRequestBuilder newPut(String containerType, String key,
             String query) throws CdmiConfigurationException {
-        if (!key.startsWith("/")) {
-            key = "/" + key;
-        }
-        key = URIEscapeString(key);
-        try {
-            HttpPut put = new HttpPut(new URI(scheme, null, host, port, key,
-                    query, null));
-            put.addHeader("Accept", containerType);
-            put.addHeader("Content-Type", containerType);
-            put.addHeader("X-CDMI-Specification-Version", cdmiVersion);
-            return new CdmiPutRequestBuilder(put);
-        } catch (URISyntaxException e) {
-            throw new CdmiConfigurationException(e);
-        }
+        HttpPut put = new HttpPut(newURI(key, query));
+        Header[] headers = getTypeHeaders(containerType);
+        put.addHeader(headers[0]);
+        put.addHeader(headers[1]);
+        put.addHeader(versionHeader);
+        return new CdmiPutRequestBuilder(put);
     }
 
     @Override
     public PutRequestBuilder newPutWithRange(String containerType, String key,
             long offset, long length) throws CdmiConfigurationException {
         return newPut(containerType, key,
-                String.format("value:%d-%d", offset, offset + length - 1));
+                UriUtils.formatRange("value:", offset, length));
     }
 
     @Override
@@ -124,55 +142,27 @@ public class CdmiRequestFactory extends RequestFactory {
     @Override
     public HttpGet newGet(String key, String query)
             throws CdmiConfigurationException {
-        if (!key.startsWith("/")) {
-            key = "/" + key;
-        }
-        key = URIEscapeString(key);
-        try {
-            HttpGet get = new HttpGet(new URI(scheme, null, host, port, key,
-                    query, null));
-            get.addHeader("X-CDMI-Specification-Version", cdmiVersion);
-            return get;
-        } catch (URISyntaxException e) {
-            throw new CdmiConfigurationException(e);
-        }
+        HttpGet get = new HttpGet(newURI(key, query));
+        get.addHeader(versionHeader);
+        return get;
     }
 
     @Override
     public HttpGet newGetWithRange(String key, long offset, long length)
             throws CdmiConfigurationException {
         return newGet(key,
-                String.format("value:%d-%d", offset, offset + length - 1));
+                UriUtils.formatRange("value:", offset, length));
     }
 
     @Override
     public HttpDelete newDelete(String key) throws CdmiConfigurationException {
-        if (!key.startsWith("/")) {
-            key = "/" + key;
-        }
-        key = URIEscapeString(key);
-        try {
-            HttpDelete delete = new HttpDelete(new URI(scheme, null, host,
-                    port, key, null, null));
-            delete.addHeader("X-CDMI-Specification-Version", cdmiVersion);
-            return delete;
-        } catch (URISyntaxException e) {
-            throw new CdmiConfigurationException(e);
-        }
+        HttpDelete delete = new HttpDelete(newURI(key, null));
+        delete.addHeader(versionHeader);
+        return delete;
     }
 
     @Override
     public HttpHead newHead(String key) throws CdmiConfigurationException {
-        if (!key.startsWith("/")) {
-            key = "/" + key;
-        }
-        key = URIEscapeString(key);
-        try {
-            HttpHead head = new HttpHead(new URI(scheme, null, host, port, key,
-                    null, null));
-            return head;
-        } catch (URISyntaxException e) {
-            throw new CdmiConfigurationException(e);
-        }
+        return new HttpHead(newURI(key, null));
     }
 }
@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.impl;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+import com.scality.cdmi.api.CdmiClient;
+import com.scality.cdmi.api.CdmiConnectionException;
+import com.scality.cdmi.api.CdmiVisitor;
+import com.scality.cdmi.api.FileMetadata;
+import com.scality.cdmi.impl.utils.KeyUtils;
+
+/**
+ * Walks a tree of the CDMI repository recursively, reading the metadata of
+ * many entries concurrently.
+ * 
+ * The walk runs on a {@link ForkJoinPool}: each entry found in a container is
+ * forked as a task reading its metadata, visiting it and, for containers,
+ * listing its children in turn. Idle threads steal the pending entries of the
+ * others, so wide and deep trees are expanded at the same time. Tasks are
+ * never joined, so each thread has at most one request in flight and the
+ * parallelism bounds the number of concurrent requests, plus the pages of
+ * children fetched in the background by {@link CdmiClient#listChildren}.
+ * 
+ * The client must be safe for use by several threads, see
+ * {@link CdmiPooledConnectionManager}. Entries disappearing during the walk
+ * are skipped. The children of a container are only visited once it is fully
+ * listed, so visitors may delete the entries they visit.
+ */
+public class CdmiTreeWalker {
+    private final CdmiClient client;
+    private final int parallelism;
+
+    /**
+     * The aggregated counts of a tree, see {@link CdmiTreeWalker#du(String)}.
+     */
+    public static class Usage {
+        private final AtomicLong objects = new AtomicLong();
+        private final AtomicLong containers = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        /**
+         * @return the number of data objects.
+         */
+        public long getObjectCount() {
+            return objects.get();
+        }
+
+        /**
+         * @return the number of containers, including the root.
+         */
+        public long getContainerCount() {
+            return containers.get();
+        }
+
+        /**
+         * @return the total size of the data objects, in bytes.
+         */
+        public long getSize() {
+            return bytes.get();
+        }
+
+        @Override
+        public String toString() {
+            return "Usage [objects=" + objects + ", containers=" + containers
+                    + ", bytes=" + bytes + "]";
+        }
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param client
+     *            the client, safe for use by several threads.
+     * @param parallelism
+     *            the number of threads, and maximum number of metadata and
+     *            listing requests sent at the same time.
+     */
+    public CdmiTreeWalker(CdmiClient client, int parallelism) {
+        this.client = client;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Visit all the containers and data objects under a root.
+     * 
+     * @param root
+     *            the name of a container or data object in the CDMI
+     *            repository.
+     * @param visitor
+     *            the {@link CdmiVisitor} receiving the entries.
+     * @throws IOException
+     *             if any error occurred during communication, or if the root
+     *             does not exist. The walk stops at the first error.
+     */
+    public void walk(String root, CdmiVisitor visitor) throws IOException {
+        FileMetadata metadata = client.getMetadata(root);
+        if (!visitor.visit(metadata) || !metadata.isContainer()) {
+            return;
+        }
+        Walk walk = new Walk(visitor);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            walk.submitted.incrementAndGet();
+            pool.execute(new Expand(walk, metadata.getKey()));
+            synchronized (walk) {
+                while (walk.submitted.get() > 0) {
+                    walk.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            walk.failure.compareAndSet(null, new CdmiConnectionException(e));
+        } finally {
+            pool.shutdownNow();
+        }
+        if (walk.failure.get() != null) {
+            throw walk.failure.get();
+        }
+    }
+
+    /**
+     * Count the containers, data objects and bytes under a root.
+     * 
+     * @param root
+     *            the name of a container or data object in the CDMI
+     *            repository.
+     * @return the aggregated {@link Usage}.
+     * @throws IOException
+     *             if any error occurred during communication, or if the root
+     *             does not exist.
+     */
+    public Usage du(String root) throws IOException {
+        final Usage usage = new Usage();
+        walk(root, new CdmiVisitor() {
+            @Override
+            public boolean visit(FileMetadata metadata) {
+                if (metadata.isContainer()) {
+                    usage.containers.incrementAndGet();
+                } else {
+                    usage.objects.incrementAndGet();
+                    usage.bytes.addAndGet(metadata.getLength());
+                }
+                return true;
+            }
+        });
+        return usage;
+    }
+
+    /**
+     * Find the containers and data objects whose name matches a pattern under
+     * a root.
+     * 
+     * @param root
+     *            the name of a container or data object in the CDMI
+     *            repository.
+     * @param pattern
+     *            the pattern that the base name of the entries must match.
+     * @return the sorted keys of the matching entries.
+     * @throws IOException
+     *             if any error occurred during communication, or if the root
+     *             does not exist.
+     */
+    public List<String> find(String root, final Pattern pattern) throws IOException {
+        final List<String> result = Collections.synchronizedList(new ArrayList<String>());
+        walk(root, new CdmiVisitor() {
+            @Override
+            public boolean visit(FileMetadata metadata) {
+                if (pattern.matcher(KeyUtils.getBaseName(metadata.getKey())).matches()) {
+                    result.add(metadata.getKey());
+                }
+                return true;
+            }
+        });
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * The state shared by the tasks of a walk.
+     */
+    private static class Walk {
+        private final CdmiVisitor visitor;
+        /**
+         * The number of tasks submitted and not finished yet.
+         */
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+
+        Walk(CdmiVisitor visitor) {
+            this.visitor = visitor;
+        }
+
+        void fork(RecursiveAction task) {
+            submitted.incrementAndGet();
+            task.fork();
+        }
+
+        void done() {
+            if (submitted.decrementAndGet() == 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        void fail(IOException e) {
+            failure.compareAndSet(null, e);
+        }
+
+        boolean isFailed() {
+            return failure.get() != null;
+        }
+    }
+
+    /**
+     * List the children of a container and fork a {@link Visit} for each.
+     */
+    private class Expand extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Walk walk;
+        private final String key;
+
+        Expand(Walk walk, String key) {
+            this.walk = walk;
+            this.key = key;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                expand(walk, key);
+            } finally {
+                walk.done();
+            }
+        }
+    }
+
+    /**
+     * Read the metadata of an entry and visit it, then expand it in the same
+     * task if it is a container.
+     */
+    private class Visit extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Walk walk;
+        private final String key;
+
+        Visit(Walk walk, String key) {
+            this.walk = walk;
+            this.key = key;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (walk.isFailed()) {
+                    return;
+                }
+                FileMetadata metadata;
+                try {
+                    metadata = client.getMetadata(key);
+                } catch (FileNotFoundException e) {
+                    // The entry disappeared since the listing.
+                    return;
+                }
+                if (walk.visitor.visit(metadata) && metadata.isContainer()) {
+                    expand(walk, metadata.getKey());
+                }
+            } catch (IOException e) {
+                walk.fail(e);
+            } catch (RuntimeException e) {
+                walk.fail(new CdmiConnectionException(e));
+            } finally {
+                walk.done();
+            }
+        }
+    }
+
+    private void expand(Walk walk, String key) {
+        if (!key.endsWith("/")) {
+            key += "/";
+        }
+        try {
+            // List all the children before visiting any: the listing is paged
+            // by index, and a visitor deleting a child would shift the next
+            // pages.
+            List<String> names = new ArrayList<String>();
+            Iterator<String> children = client.listChildren(key);
+            try {
+                while (children.hasNext() && !walk.isFailed()) {
+                    names.add(children.next());
+                }
+            } finally {
+                if (children instanceof Closeable) {
+                    ((Closeable) children).close();
+                }
+            }
+            for (String name : names) {
+                if (walk.isFailed()) {
+                    break;
+                }
+                walk.fork(new Visit(walk, key + name));
+            }
+        } catch (FileNotFoundException e) {
+            // The container disappeared since the listing of its parent.
+        } catch (DirectoryIteratorException e) {
+            walk.fail(e.getCause());
+        } catch (IOException e) {
+            walk.fail(e);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.impl;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+
+import com.scality.cdmi.api.AsyncCdmiClient;
+import com.scality.cdmi.api.CdmiClient;
+import com.scality.cdmi.api.FileMetadata;
+
+/**
+ * An {@link AsyncCdmiClient} running the blocking operations of a
+ * {@link CdmiClient} on a pool of threads. The requests, the parsing of the
+ * responses and the retries are those of the underlying client, which must be
+ * safe for use by several threads (see {@link CdmiPooledConnectionManager}).
+ * 
+ * This is not non-blocking I/O: each running operation holds a thread until
+ * it completes, so the number of threads bounds the concurrent operations and
+ * the others wait in a queue. The threads are daemon threads, which stop
+ * after a minute without work, and {@link #shutdown()} stops them for good.
+ */
+public class ExecutorCdmiClient implements AsyncCdmiClient {
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final CdmiClient client;
+    private final ExecutorService executor;
+    private final boolean ownExecutor;
+
+    /**
+     * Constructor
+     * 
+     * @param client
+     *            the client running the operations.
+     * @param maxThreads
+     *            the maximum number of concurrent operations.
+     */
+    public ExecutorCdmiClient(CdmiClient client, int maxThreads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(Math.max(1, maxThreads),
+                Math.max(1, maxThreads), KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "cdmi-async-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        this.client = client;
+        this.executor = pool;
+        this.ownExecutor = true;
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param client
+     *            the client running the operations.
+     * @param executor
+     *            the executor running the operations; its number of threads
+     *            is the maximum number of concurrent operations. It belongs
+     *            to the caller and is not stopped by {@link #shutdown()}.
+     */
+    public ExecutorCdmiClient(CdmiClient client, ExecutorService executor) {
+        this.client = client;
+        this.executor = executor;
+        this.ownExecutor = false;
+    }
+
+    /**
+     * Stop the threads of this client, interrupting the running operations.
+     * Later operations fail with a {@link RejectedExecutionException}.
+     */
+    @Override
+    public void shutdown() {
+        if (ownExecutor) {
+            executor.shutdownNow();
+        }
+    }
+
+    private <T> Future<T> submit(final Callable<T> operation,
+            FutureCallback<T> callback) {
+        final BasicFuture<T> future = new BasicFuture<T>(callback);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.isCancelled()) {
+                        return;
+                    }
+                    try {
+                        future.completed(operation.call());
+                    } catch (Exception e) {
+                        future.failed(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.failed(e);
+        }
+        return future;
+    }
+
+    @Override
+    public Future<Boolean> put(final String key, final File file,
+            FutureCallback<Boolean> callback) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return client.put(key, file);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<Boolean> get(final String key, final File destFile,
+            FutureCallback<Boolean> callback) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return client.get(key, destFile);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<Boolean> exists(final String key,
+            FutureCallback<Boolean> callback) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return client.exists(key);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<FileMetadata> getMetadata(final String key,
+            FutureCallback<FileMetadata> callback) {
+        return submit(new Callable<FileMetadata>() {
+            @Override
+            public FileMetadata call() throws Exception {
+                return client.getMetadata(key);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<FileMetadata[]> listMetadata(final String key,
+            FutureCallback<FileMetadata[]> callback) {
+        return submit(new Callable<FileMetadata[]>() {
+            @Override
+            public FileMetadata[] call() throws Exception {
+                return client.listMetadata(key);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<Boolean> delete(final String key, final boolean recursive,
+            FutureCallback<Boolean> callback) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return client.delete(key, recursive);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<Boolean> move(final String srcKey, final String dstKey,
+            FutureCallback<Boolean> callback) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return client.move(srcKey, dstKey);
+            }
+        }, callback);
+    }
+}
@@ -64,7 +64,7 @@ public class FileMetadataImpl implements FileMetadata {
 	 */
 	private final boolean isContainer;
 	/**
-	 * String representation of the CDMI metadata.
+	 * String representation of the CDMI metadata, or null if it was not kept.
 	 */
 	private final String cdmiMetadata;
 
@@ -33,6 +33,9 @@
  */
 package com.scality.cdmi.impl;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.entity.ByteArrayEntity;
 
@@ -65,6 +68,18 @@ public class NonCdmiPutRequestBuilder implements PutRequestBuilder {
         return this;
     }
 
+    @Override
+    public PutRequestBuilder addContents(ByteBuffer contents) {
+        put.setEntity(new ByteBufferEntity(contents));
+        return this;
+    }
+
+    @Override
+    public PutRequestBuilder addContents(File file, long offset, long length) {
+        put.setEntity(new FileRegionEntity(file, offset, length));
+        return this;
+    }
+
     @Override
     public PutRequestBuilder addMetadata(String key, String value) {
         throw new UnsupportedOperationException("Cannot addMetadata in non CDMI mode");
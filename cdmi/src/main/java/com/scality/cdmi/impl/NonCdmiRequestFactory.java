@@ -34,22 +34,28 @@
 package com.scality.cdmi.impl;
 
 import java.net.URI;
-import java.net.URISyntaxException;
 
+import org.apache.http.Header;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.message.BasicHeader;
 
 import com.scality.cdmi.api.CdmiConfigurationException;
 import com.scality.cdmi.api.RequestFactory;
 import com.scality.cdmi.connector.PutRequestBuilder;
+import com.scality.cdmi.impl.utils.UriUtils;
 
 /**
  * @author ziad.bizri@ezako.com for Scality
  *
  */
 public class NonCdmiRequestFactory extends RequestFactory {
+    /** Headers are immutable, and shared by all the requests. */
+    private static final Header CONTENT_TYPE = new BasicHeader(
+            "Content-Type", "application/octet-stream");
+
     public NonCdmiRequestFactory(String scheme, String host, int port) {
         super(scheme, host, port);
     }
@@ -78,21 +84,13 @@ public class NonCdmiRequestFactory extends RequestFactory {
     @Override
     public PutRequestBuilder newPutWithRange(String containerType, String key, long offset,
             long length) throws CdmiConfigurationException {
-        if (!key.startsWith("/")) {
-            key = "/" + key;
-        }
-        key = URIEscapeString(key);
-        try {
-            HttpPut put = new HttpPut(new URI(scheme, null, host, port, key, null, null));
-            put.addHeader("Content-Type", "application/octet-stream");
-            if (length != -1) {
-                put.addHeader("Content-Range",
-                        String.format("bytes=%d-%d", offset, offset + length - 1));
-            }
-            return new NonCdmiPutRequestBuilder(put);
-        } catch (URISyntaxException e) {
-            throw new CdmiConfigurationException(e);
+        HttpPut put = new HttpPut(newURI(key, null));
+        put.addHeader(CONTENT_TYPE);
+        if (length != -1) {
+            put.addHeader("Content-Range",
+                    UriUtils.formatRange("bytes=", offset, length));
         }
+        return new NonCdmiPutRequestBuilder(put);
     }
 
     @Override
@@ -110,17 +108,9 @@ public class NonCdmiRequestFactory extends RequestFactory {
     @Override
     public HttpGet newGetWithRange(String key, long offset, long length)
             throws CdmiConfigurationException {
-        if (!key.startsWith("/")) {
-            key = "/" + key;
-        }
-        key = URIEscapeString(key);
-        try {
-            HttpGet get = new HttpGet(new URI(scheme, null, host, port, key, null, null));
-            get.addHeader("Range", String.format("bytes=%d-%d", offset, offset + length - 1));
-            return get;
-        } catch (URISyntaxException e) {
-            throw new CdmiConfigurationException(e);
-        }
+        HttpGet get = new HttpGet(newURI(key, null));
+        get.addHeader("Range", UriUtils.formatRange("bytes=", offset, length));
+        return get;
     }
 
     @Override
@@ -131,17 +121,7 @@ public class NonCdmiRequestFactory extends RequestFactory {
     
     @Override
     public HttpHead newHead(String key) throws CdmiConfigurationException {
-        if (!key.startsWith("/")) {
-            key = "/" + key;
-        }
-        key = URIEscapeString(key);
-        try {
-            HttpHead head = new HttpHead(new URI(scheme, null, host, port, key,
-                    null, null));
-            return head;
-        } catch (URISyntaxException e) {
-            throw new CdmiConfigurationException(e);
-        }
+        return new HttpHead(newURI(key, null));
     }
 
 }
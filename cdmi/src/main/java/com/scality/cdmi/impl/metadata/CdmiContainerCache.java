@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.impl.metadata;
+
+/**
+ * A bounded cache of the keys known to be existing containers. It lets
+ * makedirs skip the ancestors it already created or checked. The least
+ * recently used entries are evicted when the cache is full, and entries
+ * expire after an optional time to live, so that containers deleted by other
+ * clients are eventually noticed. The client must invalidate the keys it
+ * moves or deletes.
+ */
+public class CdmiContainerCache extends LruCache<Boolean> {
+
+    /**
+     * Constructor
+     * 
+     * @param maxEntries
+     *            the maximum number of entries in the cache.
+     * @param ttlMillis
+     *            the time to live of the entries in milliseconds, 0 for
+     *            entries that never expire.
+     */
+    public CdmiContainerCache(int maxEntries, long ttlMillis) {
+        super(maxEntries, ttlMillis);
+    }
+
+    /**
+     * @param path
+     *            the key in the CDMI repository.
+     * @return true if the key is known to be an existing container.
+     */
+    public boolean contains(String path) {
+        return get(path) != null;
+    }
+
+    /**
+     * @param path
+     *            the key of an existing container in the CDMI repository.
+     */
+    public void put(String path) {
+        put(path, Boolean.TRUE);
+    }
+}
@@ -34,24 +34,31 @@
 package com.scality.cdmi.impl.metadata;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 
 import org.codehaus.jackson.JsonFactory;
-import org.codehaus.jackson.JsonNode;
-import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.JsonParser;
-import org.codehaus.jackson.JsonProcessingException;
-import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.JsonToken;
 
 import com.scality.cdmi.api.CdmiConnectionException;
 import com.scality.cdmi.connector.CdmiTypes;
+import com.scality.cdmi.impl.utils.DateUtils;
 
 /**
+ * The metadata of a CDMI container or data object. Only the fields used by
+ * the client are extracted, with a streaming parser; the JSON representation
+ * sent by the server is kept only when requested.
+ * 
  * @author ziad.bizri@ezako.com for Scality
  *
  */
 public class CdmiMetadata {
+    /**
+     * Shared by all the threads, {@link JsonFactory} is thread safe.
+     */
+    static final JsonFactory JSON_FACTORY = new JsonFactory();
+
 	private final String metadata;
     private final long size;
     private final long mtime;
@@ -63,55 +70,119 @@ public class CdmiMetadata {
     private final String parentURI;
     private final String capabilitiesURI;
     private final boolean isContainer;
-    // Should not be static since SimpleDateFormat is not thread safe
-    private final SimpleDateFormat DATE_FORMATTER = new SimpleDateFormat(
-            "yyyy-MM-dd'T'HH:mm:ss.000000'Z'");
 
     /**
-     * Constructor
+     * Constructor. The JSON representation is kept, see {@link #getMetadata()}.
+     * 
      * @param metadata
      * @throws CdmiConnectionException
      */
     public CdmiMetadata(String metadata) throws CdmiConnectionException {
+        this(createParser(metadata), metadata);
+    }
+
+    /**
+     * Parse the metadata from a stream, without keeping the JSON
+     * representation.
+     * 
+     * @param in
+     *            the JSON encoded metadata.
+     * @return the parsed metadata.
+     * @throws CdmiConnectionException
+     */
+    public static CdmiMetadata parse(InputStream in) throws CdmiConnectionException {
+        try {
+            return new CdmiMetadata(JSON_FACTORY.createJsonParser(in), null);
+        } catch (IOException e) {
+            throw new CdmiConnectionException("Internal server error ", e);
+        }
+    }
+
+    private static JsonParser createParser(String metadata)
+            throws CdmiConnectionException {
+        try {
+            return JSON_FACTORY.createJsonParser(metadata);
+        } catch (IOException e) {
+            throw new CdmiConnectionException("Internal server error ", e);
+        }
+    }
+
+    private CdmiMetadata(JsonParser parser, String metadata)
+            throws CdmiConnectionException {
         this.metadata = metadata;
-    	try {
-            JsonParser parser = new JsonFactory().createJsonParser(metadata);
-            ObjectMapper m = new ObjectMapper();
-            JsonNode root = m.readTree(parser);
-            mtime = DATE_FORMATTER.parse(root.get("metadata").get("cdmi_mtime").getTextValue())
-                    .getTime() / 1000;
-            atime = DATE_FORMATTER.parse(root.get("metadata").get("cdmi_atime").getTextValue())
-                    .getTime() / 1000;
-            objectName = root.get("objectName").getTextValue().replace("<dot>", ".");
-            objectType = root.get("objectType").getTextValue();
-            objectID = root.get("objectID").getTextValue();
-            
-            JsonNode parentUriNode = root.get("parentURI");
-            if(parentUriNode != null) {
-                parentURI = parentUriNode.getTextValue().replace("<dot>", ".");
-            } else {
-                parentURI = "";
+        String name = null;
+        String type = null;
+        String id = null;
+        String parent = "";
+        String capabilities = null;
+        String encoding = null;
+        String mtimeValue = null;
+        String atimeValue = null;
+        long sizeValue = -1L;
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new CdmiConnectionException("Internal server error, "
+                        + "metadata is not a JSON object");
             }
-            
-            capabilitiesURI = root.get("capabilitiesURI").getTextValue();
-            if (objectType.equals(CdmiTypes.CDMI_OBJECT)) {
-                valuetransferencoding = root.get("valuetransferencoding").getTextValue();
-                size = root.get("metadata").get("cdmi_size").getLongValue();
-                isContainer = false;
-            } else {
-                valuetransferencoding = "";
-                size = -1L;
-                isContainer = true;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("metadata".equals(field) && token == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String metafield = parser.getCurrentName();
+                        parser.nextToken();
+                        if ("cdmi_size".equals(metafield)) {
+                            sizeValue = parser.getValueAsLong();
+                        } else if ("cdmi_mtime".equals(metafield)) {
+                            mtimeValue = parser.getText();
+                        } else if ("cdmi_atime".equals(metafield)) {
+                            atimeValue = parser.getText();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else if ("objectName".equals(field)) {
+                    name = parser.getText().replace("<dot>", ".");
+                } else if ("objectType".equals(field)) {
+                    type = parser.getText();
+                } else if ("objectID".equals(field)) {
+                    id = parser.getText();
+                } else if ("parentURI".equals(field)) {
+                    parent = parser.getText().replace("<dot>", ".");
+                } else if ("capabilitiesURI".equals(field)) {
+                    capabilities = parser.getText();
+                } else if ("valuetransferencoding".equals(field)) {
+                    encoding = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
             }
+            parser.close();
+            if (type == null || mtimeValue == null || atimeValue == null) {
+                throw new CdmiConnectionException("Internal server error, "
+                        + "missing fields in metadata");
+            }
+            mtime = DateUtils.parseCdmiTime(mtimeValue);
+            atime = DateUtils.parseCdmiTime(atimeValue);
         } catch (ParseException e) {
             throw new CdmiConnectionException("Internal server error ", e);
-        } catch (JsonParseException e) {
-            throw new CdmiConnectionException("Internal server error ", e);
-        } catch (JsonProcessingException e) {
-            throw new CdmiConnectionException("Internal server error ", e);
         } catch (IOException e) {
             throw new CdmiConnectionException("Internal server error ", e);
         }
+        objectName = name;
+        objectType = type;
+        objectID = id;
+        parentURI = parent;
+        capabilitiesURI = capabilities;
+        if (type.equals(CdmiTypes.CDMI_OBJECT)) {
+            valuetransferencoding = encoding;
+            size = sizeValue;
+            isContainer = false;
+        } else {
+            valuetransferencoding = "";
+            size = -1L;
+            isContainer = true;
+        }
     }
 
     /**
@@ -122,7 +193,8 @@ public class CdmiMetadata {
     }
     
     /**
-     * @return
+     * @return the JSON representation of the metadata, or null if it was not
+     *         kept.
      */
     public String getMetadata() {
     	return metadata;
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.impl.metadata;
+
+/**
+ * A bounded cache of {@link CdmiMetadata} keyed by path, shared by all the
+ * readers of a connector. The least recently used entries are evicted when the
+ * cache is full, and entries expire after a fixed time to live. Only existing
+ * keys are cached. The client must invalidate the entries of the keys it
+ * modifies.
+ */
+public class CdmiMetadataCache extends LruCache<CdmiMetadata> {
+
+    /**
+     * Constructor
+     * 
+     * @param maxEntries
+     *            the maximum number of entries in the cache.
+     * @param ttlMillis
+     *            the time to live of each entry in milliseconds, 0 for entries
+     *            that never expire.
+     */
+    public CdmiMetadataCache(int maxEntries, long ttlMillis) {
+        super(maxEntries, ttlMillis);
+    }
+
+    /**
+     * Remove all the keys of the data object with this object ID. Used when a
+     * data object is modified through its object ID.
+     * 
+     * @param objectID
+     *            the object ID of the data object.
+     */
+    public void invalidateObjectID(final String objectID) {
+        invalidateMatching(new Matcher<CdmiMetadata>() {
+            @Override
+            public boolean matches(CdmiMetadata metadata) {
+                return objectID.equals(metadata.getObjectID());
+            }
+        });
+    }
+}
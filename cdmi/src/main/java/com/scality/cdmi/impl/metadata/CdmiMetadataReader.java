@@ -36,15 +36,14 @@ package com.scality.cdmi.impl.metadata;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.ParseException;
 import org.apache.http.util.EntityUtils;
-import org.codehaus.jackson.JsonFactory;
-import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.JsonParser;
-import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.JsonToken;
 
 import com.scality.cdmi.api.CdmiConnectionException;
 import com.scality.cdmi.connector.CdmiConnector;
@@ -52,7 +51,8 @@ import com.scality.cdmi.connector.CdmiConnector;
 /**
  * 
  * This class can only be used with CDMI operations, not with nonCDMI
- * operations.
+ * operations. If the connector has a {@link CdmiMetadataCache}, metadata is
+ * served from the cache when possible.
  * 
  * @author julien.muller@ezako.com for Scality
  * 
@@ -81,44 +81,141 @@ public class CdmiMetadataReader {
      */
     public CdmiMetadata readMetadata(String path)
             throws CdmiConnectionException, FileNotFoundException {
+        CdmiMetadataCache cache = conn.getMetadataCache();
+        long generation = 0;
+        if (cache != null) {
+            CdmiMetadata cached = cache.get(path);
+            if (cached != null) {
+                return cached;
+            }
+            // Taken before the GET: an invalidation racing with it must not
+            // be undone by caching what the GET returned.
+            generation = cache.getGeneration();
+        }
         // First get the object type.
         HttpResponse response = conn.readMetadata(path, META_FIELD_NAMES);
         if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_FOUND) {
             EntityUtils.consumeQuietly(response.getEntity());
             throw new FileNotFoundException(path + " does not exist");
         }
-        return extractMetadata(response);
+        CdmiMetadata metadata = extractMetadata(response);
+        if (cache != null) {
+            cache.put(path, metadata, generation);
+        }
+        return metadata;
+    }
+
+    /**
+     * @param path
+     * @return the cached metadata for this path, or null if there is no cache
+     *         or no valid entry for this path.
+     */
+    public CdmiMetadata getCachedMetadata(String path) {
+        CdmiMetadataCache cache = conn.getMetadataCache();
+        return cache == null ? null : cache.get(path);
+    }
+
+    /**
+     * Drop the cached metadata of a path after it was modified.
+     * 
+     * @param path
+     */
+    public void invalidate(String path) {
+        CdmiMetadataCache cache = conn.getMetadataCache();
+        if (cache != null) {
+            cache.invalidate(path);
+        }
+    }
+
+    /**
+     * Drop the cached metadata of a path and of all the paths below it, after
+     * a container was moved or deleted.
+     * 
+     * @param path
+     */
+    public void invalidateTree(String path) {
+        CdmiMetadataCache cache = conn.getMetadataCache();
+        if (cache != null) {
+            cache.invalidateTree(path);
+        }
+    }
+
+    /**
+     * Drop the cached metadata of the data object with this object ID, when
+     * it was modified without knowing its path.
+     * 
+     * @param objectID
+     */
+    public void invalidateObjectID(String objectID) {
+        CdmiMetadataCache cache = conn.getMetadataCache();
+        if (cache != null) {
+            cache.invalidateObjectID(objectID);
+        }
     }
 
+    /**
+     * @param response
+     * @param key
+     * @return the value of a key of the user metadata, or null if the key does
+     *         not exist or is not a string.
+     * @throws CdmiConnectionException
+     */
     public String readMetadataValue(HttpResponse response, String key)
             throws CdmiConnectionException {
+        HttpEntity entity = response.getEntity();
         try {
-            String jsonEncoded = EntityUtils.toString(response.getEntity());
-            JsonParser parser = new JsonFactory().createJsonParser(jsonEncoded);
-            ObjectMapper m = new ObjectMapper();
-            JsonNode root = m.readTree(parser);
-            if (root.get("metadata") == null
-                    || root.get("metadata").get(key) == null) {
+            JsonParser parser = CdmiMetadata.JSON_FACTORY
+                    .createJsonParser(entity.getContent());
+            try {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    return null;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken token = parser.nextToken();
+                    if (!"metadata".equals(field)
+                            || token != JsonToken.START_OBJECT) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String metafield = parser.getCurrentName();
+                        token = parser.nextToken();
+                        if (key.equals(metafield)) {
+                            return token == JsonToken.VALUE_STRING ? parser
+                                    .getText() : null;
+                        }
+                        parser.skipChildren();
+                    }
+                    return null;
+                }
                 return null;
-            } else {
-                return root.get("metadata").get(key).getTextValue();
+            } finally {
+                parser.close();
             }
         } catch (JsonParseException e) {
             throw new CdmiConnectionException(e);
         } catch (IOException e) {
             throw new CdmiConnectionException(e);
+        } finally {
+            EntityUtils.consumeQuietly(entity);
         }
     }
 
     private CdmiMetadata extractMetadata(HttpResponse response)
             throws CdmiConnectionException {
+        HttpEntity entity = response.getEntity();
         try {
-            String jsonEncoded = EntityUtils.toString(response.getEntity());
-            return new CdmiMetadata(jsonEncoded);
+            if (conn.isKeepRawMetadata()) {
+                return new CdmiMetadata(EntityUtils.toString(entity));
+            }
+            return CdmiMetadata.parse(entity.getContent());
         } catch (ParseException e) {
             throw new CdmiConnectionException(e);
         } catch (IOException e) {
             throw new CdmiConnectionException(e);
+        } finally {
+            EntityUtils.consumeQuietly(entity);
         }
     }
 }
@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.impl.metadata;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of values keyed by path in the CDMI repository, shared by
+ * the metadata, object ID and container caches. Keys are normalized so that
+ * "foo", "/foo" and "/foo/" share the same entry. The least recently used
+ * entries are evicted when the cache is full, and entries expire after an
+ * optional time to live. Whole subtrees can be invalidated or moved.
+ * 
+ * @param <V>
+ *            the type of the cached values.
+ */
+public class LruCache<V> {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Entry<V>> entries;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private long generation;
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiry;
+
+        public Entry(V value, long expiry) {
+            this.value = value;
+            this.expiry = expiry;
+        }
+    }
+
+    /**
+     * Selects the values dropped by {@link LruCache#invalidateMatching}.
+     * 
+     * @param <V>
+     *            the type of the cached values.
+     */
+    public interface Matcher<V> {
+        /**
+         * @param value
+         *            a cached value.
+         * @return true if the entry of this value must be removed.
+         */
+        boolean matches(V value);
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param maxEntries
+     *            the maximum number of entries in the cache.
+     * @param ttlMillis
+     *            the time to live of the entries in milliseconds, 0 for
+     *            entries that never expire.
+     */
+    public LruCache(final int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    /**
+     * Normalize a key so that "foo", "/foo" and "/foo/" share the same entry.
+     */
+    private static String normalize(String path) {
+        int end = path.length();
+        while (end > 1 && path.charAt(end - 1) == '/') {
+            --end;
+        }
+        if (path.startsWith("/")) {
+            return path.substring(0, end);
+        }
+        return "/" + path.substring(0, end);
+    }
+
+    /**
+     * @param path
+     *            the key in the CDMI repository.
+     * @return the cached value, or null if not cached or expired.
+     */
+    public V get(String path) {
+        String key = normalize(path);
+        V value = null;
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                if (ttlNanos > 0 && System.nanoTime() - entry.expiry >= 0) {
+                    entries.remove(key);
+                } else {
+                    value = entry.value;
+                }
+            }
+        }
+        if (value != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * @param path
+     *            the key in the CDMI repository.
+     * @param value
+     *            the value to be cached for this key.
+     */
+    public void put(String path, V value) {
+        Entry<V> entry = new Entry<V>(value, System.nanoTime() + ttlNanos);
+        synchronized (entries) {
+            entries.put(normalize(path), entry);
+        }
+    }
+
+    /**
+     * @return the current invalidation generation, to be passed to
+     *         {@link #put(String, Object, long)} by a reader that fetches a
+     *         value after a cache miss.
+     */
+    public long getGeneration() {
+        synchronized (entries) {
+            return generation;
+        }
+    }
+
+    /**
+     * Cache a value read from the CDMI repository, unless some keys were
+     * invalidated since the read started: the value may then be stale.
+     * 
+     * @param path
+     *            the key in the CDMI repository.
+     * @param value
+     *            the value to be cached for this key.
+     * @param readGeneration
+     *            the result of {@link #getGeneration()} before the read.
+     * @return true if the value was cached.
+     */
+    public boolean put(String path, V value, long readGeneration) {
+        Entry<V> entry = new Entry<V>(value, System.nanoTime() + ttlNanos);
+        synchronized (entries) {
+            if (generation != readGeneration) {
+                return false;
+            }
+            entries.put(normalize(path), entry);
+            return true;
+        }
+    }
+
+    /**
+     * Remove a single key from the cache.
+     * 
+     * @param path
+     *            the key in the CDMI repository.
+     */
+    public void invalidate(String path) {
+        synchronized (entries) {
+            ++generation;
+            entries.remove(normalize(path));
+        }
+    }
+
+    /**
+     * Remove a key and all the keys below it from the cache. Used when a
+     * container is moved or deleted.
+     * 
+     * @param path
+     *            the key in the CDMI repository.
+     */
+    public void invalidateTree(String path) {
+        String key = normalize(path);
+        String prefix = key.endsWith("/") ? key : key + "/";
+        synchronized (entries) {
+            ++generation;
+            Iterator<String> it = entries.keySet().iterator();
+            while (it.hasNext()) {
+                String current = it.next();
+                if (current.equals(key) || current.startsWith(prefix)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all the entries whose value matches.
+     * 
+     * @param matcher
+     *            selects the values to be removed.
+     */
+    public void invalidateMatching(Matcher<V> matcher) {
+        synchronized (entries) {
+            ++generation;
+            Iterator<Entry<V>> it = entries.values().iterator();
+            while (it.hasNext()) {
+                if (matcher.matches(it.next().value)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Rename a key and all the keys below it, keeping their values and
+     * expiry. Any previous entries under the destination are dropped.
+     * 
+     * @param srcPath
+     *            the key of the source in the CDMI repository.
+     * @param dstPath
+     *            the key of the destination in the CDMI repository.
+     */
+    public void moveTree(String srcPath, String dstPath) {
+        String src = normalize(srcPath);
+        String srcPrefix = src.endsWith("/") ? src : src + "/";
+        String dst = normalize(dstPath);
+        List<String> keys = new ArrayList<String>();
+        List<Entry<V>> moved = new ArrayList<Entry<V>>();
+        synchronized (entries) {
+            Iterator<Map.Entry<String, Entry<V>>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry<V>> current = it.next();
+                String key = current.getKey();
+                if (key.equals(src)) {
+                    keys.add(dst);
+                } else if (key.startsWith(srcPrefix)) {
+                    keys.add(dst + key.substring(src.length()));
+                } else {
+                    continue;
+                }
+                moved.add(current.getValue());
+                it.remove();
+            }
+            invalidateTree(dst);
+            for (int i = 0; i < keys.size(); ++i) {
+                entries.put(keys.get(i), moved.get(i));
+            }
+        }
+    }
+
+    /**
+     * Remove all the entries.
+     */
+    public void clear() {
+        synchronized (entries) {
+            ++generation;
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return the number of entries in the cache, including the expired ones
+     *         not yet removed.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the maximum number of entries in the cache.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return the number of lookups served from the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that were not found in the cache.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [size=" + size() + ", maxEntries="
+                + maxEntries + ", hits=" + hits + ", misses=" + misses + "]";
+    }
+}
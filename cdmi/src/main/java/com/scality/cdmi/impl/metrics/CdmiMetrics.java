@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.impl.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.pool.PoolStats;
+
+import com.scality.cdmi.api.CdmiConfigurationException;
+import com.scality.cdmi.api.CdmiMetricsListener;
+
+/**
+ * Default {@link CdmiMetricsListener}: keeps counters and a latency histogram
+ * per operation, the number of retries, errors and connection timeouts, and
+ * reads the statistics of the connection pool when there is one.
+ * 
+ * The measures can be published as JMX MBeans with
+ * {@link #registerMBeans(String)}: one for the whole client, named
+ * com.scality.cdmi:type=Client,name=&lt;name&gt;, and one per operation, named
+ * com.scality.cdmi:type=Operation,client=&lt;name&gt;,name=&lt;operation&gt;.
+ */
+public class CdmiMetrics implements CdmiMetricsListener, CdmiMetricsMBean {
+    private static final String DOMAIN = "com.scality.cdmi";
+
+    private final ConnPoolControl<?> pool;
+    private final ConcurrentHashMap<String, OperationMetrics> operations;
+    private final AtomicLong retries;
+    private final AtomicLong errors;
+    private final AtomicLong connectTimeouts;
+    private String jmxName;
+    private final List<ObjectName> registered;
+
+    /**
+     * Constructor.
+     * 
+     * @param pool
+     *            the connection pool to report on, or null.
+     */
+    public CdmiMetrics(ConnPoolControl<?> pool) {
+        this.pool = pool;
+        this.operations = new ConcurrentHashMap<String, OperationMetrics>();
+        this.retries = new AtomicLong();
+        this.errors = new AtomicLong();
+        this.connectTimeouts = new AtomicLong();
+        this.registered = new ArrayList<ObjectName>();
+    }
+
+    /**
+     * @param operation
+     *            the name of an operation.
+     * @return the measures of this operation, or null if it was never used.
+     */
+    public OperationMetrics getOperation(String operation) {
+        return operations.get(operation);
+    }
+
+    /**
+     * @return the measures of all the operations.
+     */
+    public Collection<OperationMetrics> getOperationMetrics() {
+        return operations.values();
+    }
+
+    private OperationMetrics operation(String name) {
+        OperationMetrics metrics = operations.get(name);
+        if (metrics == null) {
+            OperationMetrics created = new OperationMetrics(name);
+            metrics = operations.putIfAbsent(name, created);
+            if (metrics == null) {
+                metrics = created;
+                registerOperation(created);
+            }
+        }
+        return metrics;
+    }
+
+    @Override
+    public void onRequest(String operation, int status, long latencyNanos, long bytesSent,
+            long bytesReceived) {
+        operation(operation).onRequest(status, latencyNanos, bytesSent, bytesReceived);
+    }
+
+    @Override
+    public void onRetry(String operation, int attempt, int status, long delayMillis) {
+        retries.incrementAndGet();
+        operation(operation).onRetry();
+    }
+
+    @Override
+    public void onError(String operation, IOException error) {
+        errors.incrementAndGet();
+        if (error instanceof ConnectTimeoutException) {
+            connectTimeouts.incrementAndGet();
+        }
+    }
+
+    @Override
+    public String[] getOperations() {
+        Set<String> names = new TreeSet<String>(operations.keySet());
+        return names.toArray(new String[names.size()]);
+    }
+
+    @Override
+    public long getRequests() {
+        long total = 0;
+        for (OperationMetrics metrics : operations.values()) {
+            total += metrics.getRequests();
+        }
+        return total;
+    }
+
+    @Override
+    public long getFailures() {
+        long total = 0;
+        for (OperationMetrics metrics : operations.values()) {
+            total += metrics.getFailures();
+        }
+        return total;
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.get();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public long getConnectTimeouts() {
+        return connectTimeouts.get();
+    }
+
+    @Override
+    public long getBytesSent() {
+        long total = 0;
+        for (OperationMetrics metrics : operations.values()) {
+            total += metrics.getBytesSent();
+        }
+        return total;
+    }
+
+    @Override
+    public long getBytesReceived() {
+        long total = 0;
+        for (OperationMetrics metrics : operations.values()) {
+            total += metrics.getBytesReceived();
+        }
+        return total;
+    }
+
+    private PoolStats poolStats() {
+        return pool != null ? pool.getTotalStats() : null;
+    }
+
+    @Override
+    public int getLeasedConnections() {
+        PoolStats stats = poolStats();
+        return stats != null ? stats.getLeased() : -1;
+    }
+
+    @Override
+    public int getAvailableConnections() {
+        PoolStats stats = poolStats();
+        return stats != null ? stats.getAvailable() : -1;
+    }
+
+    @Override
+    public int getPendingConnections() {
+        PoolStats stats = poolStats();
+        return stats != null ? stats.getPending() : -1;
+    }
+
+    @Override
+    public int getMaxConnections() {
+        PoolStats stats = poolStats();
+        return stats != null ? stats.getMax() : -1;
+    }
+
+    @Override
+    public void reset() {
+        for (OperationMetrics metrics : operations.values()) {
+            metrics.reset();
+        }
+        retries.set(0);
+        errors.set(0);
+        connectTimeouts.set(0);
+    }
+
+    /**
+     * Publish the measures in the platform MBean server.
+     * 
+     * @param name
+     *            the name of the client in the MBean names.
+     * @throws CdmiConfigurationException
+     *             if the MBeans cannot be registered, for example because the
+     *             name is already used.
+     */
+    public synchronized void registerMBeans(String name) throws CdmiConfigurationException {
+        unregisterMBeans();
+        jmxName = ObjectName.quote(name);
+        try {
+            register(new ObjectName(DOMAIN + ":type=Client,name=" + jmxName), this);
+            for (OperationMetrics metrics : operations.values()) {
+                register(operationName(metrics), metrics);
+            }
+        } catch (JMException e) {
+            unregisterMBeans();
+            throw new CdmiConfigurationException(e);
+        }
+    }
+
+    /**
+     * Remove the MBeans registered by {@link #registerMBeans(String)}.
+     */
+    public synchronized void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                // Already unregistered.
+            }
+        }
+        registered.clear();
+        jmxName = null;
+    }
+
+    private synchronized void registerOperation(OperationMetrics metrics) {
+        if (jmxName == null) {
+            return;
+        }
+        try {
+            register(operationName(metrics), metrics);
+        } catch (JMException e) {
+            // The measures are still available from the client MBean.
+        }
+    }
+
+    private ObjectName operationName(OperationMetrics metrics) throws JMException {
+        return new ObjectName(DOMAIN + ":type=Operation,client=" + jmxName + ",name="
+                + ObjectName.quote(metrics.getName()));
+    }
+
+    private void register(ObjectName name, Object mbean) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+        registered.add(name);
+    }
+
+    @Override
+    public String toString() {
+        return "CdmiMetrics [requests=" + getRequests() + ", failures=" + getFailures()
+                + ", retries=" + getRetries() + ", errors=" + getErrors() + ", operations="
+                + operations.values() + "]";
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.impl.metrics;
+
+/**
+ * JMX view of the measures of a CDMI client, all operations included.
+ */
+public interface CdmiMetricsMBean {
+
+    /**
+     * @return the names of the operations measured so far.
+     */
+    String[] getOperations();
+
+    /**
+     * @return the number of requests.
+     */
+    long getRequests();
+
+    /**
+     * @return the number of requests that got no response or a server error.
+     */
+    long getFailures();
+
+    /**
+     * @return the number of retried attempts.
+     */
+    long getRetries();
+
+    /**
+     * @return the number of attempts that failed without a response.
+     */
+    long getErrors();
+
+    /**
+     * @return the number of attempts that failed to connect in time.
+     */
+    long getConnectTimeouts();
+
+    /**
+     * @return the number of bytes sent in request bodies.
+     */
+    long getBytesSent();
+
+    /**
+     * @return the number of bytes received in response bodies.
+     */
+    long getBytesReceived();
+
+    /**
+     * @return the number of pooled connections in use, or -1 without pool.
+     */
+    int getLeasedConnections();
+
+    /**
+     * @return the number of idle pooled connections, or -1 without pool.
+     */
+    int getAvailableConnections();
+
+    /**
+     * @return the number of requests waiting for a connection, or -1 without
+     *         pool.
+     */
+    int getPendingConnections();
+
+    /**
+     * @return the maximum number of pooled connections, or -1 without pool.
+     */
+    int getMaxConnections();
+
+    /**
+     * Reset all the measures.
+     */
+    void reset();
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.impl.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The measures of one operation: request counters and latency histogram.
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+    private final String name;
+    private final AtomicLong requests;
+    private final AtomicLong failures;
+    private final AtomicLong retries;
+    private final AtomicLong bytesSent;
+    private final AtomicLong bytesReceived;
+    private final LatencyHistogram latencies;
+
+    /**
+     * Constructor.
+     * 
+     * @param name
+     *            the name of the operation.
+     */
+    public OperationMetrics(String name) {
+        this.name = name;
+        this.requests = new AtomicLong();
+        this.failures = new AtomicLong();
+        this.retries = new AtomicLong();
+        this.bytesSent = new AtomicLong();
+        this.bytesReceived = new AtomicLong();
+        this.latencies = new LatencyHistogram();
+    }
+
+    void onRequest(int status, long latencyNanos, long sent, long received) {
+        requests.incrementAndGet();
+        if (status < 0 || status >= 500) {
+            failures.incrementAndGet();
+        }
+        bytesSent.addAndGet(sent);
+        bytesReceived.addAndGet(received);
+        latencies.record(latencyNanos);
+    }
+
+    void onRetry() {
+        retries.incrementAndGet();
+    }
+
+    /**
+     * @return the name of the operation.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the histogram of the latencies.
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    @Override
+    public long getRequests() {
+        return requests.get();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.get();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public double getMeanLatencyMillis() {
+        return latencies.getMeanMillis();
+    }
+
+    @Override
+    public double getMaxLatencyMillis() {
+        return latencies.getMaxMillis();
+    }
+
+    @Override
+    public double getLatency50thPercentileMillis() {
+        return latencies.getPercentileMillis(0.5);
+    }
+
+    @Override
+    public double getLatency95thPercentileMillis() {
+        return latencies.getPercentileMillis(0.95);
+    }
+
+    @Override
+    public double getLatency99thPercentileMillis() {
+        return latencies.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public void reset() {
+        requests.set(0);
+        failures.set(0);
+        retries.set(0);
+        bytesSent.set(0);
+        bytesReceived.set(0);
+        latencies.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "OperationMetrics [name=" + name + ", requests=" + getRequests() + ", failures="
+                + getFailures() + ", retries=" + getRetries() + ", mean="
+                + getMeanLatencyMillis() + "ms, p99=" + getLatency99thPercentileMillis()
+                + "ms]";
+    }
+}
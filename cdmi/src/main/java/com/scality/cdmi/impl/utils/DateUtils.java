@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.impl.utils;
+
+import java.text.ParseException;
+
+/**
+ * Parsing of the timestamps sent by CDMI servers, e.g.
+ * "2013-01-01T00:00:00.000000Z". Unlike {@link java.text.SimpleDateFormat},
+ * the parser has no state, so it can be shared by all threads and does not
+ * allocate.
+ */
+public abstract class DateUtils {
+    private static int parseInt(String date, int begin, int end)
+            throws ParseException {
+        if (end > date.length()) {
+            throw new ParseException("Unparseable date: \"" + date + "\"", begin);
+        }
+        int value = 0;
+        for (int i = begin; i < end; ++i) {
+            char c = date.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new ParseException("Unparseable date: \"" + date + "\"", i);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void expect(String date, int index, char expected)
+            throws ParseException {
+        if (index >= date.length() || date.charAt(index) != expected) {
+            throw new ParseException("Unparseable date: \"" + date + "\"", index);
+        }
+    }
+
+    /**
+     * @return the number of days between 1970-01-01 and the given date of the
+     *         proleptic Gregorian calendar.
+     */
+    private static long daysFromEpoch(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5
+                + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100
+                + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Parse a CDMI timestamp in UTC, with optional fractional seconds.
+     * 
+     * @param date
+     *            the timestamp, formatted as yyyy-MM-dd'T'HH:mm:ss[.ffffff]Z.
+     * @return the number of seconds since Epoch.
+     * @throws ParseException
+     *             if the timestamp is not correctly formatted.
+     */
+    public static long parseCdmiTime(String date) throws ParseException {
+        int year = parseInt(date, 0, 4);
+        expect(date, 4, '-');
+        int month = parseInt(date, 5, 7);
+        expect(date, 7, '-');
+        int day = parseInt(date, 8, 10);
+        expect(date, 10, 'T');
+        int hours = parseInt(date, 11, 13);
+        expect(date, 13, ':');
+        int minutes = parseInt(date, 14, 16);
+        expect(date, 16, ':');
+        int seconds = parseInt(date, 17, 19);
+        int index = 19;
+        if (index < date.length() && date.charAt(index) == '.') {
+            do {
+                ++index;
+            } while (index < date.length() && Character.isDigit(date.charAt(index)));
+        }
+        if (index < date.length() && date.charAt(index) == 'Z') {
+            ++index;
+        }
+        if (index != date.length() || month < 1 || month > 12 || day < 1
+                || day > 31 || hours > 23 || minutes > 59 || seconds > 60) {
+            throw new ParseException("Unparseable date: \"" + date + "\"", index);
+        }
+        return daysFromEpoch(year, month, day) * 86400L + hours * 3600L
+                + minutes * 60L + seconds;
+    }
+}
@@ -62,7 +62,9 @@ public class ParsingUtils {
 
     private String getString(JsonParser jParser, String key) throws JsonParseException, IOException {
         String result = null;
-        while (jParser.nextToken() != JsonToken.END_OBJECT) {
+        JsonToken token;
+        while ((token = jParser.nextToken()) != null
+                && token != JsonToken.END_OBJECT) {
             String fieldname = jParser.getCurrentName();
             if (key.equals(fieldname)) {
                 jParser.nextToken();
@@ -84,13 +86,14 @@ public class ParsingUtils {
     /**
      * @param entity
      * @param key
-     * @return
+     * @return the value of the field, or null if it is missing.
      * @throws CdmiConnectionException
      */
     public String extractField(String entity, String key) throws CdmiConnectionException {
         try {
             JsonParser jParser = factory.createJsonParser(entity);
-            return new String(getString(jParser, key));
+            String result = getString(jParser, key);
+            return result == null ? null : new String(result);
         } catch (JsonParseException e) {
             throw new CdmiConnectionException(e);
         } catch (IOException e) {
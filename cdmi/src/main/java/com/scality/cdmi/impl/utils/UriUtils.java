@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.impl.utils;
+
+import java.nio.charset.Charset;
+
+/**
+ * Fast encoding of the paths and queries of request URIs. The result is the
+ * same as escaping the key with
+ * {@link com.scality.cdmi.api.RequestFactory#URIEscapeString(String)} and
+ * quoting it with the multi-argument constructors of {@link java.net.URI},
+ * without the intermediate strings.
+ */
+public abstract class UriUtils {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final boolean[] PATH_CHARS = allowed("/;:@&=+$,");
+    private static final boolean[] QUERY_CHARS = allowed(";/?:@&=+$,[]");
+
+    private static boolean[] allowed(String punct) {
+        boolean[] chars = new boolean[128];
+        for (char c = 'a'; c <= 'z'; ++c) {
+            chars[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; ++c) {
+            chars[c] = true;
+        }
+        for (char c = '0'; c <= '9'; ++c) {
+            chars[c] = true;
+        }
+        for (char c : "-_.!~*'()".toCharArray()) {
+            chars[c] = true;
+        }
+        for (char c : punct.toCharArray()) {
+            chars[c] = true;
+        }
+        return chars;
+    }
+
+    /**
+     * Append a key to the path of a URI. A leading '/' is added if missing.
+     * 
+     * @param buffer
+     *            the URI being built.
+     * @param key
+     *            the key in the CDMI repository.
+     * @return the buffer.
+     */
+    public static StringBuilder appendPath(StringBuilder buffer, String key) {
+        boolean slash = !key.startsWith("/");
+        if (slash) {
+            buffer.append('/');
+        }
+        int length = key.length();
+        for (int i = 0; i < length; ++i) {
+            char c = key.charAt(i);
+            if (c == '%') {
+                // Escaped once by URIEscapeString, then quoted.
+                buffer.append("%2525");
+            } else if (c == '.' && slash) {
+                // "/." is escaped as "/<dot>".
+                buffer.append("%3Cdot%3E");
+            } else {
+                append(buffer, c, PATH_CHARS);
+            }
+            slash = c == '/';
+        }
+        return buffer;
+    }
+
+    /**
+     * Append a query to a URI, with its leading '?'.
+     * 
+     * @param buffer
+     *            the URI being built.
+     * @param query
+     *            the query, or null.
+     * @return the buffer.
+     */
+    public static StringBuilder appendQuery(StringBuilder buffer, String query) {
+        if (query == null) {
+            return buffer;
+        }
+        buffer.append('?');
+        int length = query.length();
+        for (int i = 0; i < length; ++i) {
+            append(buffer, query.charAt(i), QUERY_CHARS);
+        }
+        return buffer;
+    }
+
+    /**
+     * Append a range in the form "prefix{first}-{last}", such as
+     * "value:0-99" or "bytes=0-99".
+     * 
+     * @param prefix
+     *            the text before the first position.
+     * @param offset
+     *            the first position.
+     * @param length
+     *            the length of the range, or a negative value for a range
+     *            open at its end.
+     * @return the range.
+     */
+    public static String formatRange(String prefix, long offset, long length) {
+        StringBuilder buffer = new StringBuilder(prefix.length() + 40);
+        buffer.append(prefix).append(offset).append('-');
+        if (length >= 0) {
+            buffer.append(offset + length - 1);
+        }
+        return buffer.toString();
+    }
+
+    private static void append(StringBuilder buffer, char c, boolean[] allowed) {
+        if (c < 128) {
+            if (allowed[c]) {
+                buffer.append(c);
+            } else {
+                appendEscape(buffer, (byte) c);
+            }
+        } else if (Character.isSpaceChar(c) || Character.isISOControl(c)) {
+            for (byte b : String.valueOf(c).getBytes(UTF8)) {
+                appendEscape(buffer, b);
+            }
+        } else {
+            // Other characters are kept as is.
+            buffer.append(c);
+        }
+    }
+
+    private static void appendEscape(StringBuilder buffer, byte b) {
+        buffer.append('%').append(HEX[(b >> 4) & 0x0f]).append(HEX[b & 0x0f]);
+    }
+}
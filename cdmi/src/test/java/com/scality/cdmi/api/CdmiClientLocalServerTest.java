@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.api;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.scality.cdmi.impl.CdmiClientImpl;
+import com.scality.cdmi.mock.LocalCdmiServer;
+
+/**
+ * Run the CdmiClientTest through the HTTP stack against a
+ * {@link LocalCdmiServer}, and test the client with injected latency,
+ * bandwidth limits and errors.
+ */
+public class CdmiClientLocalServerTest extends CdmiClientTest {
+    private LocalCdmiServer server;
+    private CdmiConnectionManager cm;
+
+    @Override
+    protected CdmiClient getTestClient() {
+        return cm.getClient();
+    }
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalCdmiServer();
+        server.start();
+        cm = CdmiConnectionManager.newPooledConnectionManager(
+                RequestFactory.newCdmiFactory(server.getURI(), "1.0.1"),
+                new CdmiAuthScope("127.0.0.1", server.getPort()),
+                new CdmiCredentials("user", "password"), new RetryStrategy(3, 10,
+                        5000), 10, 8192, 1 << 20, 4);
+        super.setUp();
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+        cm.shutdown();
+        server.stop();
+    }
+
+    /**
+     * Test that injected errors are retried.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testInjectedErrors() throws IOException {
+        String path = "/testdirs/retried.txt";
+        server.resetCounters();
+        server.failNext(2, 503);
+        Assert.assertTrue(client.touch(path));
+        // Two failures, the creation and the synchronization.
+        Assert.assertEquals(4, server.getRequestCount());
+
+        server.failNext(1, LocalCdmiServer.DROP_CONNECTION);
+        Assert.assertTrue(client.exists(path));
+
+        server.failNext(10, 500);
+        try {
+            client.exists(path);
+            Assert.fail("The server errors should not be hidden");
+        } catch (CdmiConnectionException e) {
+            // Expected.
+        }
+        server.failNext(0, 500);
+        Assert.assertTrue(client.exists(path));
+    }
+
+    /**
+     * Test the injected latency and bandwidth limit.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testLatencyAndBandwidth() throws IOException {
+        String path = "/testdirs/slow.dat";
+        byte[] data = new byte[64 * 1024];
+        new Random(42).nextBytes(data);
+        server.putObject(path, data);
+
+        server.setLatency(100);
+        long start = System.currentTimeMillis();
+        Assert.assertTrue(client.exists(path));
+        Assert.assertTrue(System.currentTimeMillis() - start >= 100);
+        server.setLatency(0);
+
+        server.setBandwidth(256 * 1024);
+        start = System.currentTimeMillis();
+        InputStream in = client.open(path);
+        byte[] buffer = new byte[data.length];
+        int read = 0;
+        int lastread;
+        while ((lastread = in.read(buffer, read, buffer.length - read)) > 0) {
+            read += lastread;
+        }
+        in.close();
+        // 64KB at 256KB/s
+        Assert.assertTrue(System.currentTimeMillis() - start >= 200);
+        Assert.assertArrayEquals(data, buffer);
+    }
+
+    /**
+     * Test parallel transfers over the connection pool.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testParallelTransfer() throws IOException {
+        CdmiClientImpl impl = (CdmiClientImpl) client;
+        impl.setParallelUpload(16 * 1024, 4);
+        impl.setParallelDownload(16 * 1024, 4);
+        server.setLatency(20);
+        byte[] data = new byte[200 * 1024];
+        new Random(7).nextBytes(data);
+        File source = File.createTempFile("local", "put");
+        File dest = File.createTempFile("local", "get");
+        try {
+            OutputStream out = new FileOutputStream(source);
+            out.write(data);
+            out.close();
+
+            String path = "/testdirs/parallel.dat";
+            server.resetCounters();
+            Assert.assertTrue(client.put(path, source));
+            Assert.assertTrue(server.getMaxInflight() > 1);
+            Assert.assertArrayEquals(data, server.getObject(path));
+
+            server.resetCounters();
+            Assert.assertTrue(client.get(path, dest));
+            Assert.assertTrue(server.getMaxInflight() > 1);
+            byte[] copy = new byte[data.length];
+            InputStream in = new FileInputStream(dest);
+            int read = 0;
+            int lastread;
+            while ((lastread = in.read(copy, read, copy.length - read)) > 0) {
+                read += lastread;
+            }
+            in.close();
+            Assert.assertTrue(Arrays.equals(data, copy));
+        } finally {
+            source.delete();
+            dest.delete();
+        }
+    }
+
+    /**
+     * Test listing the metadata of children concurrently.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testParallelList() throws IOException {
+        String path = "/testdirs/list/";
+        Assert.assertTrue(client.makedir(path));
+        for (int i = 0; i < 40; ++i) {
+            server.putObject(path + String.format("file%02d", i), new byte[i]);
+        }
+        Assert.assertTrue(client.makedir(path + "sub"));
+        FileMetadata[] sequential = client.listMetadata(path);
+
+        ((CdmiClientImpl) client).setParallelList(8);
+        server.setLatency(10);
+        server.resetCounters();
+        FileMetadata[] parallel = client.listMetadata(path);
+        Assert.assertTrue(server.getMaxInflight() > 1);
+        Assert.assertEquals(41, parallel.length);
+        for (int i = 0; i < sequential.length; ++i) {
+            Assert.assertEquals(sequential[i].getKey(), parallel[i].getKey());
+            Assert.assertEquals(sequential[i].getLength(), parallel[i].getLength());
+        }
+        Assert.assertEquals(path + "file07", parallel[7].getKey());
+        Assert.assertEquals(7, parallel[7].getLength());
+        Assert.assertTrue(parallel[40].isContainer());
+    }
+
+    /**
+     * Test listing the children of a container in pages.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testContainerCache() throws IOException {
+        CdmiClientImpl impl = (CdmiClientImpl) client;
+        Assert.assertTrue(client.makedirs("/testdirs/a/b/c/d/"));
+        // Without cache, every new leaf checks its parent.
+        server.resetCounters();
+        Assert.assertTrue(client.makedirs("/testdirs/a/b/c/d/e1"));
+        Assert.assertEquals(3, server.getRequestCount());
+
+        impl.setContainerCache(100, 0);
+        Assert.assertTrue(client.makedirs("/testdirs/a/b/c/d/e2"));
+        server.resetCounters();
+        Assert.assertTrue(client.makedirs("/testdirs/a/b/c/d/e3"));
+        Assert.assertEquals(2, server.getRequestCount());
+        server.resetCounters();
+        Assert.assertFalse(client.makedirs("/testdirs/a/b/c/d/e3"));
+        Assert.assertEquals(0, server.getRequestCount());
+        Assert.assertTrue(client.makedirs("/testdirs/a/b/c/d/e3/f/g"));
+        Assert.assertTrue(server.exists("/testdirs/a/b/c/d/e3/f/g"));
+
+        // Deletes and moves through the client invalidate the cache.
+        Assert.assertTrue(client.delete("/testdirs/a/b/c/d/e3", true));
+        Assert.assertTrue(client.makedirs("/testdirs/a/b/c/d/e3/f"));
+        Assert.assertTrue(server.exists("/testdirs/a/b/c/d/e3/f"));
+        Assert.assertTrue(client.move("/testdirs/a/b/c/d/e3", "/testdirs/moved"));
+        Assert.assertTrue(client.makedirs("/testdirs/a/b/c/d/e3/f"));
+        Assert.assertTrue(server.exists("/testdirs/a/b/c/d/e3/f"));
+
+        // Containers deleted by someone else are recreated.
+        server.remove("/testdirs/a/b");
+        Assert.assertTrue(client.makedirs("/testdirs/a/b/c/d/e4"));
+        Assert.assertTrue(server.exists("/testdirs/a/b/c/d/e4"));
+        Assert.assertTrue(impl.getContainerCache().getHits() > 0);
+
+        try {
+            server.putObject("/testdirs/file", new byte[1]);
+            client.makedirs("/testdirs/file/sub");
+            Assert.fail("Cannot create a directory below a file");
+        } catch (CdmiConnectionException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testListChildren() throws IOException {
+        String path = "/testdirs/paged/";
+        Assert.assertTrue(client.makedir(path));
+        for (int i = 0; i < 25; ++i) {
+            server.putObject(path + String.format("file%02d", i), new byte[0]);
+        }
+        Assert.assertTrue(client.makedir(path + "sub"));
+        ((CdmiClientImpl) client).setListPageSize(10);
+
+        server.resetCounters();
+        Iterator<String> children = client.listChildren(path);
+        // Only the first page is read before iterating.
+        Assert.assertEquals(1, server.getRequestCount());
+        List<String> names = new ArrayList<String>();
+        while (children.hasNext()) {
+            names.add(children.next());
+        }
+        Assert.assertEquals(26, names.size());
+        Assert.assertEquals("file00", names.get(0));
+        Assert.assertEquals("file24", names.get(24));
+        Assert.assertEquals("sub/", names.get(25));
+        Assert.assertEquals(3, server.getRequestCount());
+
+        // The last page is full.
+        for (int i = 0; i < 5; ++i) {
+            Assert.assertTrue(client.delete(path + String.format("file%02d", i), false));
+        }
+        Assert.assertTrue(client.delete(path + "sub", false));
+        Assert.assertEquals(20, client.listMetadata(path).length);
+        // Servers without children ranges.
+        ((CdmiClientImpl) client).setListPageSize(0);
+        server.setNoChildrenRanges(true);
+        Assert.assertEquals(20, client.listMetadata(path).length);
+        try {
+            client.delete(path, false);
+            Assert.fail("The container is not empty");
+        } catch (IOException e) {
+            Assert.assertEquals("Cannot delete non empty container.", e.getMessage());
+        }
+        Assert.assertTrue(client.makedir(path + "empty"));
+        Assert.assertTrue(client.delete(path + "empty", false));
+
+        try {
+            client.listChildren(path + "sub");
+            Assert.fail("The container does not exist");
+        } catch (FileNotFoundException e) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.connector;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.scality.cdmi.api.CdmiAuthScope;
+import com.scality.cdmi.api.CdmiConnectionException;
+import com.scality.cdmi.api.CdmiConnectionManager;
+import com.scality.cdmi.api.CdmiCredentials;
+import com.scality.cdmi.api.RequestFactory;
+import com.scality.cdmi.api.RetryPolicy;
+import com.scality.cdmi.api.RetryStrategy;
+import com.scality.cdmi.mock.LocalCdmiServer;
+
+/**
+ * Test the {@link BackoffRetryPolicy}, the {@link RetryBudget} and the way the
+ * {@link CdmiConnector} applies them.
+ */
+public class BackoffRetryPolicyTest {
+    private static final HttpGet REQUEST = new HttpGet("http://mock:80/foo");
+
+    private static HttpResponse newResponse(int status) {
+        return new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, status, null));
+    }
+
+    /**
+     * A client answering with the given responses, an {@link Exception} being
+     * thrown instead of returned.
+     */
+    private static HttpClient scriptedClient(final LinkedList<Object> script,
+            final AtomicInteger calls) {
+        return (HttpClient) Proxy.newProxyInstance(HttpClient.class.getClassLoader(),
+                new Class<?>[] { HttpClient.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        if (!method.getName().equals("execute")) {
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                        calls.incrementAndGet();
+                        Object next = script.removeFirst();
+                        if (next instanceof Exception) {
+                            throw (Exception) next;
+                        }
+                        return next;
+                    }
+                });
+    }
+
+    /**
+     * Test that the delays grow with jitter, stay between the base and the
+     * maximum, and stop after the maximum number of attempts.
+     */
+    @Test
+    public void testBackoff() {
+        BackoffRetryPolicy policy = new BackoffRetryPolicy(10, 10, 200, null);
+        HttpResponse unavailable = newResponse(HttpStatus.SC_SERVICE_UNAVAILABLE);
+        long delay = 0;
+        for (int attempt = 1; attempt < 10; ++attempt) {
+            long next = policy.nextRetryDelay(REQUEST, attempt, delay, unavailable, null);
+            Assert.assertTrue(next >= 10);
+            Assert.assertTrue(next <= Math.min(200, Math.max(10, delay) * 3));
+            delay = next;
+        }
+        Assert.assertEquals(-1, policy.nextRetryDelay(REQUEST, 10, delay, unavailable, null));
+    }
+
+    /**
+     * Test which statuses and errors are retried.
+     */
+    @Test
+    public void testRetryable() {
+        BackoffRetryPolicy policy = new BackoffRetryPolicy(3, 0, 0, null);
+        Assert.assertEquals(0, policy.nextRetryDelay(REQUEST, 1, 0, newResponse(429), null));
+        Assert.assertEquals(0, policy.nextRetryDelay(REQUEST, 1, 0,
+                newResponse(HttpStatus.SC_INTERNAL_SERVER_ERROR), null));
+        Assert.assertEquals(-1, policy.nextRetryDelay(REQUEST, 1, 0,
+                newResponse(HttpStatus.SC_NOT_FOUND), null));
+        Assert.assertEquals(0, policy.nextRetryDelay(REQUEST, 1, 0, null,
+                new ConnectTimeoutException()));
+        Assert.assertEquals(-1, policy.nextRetryDelay(REQUEST, 1, 0, null,
+                new IOException()));
+
+        HttpPut put = new HttpPut("http://mock:80/foo");
+        put.setEntity(new InputStreamEntity(new ByteArrayInputStream(new byte[1]), 1));
+        Assert.assertEquals(-1, policy.nextRetryDelay(put, 1, 0,
+                newResponse(HttpStatus.SC_SERVICE_UNAVAILABLE), null));
+    }
+
+    /**
+     * Test that requests that may have been applied by the server are only
+     * retried when they are idempotent.
+     */
+    @Test
+    public void testIdempotent() {
+        BackoffRetryPolicy policy = new BackoffRetryPolicy(3, 0, 0, null);
+        HttpPut overwrite = new HttpPut("http://mock:80/foo");
+        HttpPut create = new HttpPut("http://mock:80/foo");
+        create.setHeader("If-None-Match", "*");
+        HttpPut move = new HttpPut("http://mock:80/foo");
+        move.getParams().setBooleanParameter(RetryPolicy.NON_IDEMPOTENT, true);
+        HttpDelete delete = new HttpDelete("http://mock:80/foo");
+        Assert.assertTrue(BackoffRetryPolicy.isIdempotent(REQUEST));
+        Assert.assertTrue(BackoffRetryPolicy.isIdempotent(overwrite));
+        for (HttpUriRequest request : new HttpUriRequest[] { create, move, delete }) {
+            Assert.assertFalse(BackoffRetryPolicy.isIdempotent(request));
+            Assert.assertEquals(-1, policy.nextRetryDelay(request, 1, 0, null,
+                    new NoHttpResponseException("lost")));
+            Assert.assertEquals(-1, policy.nextRetryDelay(request, 1, 0,
+                    newResponse(HttpStatus.SC_BAD_GATEWAY), null));
+            Assert.assertEquals(0, policy.nextRetryDelay(request, 1, 0, null,
+                    new ConnectTimeoutException()));
+            Assert.assertEquals(0, policy.nextRetryDelay(request, 1, 0,
+                    newResponse(HttpStatus.SC_SERVICE_UNAVAILABLE), null));
+            Assert.assertEquals(0, policy.nextRetryDelay(request, 1, 0, newResponse(429),
+                    null));
+        }
+        for (HttpUriRequest request : new HttpUriRequest[] { REQUEST, overwrite }) {
+            Assert.assertEquals(0, policy.nextRetryDelay(request, 1, 0, null,
+                    new NoHttpResponseException("lost")));
+            Assert.assertEquals(0, policy.nextRetryDelay(request, 1, 0,
+                    newResponse(HttpStatus.SC_GATEWAY_TIMEOUT), null));
+        }
+    }
+
+    /**
+     * Test that a request applied by the server whose response is lost is not
+     * retried when it is not idempotent, through the whole HTTP stack.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testLostResponse() throws Exception {
+        LocalCdmiServer server = new LocalCdmiServer();
+        server.start();
+        CdmiConnectionManager cm = CdmiConnectionManager.newPooledConnectionManager(
+                RequestFactory.newCdmiFactory(server.getURI(), "1.0.1"),
+                new CdmiAuthScope("127.0.0.1", server.getPort()), new CdmiCredentials(
+                        "user", "password"), new RetryStrategy(3, 10, 5000), 10, 8192,
+                1 << 20, 4);
+        try {
+            CdmiConnector connector = new CdmiConnector(RequestFactory.newCdmiFactory(
+                    server.getURI(), "1.0.1"), cm.getHttpClient(),
+                    new RetryStrategy(3, 10, 5000), true);
+            server.putObject("/foo", new byte[] { 1 });
+
+            server.resetCounters();
+            server.failNext(1, LocalCdmiServer.DROP_RESPONSE);
+            try {
+                connector.moveObject("/foo", "/bar");
+                Assert.fail("A lost move should not be retried");
+            } catch (CdmiConnectionException e) {
+                // Expected.
+            }
+            Assert.assertEquals(1, server.getRequestCount());
+            Assert.assertTrue(server.exists("/bar"));
+
+            server.resetCounters();
+            server.failNext(1, LocalCdmiServer.DROP_RESPONSE);
+            try {
+                connector.createObject("/baz", new byte[] { 2 });
+                Assert.fail("A lost conditional create should not be retried");
+            } catch (CdmiConnectionException e) {
+                // Expected.
+            }
+            Assert.assertEquals(1, server.getRequestCount());
+            Assert.assertTrue(server.exists("/baz"));
+
+            server.resetCounters();
+            server.failNext(1, LocalCdmiServer.DROP_RESPONSE);
+            try {
+                connector.delete("/baz");
+                Assert.fail("A lost delete should not be retried");
+            } catch (CdmiConnectionException e) {
+                // Expected.
+            }
+            Assert.assertEquals(1, server.getRequestCount());
+            Assert.assertFalse(server.exists("/baz"));
+
+            // Reads are retried.
+            server.resetCounters();
+            server.failNext(1, LocalCdmiServer.DROP_RESPONSE);
+            HttpResponse response = connector.readObjectNonCdmi("/bar", 0, 1);
+            Assert.assertEquals(HttpStatus.SC_PARTIAL_CONTENT, response.getStatusLine()
+                    .getStatusCode());
+            EntityUtils.consume(response.getEntity());
+            Assert.assertEquals(2, server.getRequestCount());
+        } finally {
+            cm.shutdown();
+            server.stop();
+        }
+    }
+
+    /**
+     * Test that Retry-After is honored, in seconds or as a date, and that the
+     * request is given up when it asks for more than the maximum delay.
+     */
+    @Test
+    public void testRetryAfter() {
+        BackoffRetryPolicy policy = new BackoffRetryPolicy(3, 0, 5000, null);
+        HttpResponse response = newResponse(HttpStatus.SC_SERVICE_UNAVAILABLE);
+        response.setHeader("Retry-After", "2");
+        Assert.assertTrue(policy.nextRetryDelay(REQUEST, 1, 0, response, null) >= 2000);
+
+        response.setHeader("Retry-After",
+                DateUtils.formatDate(new Date(System.currentTimeMillis() + 4000)));
+        long delay = policy.nextRetryDelay(REQUEST, 1, 0, response, null);
+        Assert.assertTrue(delay > 2000 && delay <= 5000);
+
+        response.setHeader("Retry-After", "10");
+        Assert.assertEquals(-1, policy.nextRetryDelay(REQUEST, 1, 0, response, null));
+
+        response.setHeader("Retry-After", "soon");
+        Assert.assertEquals(0, policy.nextRetryDelay(REQUEST, 1, 0, response, null));
+    }
+
+    /**
+     * Test that the budget limits the retries to a fraction of the requests.
+     */
+    @Test
+    public void testBudget() {
+        RetryBudget budget = new RetryBudget(0.5, 2);
+        BackoffRetryPolicy policy = new BackoffRetryPolicy(100, 0, 0, budget);
+        HttpResponse unavailable = newResponse(HttpStatus.SC_SERVICE_UNAVAILABLE);
+        Assert.assertEquals(0, policy.nextRetryDelay(REQUEST, 1, 0, unavailable, null));
+        Assert.assertEquals(0, policy.nextRetryDelay(REQUEST, 1, 0, unavailable, null));
+        Assert.assertEquals(-1, policy.nextRetryDelay(REQUEST, 1, 0, unavailable, null));
+        policy.onRequest(REQUEST);
+        Assert.assertEquals(-1, policy.nextRetryDelay(REQUEST, 1, 0, unavailable, null));
+        policy.onRequest(REQUEST);
+        Assert.assertEquals(0, policy.nextRetryDelay(REQUEST, 1, 0, unavailable, null));
+        for (int i = 0; i < 10; ++i) {
+            policy.onRequest(REQUEST);
+        }
+        Assert.assertEquals(2.0, budget.getTokens(), 0.0);
+    }
+
+    /**
+     * Test that the connector retries with the policy and keeps reporting the
+     * exhausted retries as before.
+     * 
+     * @throws CdmiConnectionException
+     */
+    @Test
+    public void testConnector() throws CdmiConnectionException {
+        LinkedList<Object> script = new LinkedList<Object>();
+        AtomicInteger calls = new AtomicInteger();
+        CdmiConnector connector = new CdmiConnector(RequestFactory.newCdmiFactory(
+                URI.create("http://mock:80"), "1.0.1"), scriptedClient(script, calls),
+                new RetryStrategy(3, 1, 1000), false);
+
+        script.add(new ConnectTimeoutException());
+        script.add(newResponse(HttpStatus.SC_SERVICE_UNAVAILABLE));
+        script.add(newResponse(HttpStatus.SC_NO_CONTENT));
+        Assert.assertEquals(HttpStatus.SC_NO_CONTENT, connector.delete("/foo")
+                .getStatusLine().getStatusCode());
+        Assert.assertEquals(3, calls.getAndSet(0));
+
+        script.add(newResponse(HttpStatus.SC_NOT_FOUND));
+        Assert.assertEquals(HttpStatus.SC_NOT_FOUND, connector.delete("/foo")
+                .getStatusLine().getStatusCode());
+        Assert.assertEquals(1, calls.getAndSet(0));
+
+        for (int i = 0; i < 3; ++i) {
+            script.add(newResponse(HttpStatus.SC_SERVICE_UNAVAILABLE));
+        }
+        Assert.assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, connector.delete("/foo")
+                .getStatusLine().getStatusCode());
+        Assert.assertEquals(3, calls.getAndSet(0));
+
+        for (int i = 0; i < 3; ++i) {
+            script.add(newResponse(HttpStatus.SC_INTERNAL_SERVER_ERROR));
+        }
+        try {
+            connector.readMetadata("/foo", new String[] { "objectID" });
+            Assert.fail();
+        } catch (CdmiConnectionException e) {
+            Assert.assertEquals(3, calls.getAndSet(0));
+        }
+
+        // A DELETE may have been applied before the server failed.
+        script.add(newResponse(HttpStatus.SC_INTERNAL_SERVER_ERROR));
+        try {
+            connector.delete("/foo");
+            Assert.fail();
+        } catch (CdmiConnectionException e) {
+            Assert.assertEquals(1, calls.getAndSet(0));
+        }
+
+        connector.setRetryPolicy(new BackoffRetryPolicy(3, 0, 0, new RetryBudget(0, 1)));
+        for (int i = 0; i < 3; ++i) {
+            script.add(new ConnectTimeoutException());
+        }
+        try {
+            connector.delete("/foo");
+            Assert.fail();
+        } catch (CdmiConnectionException e) {
+            Assert.assertEquals(2, calls.getAndSet(0));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.connector;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the reuse and the byte budget of the {@link CdmiBufferPool}.
+ */
+public class CdmiBufferPoolTest {
+
+    @Test
+    public void testReuse() throws InterruptedException {
+        CdmiBufferPool pool = new CdmiBufferPool(1024, 4096, false);
+        Assert.assertEquals(4, pool.getMaxBuffers());
+        ByteBuffer buffer = pool.acquire();
+        Assert.assertEquals(1024, buffer.capacity());
+        buffer.put((byte) 1);
+        pool.release(buffer);
+        ByteBuffer reused = pool.acquire();
+        Assert.assertSame(buffer, reused);
+        Assert.assertEquals(0, reused.position());
+        Assert.assertEquals(1024, reused.limit());
+        pool.release(reused);
+        Assert.assertEquals(0, pool.getBuffersInUse());
+    }
+
+    @Test
+    public void testDirect() throws InterruptedException {
+        CdmiBufferPool pool = new CdmiBufferPool(1024, 0, true);
+        Assert.assertEquals(1, pool.getMaxBuffers());
+        Assert.assertTrue(pool.acquire().isDirect());
+    }
+
+    @Test
+    public void testSizeClasses() throws InterruptedException {
+        CdmiBufferPool pool = new CdmiBufferPool(65536, 65536, false);
+        Assert.assertEquals(4096, pool.getClassSize(1));
+        Assert.assertEquals(8192, pool.getClassSize(5000));
+        Assert.assertEquals(8192, pool.getClassSize(8192));
+        Assert.assertEquals(65536, pool.getClassSize(40000));
+        ByteBuffer small = pool.acquire(5000);
+        Assert.assertEquals(8192, small.capacity());
+        Assert.assertEquals(5000, small.limit());
+        Assert.assertEquals(8192, pool.getBytesInUse());
+        pool.release(small);
+        Assert.assertSame(small, pool.acquire(6000));
+        Assert.assertEquals(6000, small.limit());
+        pool.release(small);
+
+        // A full-size buffer does not fit with the idle small one.
+        ByteBuffer large = pool.acquire();
+        Assert.assertEquals(65536, large.capacity());
+        pool.release(large);
+        Assert.assertNotSame(small, pool.acquire(5000));
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        final CdmiBufferPool pool = new CdmiBufferPool(1024, 2048, false);
+        ByteBuffer first = pool.acquire();
+        pool.acquire();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<ByteBuffer> blocked = executor.submit(new Callable<ByteBuffer>() {
+                @Override
+                public ByteBuffer call() throws InterruptedException {
+                    return pool.acquire();
+                }
+            });
+            try {
+                blocked.get(100, TimeUnit.MILLISECONDS);
+                Assert.fail("The budget should be exhausted");
+            } catch (TimeoutException e) {
+                // Expected.
+            }
+            pool.release(first);
+            Assert.assertSame(first, blocked.get(1, TimeUnit.SECONDS));
+            Assert.assertEquals(2, pool.getBuffersInUse());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.connector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.scality.cdmi.api.CdmiAuthScope;
+import com.scality.cdmi.api.CdmiConnectionManager;
+import com.scality.cdmi.api.CdmiCredentials;
+import com.scality.cdmi.api.RequestFactory;
+import com.scality.cdmi.api.RetryStrategy;
+import com.scality.cdmi.impl.CdmiClientImpl;
+import com.scality.cdmi.mock.LocalCdmiServer;
+
+/**
+ * Test the {@link CdmiEndpointRouter} with several {@link LocalCdmiServer}.
+ */
+public class CdmiEndpointRouterTest {
+    private static final String KEY = "/object";
+
+    private List<LocalCdmiServer> servers;
+    private CdmiConnectionManager cm;
+    private CdmiClientImpl client;
+
+    @Before
+    public void setUp() throws Exception {
+        servers = new ArrayList<LocalCdmiServer>();
+        List<URI> endpoints = new ArrayList<URI>();
+        for (int i = 0; i < 3; ++i) {
+            LocalCdmiServer server = new LocalCdmiServer();
+            server.start();
+            server.putObject(KEY, new byte[] { (byte) i });
+            servers.add(server);
+            endpoints.add(server.getURI());
+        }
+        LocalCdmiServer first = servers.get(0);
+        cm = CdmiConnectionManager.newPooledConnectionManager(
+                RequestFactory.newCdmiFactory(first.getURI(), "1.0.1"),
+                new CdmiAuthScope("127.0.0.1", first.getPort()),
+                new CdmiCredentials("user", "password"), new RetryStrategy(3, 10,
+                        5000), 10, 8192, 1 << 20, 4);
+        client = (CdmiClientImpl) cm.getClient();
+        client.setEndpoints(endpoints,
+                CdmiEndpointRouter.Strategy.LEAST_OUTSTANDING);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.setEndpoints(null, null);
+        cm.shutdown();
+        for (LocalCdmiServer server : servers) {
+            server.stop();
+        }
+    }
+
+    private void read(int count) throws IOException {
+        for (int i = 0; i < count; ++i) {
+            Assert.assertEquals(1, client.getMetadata(KEY).getLength());
+        }
+    }
+
+    private void resetCounters() {
+        for (LocalCdmiServer server : servers) {
+            server.resetCounters();
+        }
+    }
+
+    /**
+     * Test that idle endpoints share the requests.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testLeastOutstanding() throws IOException {
+        read(30);
+        for (LocalCdmiServer server : servers) {
+            Assert.assertEquals(10, server.getRequestCount());
+        }
+        for (CdmiEndpointRouter.Endpoint endpoint : client.getRouter().getEndpoints()) {
+            Assert.assertEquals(10, endpoint.getRequests());
+            Assert.assertEquals(0, endpoint.getOutstanding());
+            Assert.assertTrue(endpoint.isAvailable());
+        }
+    }
+
+    private int outstanding() {
+        int outstanding = 0;
+        for (CdmiEndpointRouter.Endpoint endpoint : client.getRouter().getEndpoints()) {
+            outstanding += endpoint.getOutstanding();
+        }
+        return outstanding;
+    }
+
+    /**
+     * Test that a request stays outstanding until its body is consumed.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testOutstandingBody() throws IOException {
+        for (LocalCdmiServer server : servers) {
+            server.putObject(KEY + ".large", new byte[100000]);
+        }
+        InputStream in = client.open(KEY + ".large");
+        Assert.assertEquals(0, outstanding());
+        Assert.assertEquals(0, in.read());
+        Assert.assertEquals(1, outstanding());
+        in.close();
+        Assert.assertEquals(0, outstanding());
+
+        in = client.open(KEY + ".large");
+        Assert.assertEquals(100000, in.skip(100000));
+        Assert.assertEquals(-1, in.read());
+        Assert.assertEquals(0, outstanding());
+        in.close();
+        Assert.assertEquals(0, outstanding());
+    }
+
+    /**
+     * Test that the latency strategy avoids a slow endpoint.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testLatency() throws IOException {
+        client.setEndpoints(uris(), CdmiEndpointRouter.Strategy.LATENCY);
+        servers.get(1).setLatency(30);
+        read(40);
+        Assert.assertTrue(servers.get(1).getRequestCount() <= 2);
+        Assert.assertEquals(40, servers.get(0).getRequestCount()
+                + servers.get(1).getRequestCount() + servers.get(2).getRequestCount());
+        Assert.assertTrue(client.getRouter().getEndpoints().get(1).getLatencyMillis() >= 30);
+    }
+
+    /**
+     * Test that a failing endpoint is ejected, then probed back in.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testEjection() throws Exception {
+        client.getRouter().setCircuitBreaker(2, 50, 200);
+        LocalCdmiServer failing = servers.get(2);
+        CdmiEndpointRouter.Endpoint endpoint = client.getRouter().getEndpoints().get(2);
+        failing.setErrorRate(1, 503);
+        read(30);
+        Assert.assertFalse(endpoint.isAvailable());
+        Assert.assertEquals(1, endpoint.getEjections());
+        Assert.assertEquals(2, endpoint.getErrors());
+
+        // Still failing probes.
+        Thread.sleep(150);
+        Assert.assertFalse(endpoint.isAvailable());
+        failing.setErrorRate(0, 503);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!endpoint.isAvailable() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(endpoint.isAvailable());
+        resetCounters();
+        read(30);
+        Assert.assertTrue(failing.getRequestCount() > 0);
+        Assert.assertEquals(1, endpoint.getEjections());
+    }
+
+    /**
+     * Test that a throttling endpoint is retried but never ejected.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testThrottledNotEjected() throws IOException {
+        client.getRouter().setCircuitBreaker(2, 60000, 60000);
+        LocalCdmiServer throttling = servers.get(2);
+        CdmiEndpointRouter.Endpoint endpoint = client.getRouter().getEndpoints().get(2);
+        throttling.setErrorRate(1, 429);
+        read(30);
+        Assert.assertTrue(throttling.getRequestCount() > 0);
+        Assert.assertTrue(endpoint.isAvailable());
+        Assert.assertEquals(0, endpoint.getEjections());
+        Assert.assertEquals(0, endpoint.getErrors());
+    }
+
+    /**
+     * Test that requests still go through when all the endpoints fail.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testAllEjected() throws IOException {
+        client.getRouter().setCircuitBreaker(1, 60000, 60000);
+        for (LocalCdmiServer server : servers) {
+            server.setErrorRate(1, 503);
+        }
+        try {
+            read(1);
+            Assert.fail("All the endpoints are failing");
+        } catch (IOException e) {
+            // Expected.
+        }
+        for (CdmiEndpointRouter.Endpoint endpoint : client.getRouter().getEndpoints()) {
+            Assert.assertFalse(endpoint.isAvailable());
+        }
+        for (LocalCdmiServer server : servers) {
+            server.setErrorRate(0, 503);
+        }
+        read(3);
+    }
+
+    private List<URI> uris() {
+        List<URI> endpoints = new ArrayList<URI>();
+        for (LocalCdmiServer server : servers) {
+            endpoints.add(server.getURI());
+        }
+        return endpoints;
+    }
+}
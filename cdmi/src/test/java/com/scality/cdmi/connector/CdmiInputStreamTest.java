@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.connector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.InputStreamEntity;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.scality.cdmi.api.CdmiConnectionException;
+import com.scality.cdmi.impl.metadata.CdmiMetadataReader;
+import com.scality.cdmi.mock.MockCdmiConnector;
+
+/**
+ * Test the {@link CdmiInputStream} against an in-memory connector.
+ */
+public class CdmiInputStreamTest {
+    private static final String PATH = "/testdirs/foo.bin";
+    private byte[] contents;
+
+    @Before
+    public void setUp() throws Exception {
+        contents = new byte[100000];
+        new Random(42).nextBytes(contents);
+    }
+
+    private byte[] readAll(InputStream in, int bufferSize) throws IOException {
+        byte[] result = new byte[contents.length];
+        byte[] buffer = new byte[bufferSize];
+        int pos = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            System.arraycopy(buffer, 0, result, pos, read);
+            pos += read;
+        }
+        Assert.assertEquals(contents.length, pos);
+        return result;
+    }
+
+    /**
+     * Test that read-ahead returns the contents in order and uses several
+     * concurrent requests.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testReadAhead() throws IOException {
+        MockCdmiConnector connector = new MockCdmiConnector(true, 20);
+        connector.putObject(PATH, contents);
+        CdmiInputStream in = new CdmiInputStream(PATH, connector, 0, -1, 4096, 4);
+        Assert.assertArrayEquals(contents, readAll(in, 1000));
+        in.close();
+        Assert.assertTrue(connector.getMaxInflight() > 1);
+    }
+
+    /**
+     * Test that read-ahead is disabled with a single threaded connector.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testReadAheadSingleThreaded() throws IOException {
+        MockCdmiConnector connector = new MockCdmiConnector(false, 0);
+        connector.putObject(PATH, contents);
+        CdmiInputStream in = new CdmiInputStream(PATH, connector, 0, -1, 4096, 4);
+        Assert.assertArrayEquals(contents, readAll(in, 1000));
+        in.close();
+        Assert.assertEquals(1, connector.getMaxInflight());
+    }
+
+    /**
+     * Test skipping inside and outside of the current window.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testReadAheadSkip() throws IOException {
+        MockCdmiConnector connector = new MockCdmiConnector(true, 0);
+        connector.putObject(PATH, contents);
+        CdmiInputStream in = new CdmiInputStream(PATH, connector, 10, 50000, 4096, 3);
+        Assert.assertEquals(contents[10] & 0xff, in.read());
+        Assert.assertEquals(100, in.skip(100));
+        Assert.assertEquals(contents[111] & 0xff, in.read());
+        Assert.assertEquals(20000, in.skip(20000));
+        Assert.assertEquals(contents[20112] & 0xff, in.read());
+        Assert.assertEquals(50000 - 20103, in.skip(100000));
+        Assert.assertEquals(-1, in.read());
+        in.close();
+    }
+
+    /**
+     * Test reading from an object ID, when the size of the data object is not
+     * known in advance.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testFromObjectID() throws IOException {
+        MockCdmiConnector connector = new MockCdmiConnector(true, 0);
+        connector.putObject(PATH, contents);
+        String objectID = new CdmiMetadataReader(connector).readMetadata(PATH).getObjectID();
+
+        CdmiInputStream in = CdmiInputStream.fromObjectID(objectID, connector, 0, -1, 0, 0);
+        Assert.assertEquals(0, in.available());
+        Assert.assertArrayEquals(contents, readAll(in, 1000));
+        in.close();
+
+        in = CdmiInputStream.fromObjectID(objectID, connector, 0, -1, 4096, 4);
+        Assert.assertArrayEquals(contents, readAll(in, 1000));
+        in.close();
+
+        in = CdmiInputStream.fromObjectID(objectID, connector, contents.length - 1, -1, 4096, 4);
+        Assert.assertEquals(contents[contents.length - 1] & 0xff, in.read());
+        Assert.assertEquals(-1, in.read());
+        in.close();
+
+        in = CdmiInputStream.fromObjectID(objectID, connector, contents.length, -1, 0, 0);
+        Assert.assertEquals(-1, in.read());
+        in.close();
+    }
+
+    /**
+     * A response body which blocks until its connection is aborted.
+     */
+    private static class StalledStream extends InputStream implements
+            ConnectionReleaseTrigger {
+        private final CountDownLatch aborted = new CountDownLatch(1);
+
+        @Override
+        public int read() throws IOException {
+            try {
+                aborted.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("Connection aborted");
+        }
+
+        @Override
+        public void abortConnection() {
+            aborted.countDown();
+        }
+
+        @Override
+        public void releaseConnection() {
+        }
+    }
+
+    /**
+     * Test that a seek aborts the windows being read, which are fetched on
+     * daemon threads when the stream has no executor.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testReadAheadAbort() throws Exception {
+        final List<StalledStream> stalled = Collections
+                .synchronizedList(new ArrayList<StalledStream>());
+        final AtomicInteger daemons = new AtomicInteger();
+        MockCdmiConnector connector = new MockCdmiConnector(true, 0) {
+            @Override
+            public HttpResponse readObjectNonCdmi(String dataObjectPath, long offset,
+                    long length) throws CdmiConnectionException {
+                HttpResponse response = super.readObjectNonCdmi(dataObjectPath, offset,
+                        length);
+                if (Thread.currentThread().isDaemon()) {
+                    daemons.incrementAndGet();
+                }
+                if (offset > 0 && offset < 20000) {
+                    StalledStream body = new StalledStream();
+                    stalled.add(body);
+                    response.setEntity(new InputStreamEntity(body, length));
+                }
+                return response;
+            }
+        };
+        connector.putObject(PATH, contents);
+        CdmiInputStream in = new CdmiInputStream(PATH, connector, 0, -1, 4096, 4);
+        long start = System.currentTimeMillis();
+        Assert.assertEquals(contents[0] & 0xff, in.read());
+        long end = System.currentTimeMillis() + 5000;
+        while (stalled.size() < 4 && System.currentTimeMillis() < end) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(4, stalled.size());
+        Assert.assertEquals(50000, in.skip(50000));
+        for (StalledStream body : stalled) {
+            Assert.assertTrue(body.aborted.await(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(contents[50001] & 0xff, in.read());
+        in.close();
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        Assert.assertTrue(daemons.get() > 0);
+    }
+}
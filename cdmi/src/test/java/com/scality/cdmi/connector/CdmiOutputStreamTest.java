@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.connector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.scality.cdmi.api.CdmiConnectionException;
+import com.scality.cdmi.mock.MockCdmiConnector;
+
+/**
+ * Test the {@link CdmiOutputStream} against an in-memory connector.
+ */
+public class CdmiOutputStreamTest {
+    private static final String PATH = "/testdirs/foo.bin";
+    private byte[] contents;
+    private MockCdmiConnector connector;
+
+    @Before
+    public void setUp() throws Exception {
+        contents = new byte[100000];
+        new Random(42).nextBytes(contents);
+        connector = new MockCdmiConnector(true, 10);
+        connector.putObject(PATH, new byte[0]);
+    }
+
+    private void writeAll(OutputStream out, int bufferSize) throws IOException {
+        for (int offset = 0; offset < contents.length; offset += bufferSize) {
+            out.write(contents, offset, Math.min(bufferSize, contents.length - offset));
+        }
+    }
+
+    /**
+     * Test that the parts of a stream are written in place.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testWrite() throws IOException {
+        CdmiOutputStream out = new CdmiOutputStream(PATH, 0, connector, 4096, 4);
+        writeAll(out, 1000);
+        out.close();
+        Assert.assertArrayEquals(contents, connector.getObject(PATH));
+        Assert.assertTrue(connector.getMaxInflight() > 1);
+    }
+
+    /**
+     * Test that pooled buffers are reused by concurrent streams and all given
+     * back once the streams are closed.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testBufferPool() throws IOException {
+        CdmiBufferPool pool = new CdmiBufferPool(4096, 3 * 4096, true);
+        connector.setBufferPool(pool);
+        connector.putObject(PATH + ".1", new byte[0]);
+        CdmiOutputStream out = new CdmiOutputStream(PATH, 0, connector, 4096, 4);
+        CdmiOutputStream out1 = new CdmiOutputStream(PATH + ".1", 0, connector, 4096, 4);
+        for (int offset = 0; offset < contents.length; offset += 1000) {
+            int length = Math.min(1000, contents.length - offset);
+            out.write(contents, offset, length);
+            out1.write(contents, offset, length);
+        }
+        out.flush();
+        Assert.assertEquals(1, pool.getBuffersInUse());
+        out.close();
+        out1.close();
+        Assert.assertEquals(0, pool.getBuffersInUse());
+        Assert.assertArrayEquals(contents, connector.getObject(PATH));
+        Assert.assertArrayEquals(contents, connector.getObject(PATH + ".1"));
+    }
+
+    /**
+     * Test that the error of a part sent in the background is reported by the
+     * next operations on the stream.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testPartFailure() throws IOException {
+        CdmiOutputStream out = CdmiOutputStream.fromObjectID("deadbeef", null, 0, connector,
+                4096, 4);
+        try {
+            writeAll(out, 1000);
+            out.flush();
+            Assert.fail("The parts should have failed");
+        } catch (CdmiConnectionException e) {
+            // Expected.
+        }
+        try {
+            out.write(0);
+            Assert.fail("The stream should remain failed");
+        } catch (CdmiConnectionException e) {
+            // Expected.
+        }
+        try {
+            out.close();
+            Assert.fail("The stream should remain failed");
+        } catch (CdmiConnectionException e) {
+            // Expected.
+        }
+        // Already closed.
+        out.close();
+    }
+
+    /**
+     * Test closing a stream without waiting for its parts.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testCloseAsync() throws Exception {
+        CdmiOutputStream out = new CdmiOutputStream(PATH, 0, connector, 4096, 4);
+        writeAll(out, 1000);
+        Future<Void> closing = out.closeAsync();
+        Assert.assertNull(closing.get());
+        Assert.assertArrayEquals(contents, connector.getObject(PATH));
+
+        out = CdmiOutputStream.fromObjectID("deadbeef", null, 0, connector, 4096, 4);
+        out.write(contents, 0, 100);
+        try {
+            out.closeAsync().get();
+            Assert.fail("The part should have failed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof CdmiConnectionException);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.connector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.scality.cdmi.api.CdmiConnectionException;
+import com.scality.cdmi.mock.MockCdmiConnector;
+
+/**
+ * Test the {@link CdmiPartSizer} and its use by the {@link CdmiOutputStream}.
+ */
+public class CdmiPartSizerTest {
+    private static final String PATH = "/testdirs/foo.bin";
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Test that the parts grow while they are fast, up to the maximum size.
+     */
+    @Test
+    public void testGrow() {
+        CdmiPartSizer sizer = new CdmiPartSizer(1024, 8192, 512, 100);
+        Assert.assertEquals(1024, sizer.getPartSize());
+        sizer.record(1024, 10 * MILLIS);
+        Assert.assertEquals(2048, sizer.getPartSize());
+        sizer.record(2048, 20 * MILLIS);
+        Assert.assertEquals(4096, sizer.getPartSize());
+        sizer.record(4096, 40 * MILLIS);
+        sizer.record(8192, 80 * MILLIS);
+        Assert.assertEquals(8192, sizer.getPartSize());
+    }
+
+    /**
+     * Test that the parts shrink when they are slow, down to the minimum size.
+     */
+    @Test
+    public void testShrink() {
+        CdmiPartSizer sizer = new CdmiPartSizer(1024, 8192, 512, 100);
+        sizer.record(1024, MILLIS);
+        sizer.record(2048, 2 * MILLIS);
+        sizer.record(4096, 4 * MILLIS);
+        Assert.assertEquals(8192, sizer.getPartSize());
+        // Throughput drop, within the target duration.
+        sizer.record(8192, 50 * MILLIS);
+        Assert.assertEquals(4096, sizer.getPartSize());
+        // Slower than twice the target duration.
+        sizer.record(4096, 300 * MILLIS);
+        sizer.record(2048, 300 * MILLIS);
+        sizer.record(1024, 300 * MILLIS);
+        Assert.assertEquals(1024, sizer.getPartSize());
+    }
+
+    /**
+     * Test that the parts keep their size within the target duration, and
+     * that small parts are ignored.
+     */
+    @Test
+    public void testStable() {
+        CdmiPartSizer sizer = new CdmiPartSizer(1024, 8192, 512, 100);
+        sizer.record(1024, 150 * MILLIS);
+        Assert.assertEquals(1024, sizer.getPartSize());
+        sizer.record(100, 1000 * MILLIS);
+        sizer.record(100, MILLIS);
+        Assert.assertEquals(1024, sizer.getPartSize());
+    }
+
+    /**
+     * Test that the bounds and parts are aligned.
+     */
+    @Test
+    public void testAlignment() {
+        CdmiPartSizer sizer = new CdmiPartSizer(1000, 5000, 512, 100);
+        Assert.assertEquals(512, sizer.getMinPartSize());
+        Assert.assertEquals(4608, sizer.getMaxPartSize());
+        Assert.assertEquals(512, sizer.getPartSize(0));
+        Assert.assertEquals(412, sizer.getPartSize(100));
+        Assert.assertEquals(512, sizer.getPartSize(1024));
+        for (int i = 0; i < 5; i++) {
+            sizer.record(sizer.getPartSize(), MILLIS);
+            Assert.assertEquals(0, sizer.getPartSize() % 512);
+        }
+        Assert.assertEquals(4608, sizer.getPartSize());
+
+        CdmiPartSizer copy = new CdmiPartSizer(sizer);
+        Assert.assertEquals(512, copy.getPartSize());
+        Assert.assertEquals(4608, copy.getMaxPartSize());
+    }
+
+    /**
+     * Test that a stream sends larger and aligned parts with an adaptive size.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testStream() throws IOException {
+        testStream(true, 0);
+        testStream(false, 700);
+    }
+
+    private void testStream(boolean multiThreaded, long start) throws IOException {
+        byte[] contents = new byte[100000];
+        new Random(42).nextBytes(contents);
+        final List<long[]> parts = new ArrayList<long[]>();
+        MockCdmiConnector connector = new MockCdmiConnector(multiThreaded, 1) {
+            @Override
+            public HttpResponse updateObjectNonCdmi(String dataObjectPath,
+                    long offset, long length, byte[] data)
+                    throws CdmiConnectionException {
+                synchronized (parts) {
+                    parts.add(new long[] { offset, length });
+                }
+                return super.updateObjectNonCdmi(dataObjectPath, offset,
+                        length, data);
+            }
+        };
+        connector.putObject(PATH, new byte[(int) start]);
+        connector.setPartSizer(new CdmiPartSizer(1024, 16384, 512, 1000));
+
+        CdmiOutputStream out = new CdmiOutputStream(PATH, start, connector,
+                1024, 4);
+        for (int offset = 0; offset < contents.length; offset += 100) {
+            out.write(contents, offset, Math.min(100, contents.length - offset));
+        }
+        out.close();
+
+        byte[] stored = connector.getObject(PATH);
+        Assert.assertEquals(start + contents.length, stored.length);
+        for (int i = 0; i < contents.length; i++) {
+            Assert.assertEquals(contents[i], stored[(int) start + i]);
+        }
+        // The parts grow after the first one, whatever the timings.
+        Assert.assertTrue("parts: " + parts.size(), parts.size() < 98);
+        long end = start + contents.length;
+        long largest = 0;
+        for (long[] part : parts) {
+            largest = Math.max(largest, part[1]);
+            Assert.assertTrue(part[1] <= 16384);
+            if (part[0] + part[1] != end) {
+                Assert.assertEquals(0, (part[0] + part[1]) % 512);
+            }
+        }
+        Assert.assertTrue("largest part: " + largest, largest > 1024);
+    }
+
+    /**
+     * Test that a single-threaded stream whose parts outgrow its buffer takes
+     * the larger buffers from the pool and gives them all back.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testPooledStream() throws IOException {
+        MockCdmiConnector connector = new MockCdmiConnector(false, 0);
+        connector.putObject(PATH, new byte[0]);
+        CdmiBufferPool pool = new CdmiBufferPool(1 << 20, 4 << 20, true);
+        connector.setBufferPool(pool);
+        connector.setPartSizer(new CdmiPartSizer(4096, 1 << 20, 4096, 1000));
+
+        CdmiOutputStream out = new CdmiOutputStream(PATH, 0, connector,
+                1 << 20, 1);
+        byte[] data = new byte[65536];
+        for (int i = 0; i < 64; ++i) {
+            out.write(data);
+        }
+        out.close();
+        Assert.assertEquals(64 * 65536, connector.getObject(PATH).length);
+        Assert.assertEquals(0, pool.getBuffersInUse());
+        Assert.assertEquals(0, pool.getBytesInUse());
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.connector;
+
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.scality.cdmi.api.RequestFactory;
+import com.scality.cdmi.api.RetryStrategy;
+
+/**
+ * Test the {@link CdmiRequestHedger} and the hedged reads of the
+ * {@link CdmiConnector}.
+ */
+public class CdmiRequestHedgerTest {
+
+    /**
+     * A client answering each request with its number after the given
+     * latency, the first requests being slow. Aborted requests fail like
+     * they do with a real client.
+     */
+    private static HttpClient slowClient(final AtomicInteger calls, final int slowCalls,
+            final long slowMillis, final AtomicInteger aborted) {
+        return (HttpClient) Proxy.newProxyInstance(HttpClient.class.getClassLoader(),
+                new Class<?>[] { HttpClient.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        int call = calls.incrementAndGet();
+                        HttpRequestBase request = (HttpRequestBase) args[args.length - 1];
+                        if (call <= slowCalls) {
+                            long end = System.currentTimeMillis() + slowMillis;
+                            while (!request.isAborted() && System.currentTimeMillis() < end) {
+                                Thread.sleep(5);
+                            }
+                            if (request.isAborted()) {
+                                aborted.incrementAndGet();
+                                throw new InterruptedIOException("Connection shut down");
+                            }
+                        }
+                        HttpResponse response = new BasicHttpResponse(new BasicStatusLine(
+                                HttpVersion.HTTP_1_1, HttpStatus.SC_OK, null));
+                        response.setEntity(new StringEntity(Integer.toString(call)));
+                        return response;
+                    }
+                });
+    }
+
+    /**
+     * Test that the delay follows the percentile of the observed latencies,
+     * within its bounds.
+     */
+    @Test
+    public void testDelay() {
+        CdmiRequestHedger hedger = new CdmiRequestHedger(0.9, 5, 1000);
+        Assert.assertEquals(1000, hedger.getDelayMillis("readObjectNonCdmi"));
+        for (int i = 1; i <= 128; ++i) {
+            hedger.record("readObjectNonCdmi", i);
+            hedger.record("readMetadata", 1);
+        }
+        Assert.assertEquals(116, hedger.getDelayMillis("readObjectNonCdmi"));
+        Assert.assertEquals(5, hedger.getDelayMillis("readMetadata"));
+        for (int i = 0; i < 128; ++i) {
+            hedger.record("readObjectNonCdmi", 5000);
+        }
+        Assert.assertEquals(1000, hedger.getDelayMillis("readObjectNonCdmi"));
+        hedger.shutdown();
+    }
+
+    /**
+     * Test that a slow read is hedged, the copy answers first and the slow
+     * request is aborted.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testHedgedRead() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        AtomicInteger aborted = new AtomicInteger();
+        CdmiConnector connector = new CdmiConnector(RequestFactory.newCdmiFactory(
+                URI.create("http://mock:80"), "1.0.1"), slowClient(calls, 1, 5000, aborted),
+                new RetryStrategy(), true);
+        CdmiRequestHedger hedger = new CdmiRequestHedger(0.95, 10, 50);
+        connector.setHedger(hedger);
+
+        long start = System.currentTimeMillis();
+        HttpResponse response = connector.readObjectNonCdmi("/foo", 0, 10);
+        Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+        Assert.assertEquals("2", EntityUtils.toString(response.getEntity()));
+        Assert.assertEquals(1, hedger.getHedges());
+        long end = System.currentTimeMillis() + 2000;
+        while (aborted.get() == 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(1, aborted.get());
+
+        // Fast reads are not hedged.
+        response = connector.readMetadata("/foo", new String[] { "objectID" });
+        Assert.assertEquals("3", EntityUtils.toString(response.getEntity()));
+        Assert.assertEquals(1, hedger.getHedges());
+        Assert.assertEquals(2, hedger.getRequests());
+        Assert.assertEquals(3, calls.get());
+        hedger.shutdown();
+    }
+
+    /**
+     * Test that writes and single-threaded connectors are never hedged.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testNotHedged() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        AtomicInteger aborted = new AtomicInteger();
+        CdmiConnector connector = new CdmiConnector(RequestFactory.newCdmiFactory(
+                URI.create("http://mock:80"), "1.0.1"), slowClient(calls, 2, 100, aborted),
+                new RetryStrategy(), false);
+        CdmiRequestHedger hedger = new CdmiRequestHedger(0.95, 1, 1);
+        connector.setHedger(hedger);
+        EntityUtils.consume(connector.readObjectNonCdmi("/foo", 0, 10).getEntity());
+
+        connector = new CdmiConnector(RequestFactory.newCdmiFactory(
+                URI.create("http://mock:80"), "1.0.1"), slowClient(calls, 4, 100, aborted),
+                new RetryStrategy(), true);
+        connector.setHedger(hedger);
+        EntityUtils.consume(connector.delete("/foo").getEntity());
+        Assert.assertEquals(2, calls.get());
+        Assert.assertEquals(0, hedger.getHedges());
+        Assert.assertEquals(0, aborted.get());
+        hedger.shutdown();
+    }
+
+    /**
+     * Test that the latency of a hedged read is measured from its first
+     * attempt, and that the aborted request is not blamed on its endpoint.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testHedgedLatency() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        AtomicInteger aborted = new AtomicInteger();
+        CdmiConnector connector = new CdmiConnector(RequestFactory.newCdmiFactory(
+                URI.create("http://mock:80"), "1.0.1"), slowClient(calls, 1, 5000, aborted),
+                new RetryStrategy(), true);
+        final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+        CdmiRequestHedger hedger = new CdmiRequestHedger(0.95, 100, 100) {
+            @Override
+            public void record(String operation, long latencyMillis) {
+                latencies.add(latencyMillis);
+                super.record(operation, latencyMillis);
+            }
+        };
+        connector.setHedger(hedger);
+        CdmiEndpointRouter router = new CdmiEndpointRouter(
+                Collections.singletonList(URI.create("http://mock:80")),
+                CdmiEndpointRouter.Strategy.LEAST_OUTSTANDING);
+        router.setCircuitBreaker(1, 1000, 1000);
+        connector.setRouter(router);
+
+        EntityUtils.consume(connector.readObjectNonCdmi("/foo", 0, 10).getEntity());
+        Assert.assertEquals(1, hedger.getHedges());
+        Assert.assertEquals(1, latencies.size());
+        Assert.assertTrue(latencies.toString(), latencies.get(0) >= 100);
+
+        long end = System.currentTimeMillis() + 2000;
+        while (aborted.get() == 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(50);
+        CdmiEndpointRouter.Endpoint endpoint = router.getEndpoints().get(0);
+        Assert.assertEquals(0, endpoint.getErrors());
+        Assert.assertEquals(0, endpoint.getOutstanding());
+        Assert.assertTrue(endpoint.isAvailable());
+        Assert.assertEquals(2, calls.get());
+        router.shutdown();
+        hedger.shutdown();
+    }
+
+    /**
+     * Test that the hedges are limited by their budget.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testBudget() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        AtomicInteger aborted = new AtomicInteger();
+        CdmiRequestHedger hedger = new CdmiRequestHedger(0.95, 10, 10);
+        hedger.setBudget(0, 1);
+        CdmiConnector connector = new CdmiConnector(RequestFactory.newCdmiFactory(
+                URI.create("http://mock:80"), "1.0.1"), slowClient(calls, 1, 5000, aborted),
+                new RetryStrategy(), true);
+        connector.setHedger(hedger);
+        EntityUtils.consume(connector.readObjectNonCdmi("/foo", 0, 10).getEntity());
+        Assert.assertEquals(1, hedger.getHedges());
+
+        // The budget is spent: a slow read waits for its only answer.
+        AtomicInteger slowCalls = new AtomicInteger();
+        connector = new CdmiConnector(RequestFactory.newCdmiFactory(
+                URI.create("http://mock:80"), "1.0.1"), slowClient(slowCalls, 1, 200, aborted),
+                new RetryStrategy(), true);
+        connector.setHedger(hedger);
+        long start = System.currentTimeMillis();
+        HttpResponse response = connector.readObjectNonCdmi("/foo", 0, 10);
+        Assert.assertTrue(System.currentTimeMillis() - start >= 200);
+        Assert.assertEquals("1", EntityUtils.toString(response.getEntity()));
+        Assert.assertEquals(1, hedger.getHedges());
+        Assert.assertEquals(2, hedger.getRequests());
+        Assert.assertEquals(1, slowCalls.get());
+        hedger.shutdown();
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.impl;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.http.HttpResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.scality.cdmi.api.CdmiConnectionException;
+import com.scality.cdmi.mock.MockCdmiConnector;
+
+/**
+ * Test the transfer paths of {@link CdmiClientImpl} against an in-memory
+ * connector.
+ */
+public class CdmiClientImplTest {
+    private static final String PATH = "/testdirs/foo.bin";
+    private MockCdmiConnector connector;
+    private CdmiClientImpl client;
+    private byte[] contents;
+    private File localFile;
+
+    @Before
+    public void setUp() throws Exception {
+        connector = new MockCdmiConnector(true, 10);
+        client = new CdmiClientImpl(connector, 8192, 16384, 4);
+        contents = new byte[100003];
+        new Random(42).nextBytes(contents);
+        localFile = File.createTempFile("cdmi", ".local");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        localFile.delete();
+    }
+
+    private byte[] readLocalFile() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(localFile, "r");
+        byte[] result = new byte[(int) file.length()];
+        file.readFully(result);
+        file.close();
+        return result;
+    }
+
+    /**
+     * Test that a parallel download fetches all the parts concurrently and
+     * writes them at the right position.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testParallelGet() throws IOException {
+        connector.putObject(PATH, contents);
+        client.setParallelDownload(10000, 4);
+        Assert.assertTrue(client.get(PATH, localFile));
+        Assert.assertArrayEquals(contents, readLocalFile());
+        Assert.assertTrue(connector.getMaxInflight() > 1);
+    }
+
+    /**
+     * Test that the parallel operations share a bounded pool of threads, and
+     * still work in the calling thread once the client is shut down.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testSharedThreads() throws IOException {
+        connector.putObject(PATH, contents);
+        client.setMaxThreads(1);
+        client.setParallelDownload(10000, 8);
+        Assert.assertTrue(client.get(PATH, localFile));
+        Assert.assertArrayEquals(contents, readLocalFile());
+        // One shared thread and the calling thread.
+        Assert.assertEquals(2, connector.getMaxInflight());
+
+        client.shutdown();
+        localFile.delete();
+        Assert.assertTrue(client.get(PATH, localFile));
+        Assert.assertArrayEquals(contents, readLocalFile());
+    }
+
+    /**
+     * Test that a parallel download does not trust a cached size.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testParallelGetCachedSize() throws IOException {
+        connector.putObject(PATH, Arrays.copyOf(contents, 1000));
+        client.setMetadataCache(100, 60000);
+        Assert.assertEquals(1000, client.getMetadata(PATH).getLength());
+        // Rewritten by another client.
+        connector.putObject(PATH, contents);
+        client.setParallelDownload(10000, 4);
+        Assert.assertTrue(client.get(PATH, localFile));
+        Assert.assertArrayEquals(contents, readLocalFile());
+    }
+
+    /**
+     * Test a parallel download of an empty data object and of a missing one.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testParallelGetEmpty() throws IOException {
+        connector.putObject(PATH, new byte[0]);
+        client.setParallelDownload(10000, 4);
+        Assert.assertTrue(client.get(PATH, localFile));
+        Assert.assertEquals(0, localFile.length());
+        Assert.assertFalse(client.get(PATH + ".missing", localFile));
+    }
+
+    /**
+     * Test that a parallel upload sends all the regions of the file.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testParallelPut() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(localFile, "rw");
+        file.write(contents);
+        file.close();
+        client.setParallelUpload(10000, 4);
+        Assert.assertTrue(client.put(PATH, localFile));
+        Assert.assertArrayEquals(contents, connector.getObject(PATH));
+        Assert.assertTrue(connector.getMaxInflight() > 1);
+        Assert.assertFalse(client.put(PATH, localFile));
+    }
+
+    /**
+     * Test that the metadata cache saves round trips and is invalidated by
+     * writes.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testMetadataCache() throws IOException {
+        connector.putObject(PATH, contents);
+        client.setMetadataCache(100, 60000);
+        Assert.assertEquals(contents.length, client.getMetadata(PATH).getLength());
+        int requests = connector.getRequests();
+        Assert.assertTrue(client.exists(PATH));
+        Assert.assertEquals(contents.length, client.getMetadata(PATH).getLength());
+        client.open(PATH).close();
+        Assert.assertEquals(requests, connector.getRequests());
+        Assert.assertEquals(3, client.getMetadataCache().getHits());
+
+        OutputStream out = client.append(PATH);
+        out.write(new byte[] { 1, 2, 3 });
+        out.close();
+        Assert.assertEquals(contents.length + 3, client.getMetadata(PATH).getLength());
+    }
+
+    /**
+     * Test that reopening a data object uses its cached object ID, and that
+     * the cache follows moves and deletes.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testObjectIdCache() throws IOException {
+        connector.putObject(PATH, contents);
+        client.setObjectIdCache(100);
+        String objectID = client.getObjectID(PATH);
+        int requests = connector.getRequests();
+        InputStream in = client.open(PATH, 10, 100);
+        byte[] buffer = new byte[100];
+        Assert.assertEquals(100, in.read(buffer));
+        in.close();
+        Assert.assertEquals(requests + 1, connector.getRequests());
+        Assert.assertArrayEquals(Arrays.copyOfRange(contents, 10, 110), buffer);
+        Assert.assertEquals(objectID, client.getObjectID(PATH));
+        Assert.assertEquals(2, client.getObjectIdCache().getHits());
+
+        OutputStream out = client.writeObjectID(objectID, 0);
+        out.write(new byte[] { 1, 2, 3 });
+        out.close();
+        Assert.assertEquals(3, connector.getObject(PATH)[2]);
+
+        Assert.assertTrue(client.move(PATH, PATH + ".moved"));
+        Assert.assertEquals(objectID, client.getObjectIdCache().get(PATH + ".moved"));
+        Assert.assertNull(client.getObjectIdCache().get(PATH));
+        Assert.assertTrue(client.delete(PATH + ".moved", false));
+        Assert.assertEquals(0, client.getObjectIdCache().size());
+    }
+
+    /**
+     * Test that an object ID found stale because another client replaced the
+     * data object is dropped from the cache and resolved again, and that the
+     * entries expire.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testStaleObjectID() throws Exception {
+        connector.putObject(PATH, contents);
+        client.setObjectIdCache(100);
+        String objectID = client.getObjectID(PATH);
+
+        // Replaced by another client.
+        byte[] replaced = Arrays.copyOf(contents, 1000);
+        replaced[0] = (byte) ~contents[0];
+        connector.putObject(PATH, replaced);
+        InputStream in = client.open(PATH);
+        Assert.assertEquals(replaced[0] & 0xff, in.read());
+        in.close();
+        String newObjectID = client.getObjectIdCache().get(PATH);
+        Assert.assertNotNull(newObjectID);
+        Assert.assertFalse(objectID.equals(newObjectID));
+
+        connector.putObject(PATH, contents);
+        OutputStream out = client.write(PATH, 0);
+        out.write(new byte[] { 1, 2, 3 });
+        out.close();
+        Assert.assertEquals(3, connector.getObject(PATH)[2]);
+        Assert.assertFalse(newObjectID.equals(client.getObjectIdCache().get(PATH)));
+
+        // Deleted by another client.
+        connector.delete(PATH);
+        out = client.write(PATH, 0);
+        out.write(new byte[] { 1, 2, 3 });
+        try {
+            out.close();
+            Assert.fail("Deleted data object was written");
+        } catch (IOException e) {
+            // Expected.
+        }
+        Assert.assertNull(client.getObjectIdCache().get(PATH));
+
+        client.setObjectIdCache(100, 10);
+        connector.putObject(PATH, contents);
+        client.getObjectID(PATH);
+        Thread.sleep(20);
+        Assert.assertNull(client.getObjectIdCache().get(PATH));
+    }
+
+    /**
+     * Test that a small file is created in a single request, and that larger
+     * files are completed after the inline part.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testFastPut() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(localFile, "rw");
+        file.write(contents, 0, 1000);
+        file.close();
+        client.setFastCreate(4096);
+        Assert.assertTrue(client.put(PATH, localFile));
+        Assert.assertEquals(1, connector.getRequests());
+        Assert.assertArrayEquals(Arrays.copyOf(contents, 1000), connector.getObject(PATH));
+        Assert.assertFalse(client.put(PATH, localFile));
+
+        file = new RandomAccessFile(localFile, "rw");
+        file.write(contents);
+        file.close();
+        Assert.assertTrue(client.put(PATH + ".1", localFile));
+        Assert.assertArrayEquals(contents, connector.getObject(PATH + ".1"));
+
+        client.setParallelUpload(10000, 4);
+        Assert.assertTrue(client.put(PATH + ".2", localFile));
+        Assert.assertArrayEquals(contents, connector.getObject(PATH + ".2"));
+    }
+
+    /**
+     * Test that a file truncated after its inline part was sent fails instead
+     * of looping forever.
+     * 
+     * @throws IOException
+     */
+    @Test(timeout = 10000)
+    public void testFastPutTruncated() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(localFile, "rw");
+        file.write(contents);
+        file.close();
+        MockCdmiConnector truncating = new MockCdmiConnector(true, 0) {
+            @Override
+            public HttpResponse createObject(String dataObjectPath, byte[] data)
+                    throws CdmiConnectionException {
+                try {
+                    RandomAccessFile file = new RandomAccessFile(localFile, "rw");
+                    file.setLength(10);
+                    file.close();
+                } catch (IOException e) {
+                    throw new CdmiConnectionException(e);
+                }
+                return super.createObject(dataObjectPath, data);
+            }
+        };
+        CdmiClientImpl client = new CdmiClientImpl(truncating, 8192, 16384, 4);
+        client.setFastCreate(4096);
+        try {
+            client.put(PATH, localFile);
+            Assert.fail("Truncated file was uploaded");
+        } catch (EOFException e) {
+            // Expected.
+        }
+    }
+}
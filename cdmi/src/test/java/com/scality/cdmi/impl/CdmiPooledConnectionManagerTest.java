@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.impl;
+
+import java.io.IOException;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.scality.cdmi.api.CdmiAuthScope;
+import com.scality.cdmi.api.CdmiConnectionManager;
+import com.scality.cdmi.api.CdmiCredentials;
+import com.scality.cdmi.api.RequestFactory;
+import com.scality.cdmi.api.RetryStrategy;
+import com.scality.cdmi.mock.LocalCdmiServer;
+
+/**
+ * Test the connection pool settings of the
+ * {@link CdmiPooledConnectionManager} against {@link LocalCdmiServer}.
+ */
+public class CdmiPooledConnectionManagerTest {
+    private LocalCdmiServer server;
+    private LocalCdmiServer nonCdmiServer;
+    private CdmiPooledConnectionManager cm;
+    private PoolingClientConnectionManager pool;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalCdmiServer();
+        server.start();
+        server.putObject("/object", new byte[10]);
+        nonCdmiServer = new LocalCdmiServer();
+        nonCdmiServer.start();
+        cm = CdmiConnectionManager.newPooledConnectionManager(
+                RequestFactory.newCdmiFactory(server.getURI(), nonCdmiServer.getURI(),
+                        "1.0.1"), new CdmiAuthScope("127.0.0.1", server.getPort()),
+                new CdmiCredentials("user", "password"), new RetryStrategy(2, 10,
+                        5000), 10, 8192, 1 << 20, 4);
+        pool = (PoolingClientConnectionManager) cm.getHttpClient()
+                .getConnectionManager();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cm.shutdown();
+        server.stop();
+        nonCdmiServer.stop();
+    }
+
+    private static HttpRoute route(LocalCdmiServer server) {
+        return new HttpRoute(new HttpHost("127.0.0.1", server.getPort(), "http"),
+                null, false);
+    }
+
+    /**
+     * Test that connections are opened in advance and reused.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testWarmUp() throws IOException {
+        Assert.assertEquals(6, cm.warmUp(3));
+        Assert.assertEquals(3, pool.getStats(route(server)).getAvailable());
+        Assert.assertEquals(3, pool.getStats(route(nonCdmiServer)).getAvailable());
+        Assert.assertEquals(10, cm.getClient().getMetadata("/object").getLength());
+        Assert.assertEquals(3, pool.getStats(route(server)).getAvailable());
+        Assert.assertEquals(0, pool.getStats(route(server)).getLeased());
+        // Already open connections are kept.
+        Assert.assertEquals(6, cm.warmUp(3));
+        Assert.assertEquals(6, pool.getTotalStats().getAvailable());
+    }
+
+    /**
+     * Test that the warm up stays within the total limit, and leaves the pool
+     * usable right away.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testWarmUpTotal() throws IOException {
+        cm.setMaxTotal(5);
+        Assert.assertEquals(5, cm.getMaxTotal());
+        Assert.assertEquals(5, cm.warmUp(4));
+        Assert.assertEquals(5, pool.getTotalStats().getAvailable());
+        Assert.assertEquals(0, pool.getTotalStats().getLeased());
+        long start = System.currentTimeMillis();
+        Assert.assertEquals(10, cm.getClient().getMetadata("/object").getLength());
+        Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    /**
+     * Test that each host has its own limit.
+     */
+    @Test
+    public void testRouteLimits() {
+        cm.setRouteLimits(8, 4);
+        Assert.assertEquals(8, pool.getMaxPerRoute(route(server)));
+        Assert.assertEquals(4, pool.getMaxPerRoute(route(nonCdmiServer)));
+        Assert.assertEquals(12, pool.getMaxTotal());
+        Assert.assertEquals(12, cm.getMaxTotal());
+        Assert.assertEquals(12, cm.warmUp(20));
+        Assert.assertEquals(8, pool.getStats(route(server)).getAvailable());
+        Assert.assertEquals(4, pool.getStats(route(nonCdmiServer)).getAvailable());
+    }
+
+    /**
+     * Test that idle connections are closed in the background.
+     * 
+     * @throws InterruptedException
+     */
+    @Test
+    public void testIdleEviction() throws InterruptedException {
+        cm.setIdleEviction(100);
+        Assert.assertEquals(4, cm.warmUp(2));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getTotalStats().getAvailable() > 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(0, pool.getTotalStats().getAvailable());
+    }
+
+    /**
+     * Test that a read blocked longer than the socket timeout fails.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testSocketTimeout() throws Exception {
+        Assert.assertEquals(10, cm.getClient().getMetadata("/object").getLength());
+        cm.setSocketTimeout(200);
+        server.setLatency(500);
+        try {
+            cm.getClient().getMetadata("/object");
+            Assert.fail("The server is too slow");
+        } catch (IOException e) {
+            // Expected.
+        }
+        server.setLatency(0);
+        // Let the server finish the timed out requests.
+        Thread.sleep(500);
+        Assert.assertEquals(10, cm.getClient().getMetadata("/object").getLength());
+    }
+}
@@ -33,8 +33,14 @@
  */
 package com.scality.cdmi.impl;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Random;
 
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.HttpEntity;
 import org.apache.http.ParseException;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.util.EntityUtils;
@@ -133,6 +139,49 @@ public class CdmiPutRequestBuilderTest {
         Assert.assertEquals("baz", root.get("bar").getTextValue());
     }
     
+    /**
+     * Test that large binary contents are streamed with a known length, and
+     * encoded the same way by the entity stream and its output.
+     * 
+     * @throws CdmiConfigurationException
+     * @throws IOException
+     */
+    @Test
+    public void testStreamedBinaryContents() throws CdmiConfigurationException, IOException {
+        byte[] data = new byte[200001];
+        new Random(42).nextBytes(data);
+        File file = File.createTempFile("cdmi", ".bin");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(new byte[7]);
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            HttpPut[] puts = new HttpPut[] {
+                    newBuilder().addMetadata("bar", "baz").addContents(data).build(),
+                    newBuilder().addMetadata("bar", "baz")
+                            .addContents(file, 7, data.length).build() };
+            for (HttpPut put : puts) {
+                HttpEntity entity = put.getEntity();
+                Assert.assertTrue(entity.isRepeatable());
+                ByteArrayOutputStream written = new ByteArrayOutputStream();
+                entity.writeTo(written);
+                Assert.assertEquals(entity.getContentLength(), written.size());
+                String body = EntityUtils.toString(entity);
+                Assert.assertEquals(new String(written.toByteArray(), "UTF-8"), body);
+
+                JsonNode root = new ObjectMapper().readTree(body);
+                Assert.assertEquals("base64", root.get("valuetransferencoding").getTextValue());
+                Assert.assertEquals("baz", root.get("metadata").get("bar").getTextValue());
+                Assert.assertArrayEquals(data, Base64.decodeBase64(root.get("value").getTextValue()));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
     /**
      * Test that we can parse the headers after they were set.
      * 
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.impl;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.scality.cdmi.api.CdmiAuthScope;
+import com.scality.cdmi.api.CdmiConnectionManager;
+import com.scality.cdmi.api.CdmiCredentials;
+import com.scality.cdmi.api.CdmiVisitor;
+import com.scality.cdmi.api.FileMetadata;
+import com.scality.cdmi.api.RequestFactory;
+import com.scality.cdmi.api.RetryStrategy;
+import com.scality.cdmi.mock.LocalCdmiServer;
+
+/**
+ * Test {@link CdmiTreeWalker} against a {@link LocalCdmiServer}.
+ */
+public class CdmiTreeWalkerTest {
+    private static final String ROOT = "/tree/";
+    private LocalCdmiServer server;
+    private CdmiConnectionManager cm;
+    private CdmiTreeWalker walker;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalCdmiServer();
+        server.start();
+        cm = CdmiConnectionManager.newPooledConnectionManager(
+                RequestFactory.newCdmiFactory(server.getURI(), "1.0.1"),
+                new CdmiAuthScope("127.0.0.1", server.getPort()),
+                new CdmiCredentials("user", "password"), new RetryStrategy(3, 10,
+                        5000), 16, 8192, 1 << 20, 4);
+        walker = new CdmiTreeWalker(cm.getClient(), 4);
+        // 3 levels of 3 containers, each with 4 data objects of 10 bytes.
+        cm.getClient().makedir(ROOT);
+        for (int i = 0; i < 3; ++i) {
+            String level1 = ROOT + "dir" + i + "/";
+            cm.getClient().makedir(level1);
+            for (int j = 0; j < 3; ++j) {
+                String level2 = level1 + "sub" + j + "/";
+                cm.getClient().makedir(level2);
+                for (int k = 0; k < 4; ++k) {
+                    server.putObject(level2 + "file" + k + ".txt", new byte[10]);
+                }
+            }
+        }
+        server.putObject(ROOT + "top.dat", new byte[5]);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cm.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void testDu() throws IOException {
+        server.setLatency(5);
+        server.resetCounters();
+        CdmiTreeWalker.Usage usage = walker.du(ROOT);
+        Assert.assertEquals(37, usage.getObjectCount());
+        Assert.assertEquals(13, usage.getContainerCount());
+        Assert.assertEquals(365, usage.getSize());
+        Assert.assertTrue(server.getMaxInflight() > 1);
+        Assert.assertTrue(server.getMaxInflight() <= 4);
+
+        usage = walker.du(ROOT + "top.dat");
+        Assert.assertEquals(1, usage.getObjectCount());
+        Assert.assertEquals(0, usage.getContainerCount());
+        Assert.assertEquals(5, usage.getSize());
+    }
+
+    @Test
+    public void testFind() throws IOException {
+        Assert.assertEquals(Arrays.asList("/tree/dir0/sub1/", "/tree/dir1/sub1/",
+                "/tree/dir2/sub1/"), walker.find(ROOT, Pattern.compile("sub1")));
+        Assert.assertEquals(9, walker.find(ROOT, Pattern.compile("file3\\.txt")).size());
+        Assert.assertEquals(3, walker.find(ROOT, Pattern.compile("dir.")).size());
+        Assert.assertTrue(walker.find(ROOT, Pattern.compile("none")).isEmpty());
+    }
+
+    @Test
+    public void testWalk() throws IOException {
+        final Set<String> visited = Collections.synchronizedSet(new HashSet<String>());
+        walker.walk(ROOT, new CdmiVisitor() {
+            @Override
+            public boolean visit(FileMetadata metadata) {
+                Assert.assertTrue(visited.add(metadata.getKey()));
+                // Do not enter dir1.
+                return !metadata.getKey().endsWith("/dir1/");
+            }
+        });
+        Assert.assertEquals(1 + 1 + 3 + 2 * (3 + 12), visited.size());
+        Assert.assertTrue(visited.contains("/tree/dir1/"));
+        Assert.assertFalse(visited.contains("/tree/dir1/sub0/"));
+        Assert.assertTrue(visited.contains("/tree/dir2/sub2/file3.txt"));
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        try {
+            walker.du("/nothere/");
+            Assert.fail("The root does not exist");
+        } catch (FileNotFoundException e) {
+            // Expected.
+        }
+        try {
+            walker.walk(ROOT, new CdmiVisitor() {
+                @Override
+                public boolean visit(FileMetadata metadata) throws IOException {
+                    if (metadata.getKey().endsWith("file2.txt")) {
+                        throw new IOException("stop");
+                    }
+                    return true;
+                }
+            });
+            Assert.fail("The visitor error should stop the walk");
+        } catch (IOException e) {
+            Assert.assertEquals("stop", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testDeleteTree() throws IOException {
+        CdmiClientImpl client = (CdmiClientImpl) cm.getClient();
+        client.setParallelDelete(4);
+        final AtomicInteger deleted = new AtomicInteger();
+        // Interrupt the delete half way.
+        try {
+            client.deleteTree(ROOT, new CdmiVisitor() {
+                @Override
+                public boolean visit(FileMetadata metadata) throws IOException {
+                    if (deleted.incrementAndGet() == 20) {
+                        throw new IOException("interrupted");
+                    }
+                    return true;
+                }
+            });
+            Assert.fail("The delete should be interrupted");
+        } catch (IOException e) {
+            Assert.assertEquals("interrupted", e.getMessage());
+        }
+        Assert.assertTrue(server.exists(ROOT));
+        CdmiTreeWalker.Usage usage = walker.du(ROOT);
+        Assert.assertTrue(usage.getObjectCount() <= 37 - 19);
+
+        // Restart.
+        server.setLatency(5);
+        server.resetCounters();
+        Assert.assertTrue(client.delete(ROOT, true));
+        Assert.assertTrue(server.getMaxInflight() > 1);
+        Assert.assertFalse(server.exists(ROOT));
+        Assert.assertFalse(client.delete(ROOT, true));
+        Assert.assertFalse(client.deleteTree(ROOT, null));
+    }
+
+    /**
+     * Test that deleting the children of a container listed in several pages
+     * does not shift the later pages and skip children.
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testDeleteTreePages() throws IOException {
+        String wide = ROOT + "wide/";
+        cm.getClient().makedir(wide);
+        for (int i = 0; i < 100; ++i) {
+            server.putObject(wide + "file" + i + ".txt", new byte[1]);
+        }
+        CdmiClientImpl client = (CdmiClientImpl) cm.getClient();
+        client.setListPageSize(10);
+        client.setParallelDelete(4);
+        final AtomicInteger objects = new AtomicInteger();
+        Assert.assertTrue(client.deleteTree(wide, new CdmiVisitor() {
+            @Override
+            public boolean visit(FileMetadata metadata) {
+                if (!metadata.isContainer()) {
+                    objects.incrementAndGet();
+                }
+                return true;
+            }
+        }));
+        Assert.assertEquals(100, objects.get());
+        Assert.assertFalse(server.exists(wide));
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.impl;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.concurrent.FutureCallback;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.scality.cdmi.api.AsyncCdmiClient;
+import com.scality.cdmi.api.FileMetadata;
+import com.scality.cdmi.mock.MockCdmiConnector;
+
+/**
+ * Test the {@link ExecutorCdmiClient} against an in-memory connector.
+ */
+public class ExecutorCdmiClientTest {
+    private MockCdmiConnector connector;
+    private ExecutorService executor;
+    private AsyncCdmiClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        connector = new MockCdmiConnector(true, 0);
+        executor = Executors.newFixedThreadPool(4);
+        client = new ExecutorCdmiClient(new CdmiClientImpl(connector, 8192, 16384, 4),
+                executor);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Test that the results and the errors are reported to the futures and to
+     * the callbacks.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testGetMetadata() throws Exception {
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        // The callbacks may run after the futures are complete.
+        final CountDownLatch done = new CountDownLatch(21);
+        FutureCallback<FileMetadata> callback = new FutureCallback<FileMetadata>() {
+            @Override
+            public void completed(FileMetadata result) {
+                completed.incrementAndGet();
+                done.countDown();
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                failed.incrementAndGet();
+                done.countDown();
+            }
+
+            @Override
+            public void cancelled() {
+            }
+        };
+        List<Future<FileMetadata>> results = new ArrayList<Future<FileMetadata>>();
+        for (int i = 0; i < 20; ++i) {
+            connector.putObject("/foo" + i, new byte[i]);
+            results.add(client.getMetadata("/foo" + i, callback));
+        }
+        for (int i = 0; i < 20; ++i) {
+            Assert.assertEquals(i, results.get(i).get().getLength());
+        }
+        Assert.assertTrue(client.exists("/foo1", null).get());
+        try {
+            client.getMetadata("/missing", callback).get();
+            Assert.fail("The key should not exist");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof FileNotFoundException);
+        }
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(20, completed.get());
+        Assert.assertEquals(1, failed.get());
+    }
+
+    /**
+     * Test moving and deleting asynchronously.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testMoveAndDelete() throws Exception {
+        connector.putObject("/foo", new byte[10]);
+        Assert.assertTrue(client.move("/foo", "/bar", null).get());
+        Assert.assertFalse(client.exists("/foo", null).get());
+        Assert.assertTrue(client.delete("/bar", false, null).get());
+        Assert.assertNull(connector.getObject("/bar"));
+    }
+
+    /**
+     * Test that the client owning its threads uses daemon threads, and stops
+     * them on shutdown.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testOwnThreads() throws Exception {
+        connector.putObject("/foo", new byte[10]);
+        AsyncCdmiClient own = new ExecutorCdmiClient(new CdmiClientImpl(connector, 8192,
+                16384, 4), 2);
+        final AtomicInteger daemons = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+        Assert.assertTrue(own.exists("/foo", new FutureCallback<Boolean>() {
+            @Override
+            public void completed(Boolean result) {
+                if (Thread.currentThread().isDaemon()) {
+                    daemons.incrementAndGet();
+                }
+                done.countDown();
+            }
+
+            @Override
+            public void failed(Exception ex) {
+            }
+
+            @Override
+            public void cancelled() {
+            }
+        }).get());
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, daemons.get());
+        own.shutdown();
+        try {
+            own.exists("/foo", null).get();
+            Assert.fail("The operation should be rejected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    /**
+     * Test that operations submitted after the executor is stopped fail.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testShutdown() throws Exception {
+        executor.shutdown();
+        try {
+            client.exists("/foo", null).get();
+            Assert.fail("The operation should be rejected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.impl.metadata;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.scality.cdmi.api.CdmiConnectionException;
+
+/**
+ * Test the parsing of the metadata sent by the CDMI server.
+ */
+public class CdmiMetadataTest {
+    private static final String OBJECT = "{\"objectType\": \"application/cdmi-object\","
+            + " \"objectID\": \"00000001\", \"objectName\": \"foo<dot>bin\","
+            + " \"parentURI\": \"/bar/\", \"capabilitiesURI\": \"/cdmi_capabilities/dataobject/\","
+            + " \"children\": [\"a\", {\"b\": [1, 2]}], \"domainURI\": \"/cdmi_domains/\","
+            + " \"valuetransferencoding\": \"base64\","
+            + " \"metadata\": {\"cdmi_acl\": [{\"identifier\": \"OWNER@\"}],"
+            + " \"cdmi_size\": 1234, \"cdmi_mtime\": \"2013-01-01T00:00:00.000000Z\","
+            + " \"cdmi_atime\": \"2013-01-01T00:01:00.123456Z\"}}";
+
+    private static void check(CdmiMetadata metadata) {
+        Assert.assertEquals("application/cdmi-object", metadata.getObjectType());
+        Assert.assertEquals("00000001", metadata.getObjectID());
+        Assert.assertEquals("/bar/foo.bin", metadata.fullPath());
+        Assert.assertEquals("base64", metadata.getValuetransferencoding());
+        Assert.assertEquals(1234L, metadata.getSize());
+        Assert.assertEquals(1356998400L, metadata.getMtime());
+        Assert.assertEquals(1356998460L, metadata.getAtime());
+        Assert.assertFalse(metadata.isContainer());
+    }
+
+    @Test
+    public void testParseString() throws CdmiConnectionException {
+        CdmiMetadata metadata = new CdmiMetadata(OBJECT);
+        check(metadata);
+        Assert.assertEquals(OBJECT, metadata.getMetadata());
+    }
+
+    @Test
+    public void testParseStream() throws CdmiConnectionException {
+        CdmiMetadata metadata = CdmiMetadata.parse(new ByteArrayInputStream(OBJECT.getBytes()));
+        check(metadata);
+        Assert.assertNull(metadata.getMetadata());
+    }
+
+    @Test(expected = CdmiConnectionException.class)
+    public void testParseInvalid() throws CdmiConnectionException {
+        CdmiMetadata.parse(new ByteArrayInputStream("[]".getBytes()));
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.impl.metadata;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the eviction, expiry and invalidation of the {@link LruCache} shared by
+ * the metadata, object ID and container caches, and their own methods.
+ */
+public class LruCacheTest {
+    private CdmiMetadata metadata;
+
+    @Before
+    public void setUp() throws Exception {
+        metadata = new CdmiMetadata("{\"objectType\": \"application/cdmi-container\","
+                + " \"objectID\": \"00000001\", \"objectName\": \"foo/\","
+                + " \"parentURI\": \"/\", \"capabilitiesURI\": \"/cdmi_capabilities/\","
+                + " \"metadata\": {\"cdmi_mtime\": \"2013-01-01T00:00:00.000000Z\","
+                + " \"cdmi_atime\": \"2013-01-01T00:00:00.000000Z\"}}");
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        LruCache<String> cache = new LruCache<String>(10, 60000);
+        Assert.assertNull(cache.get("/foo"));
+        cache.put("foo/", "a");
+        Assert.assertEquals("a", cache.get("/foo"));
+        Assert.assertEquals("a", cache.get("foo"));
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testLruEviction() {
+        LruCache<String> cache = new LruCache<String>(2, 60000);
+        cache.put("/a", "a");
+        cache.put("/b", "b");
+        Assert.assertNotNull(cache.get("/a"));
+        cache.put("/c", "c");
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNotNull(cache.get("/a"));
+        Assert.assertNull(cache.get("/b"));
+        Assert.assertNotNull(cache.get("/c"));
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        LruCache<String> cache = new LruCache<String>(10, 10);
+        LruCache<String> forever = new LruCache<String>(10, 0);
+        cache.put("/a", "a");
+        forever.put("/a", "a");
+        Thread.sleep(20);
+        Assert.assertNull(cache.get("/a"));
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals("a", forever.get("/a"));
+    }
+
+    @Test
+    public void testInvalidateTree() {
+        LruCache<String> cache = new LruCache<String>(10, 60000);
+        cache.put("/foo", "a");
+        cache.put("/foo/bar", "b");
+        cache.put("/foo/bar/baz", "c");
+        cache.put("/foobar", "d");
+        cache.invalidateTree("/foo/");
+        Assert.assertEquals(1, cache.size());
+        Assert.assertNotNull(cache.get("/foobar"));
+        cache.invalidate("/foobar/");
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMoveTree() {
+        LruCache<String> cache = new LruCache<String>(10, 60000);
+        cache.put("/foo/bar", "a");
+        cache.put("/foo/bar/baz", "b");
+        cache.put("/dst/old", "c");
+        cache.moveTree("/foo", "/dst");
+        Assert.assertNull(cache.get("/foo/bar"));
+        Assert.assertEquals("a", cache.get("/dst/bar"));
+        Assert.assertEquals("b", cache.get("/dst/bar/baz"));
+        Assert.assertNull(cache.get("/dst/old"));
+    }
+
+    @Test
+    public void testPutAfterInvalidate() {
+        LruCache<String> cache = new LruCache<String>(10, 0);
+        long generation = cache.getGeneration();
+        Assert.assertTrue(cache.put("/foo", "a", generation));
+        generation = cache.getGeneration();
+        cache.invalidate("/foo");
+        Assert.assertFalse(cache.put("/foo", "stale", generation));
+        Assert.assertNull(cache.get("/foo"));
+        Assert.assertTrue(cache.put("/foo", "b", cache.getGeneration()));
+        Assert.assertEquals("b", cache.get("/foo"));
+
+        generation = cache.getGeneration();
+        cache.invalidateTree("/bar");
+        Assert.assertFalse(cache.put("/bar/baz", "stale", generation));
+        generation = cache.getGeneration();
+        cache.moveTree("/foo", "/dst");
+        Assert.assertFalse(cache.put("/foo", "stale", generation));
+        Assert.assertNull(cache.get("/foo"));
+    }
+
+    @Test
+    public void testInvalidateObjectID() {
+        CdmiMetadataCache cache = new CdmiMetadataCache(10, 60000);
+        cache.put("/foo", metadata);
+        cache.put("/bar", metadata);
+        Assert.assertSame(metadata, cache.get("/foo"));
+        cache.invalidateObjectID("00000001");
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testContainers() {
+        CdmiContainerCache cache = new CdmiContainerCache(10, 0);
+        Assert.assertFalse(cache.contains("/foo"));
+        cache.put("/foo/");
+        Assert.assertTrue(cache.contains("foo"));
+        Assert.assertEquals(1, cache.getHits());
+    }
+}
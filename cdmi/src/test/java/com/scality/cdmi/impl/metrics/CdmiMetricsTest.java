@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.impl.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.scality.cdmi.api.CdmiConnectionException;
+import com.scality.cdmi.api.RequestFactory;
+import com.scality.cdmi.api.RetryStrategy;
+import com.scality.cdmi.connector.CdmiConnector;
+
+/**
+ * Test the {@link CdmiMetrics} and the {@link LatencyHistogram}.
+ */
+public class CdmiMetricsTest {
+
+    private static HttpResponse newResponse(int status, int length) {
+        HttpResponse response = new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1,
+                status, null));
+        response.setEntity(new ByteArrayEntity(new byte[length]));
+        return response;
+    }
+
+    /**
+     * A client answering with the given responses, an {@link Exception} being
+     * thrown instead of returned.
+     */
+    private static HttpClient scriptedClient(final LinkedList<Object> script) {
+        return (HttpClient) Proxy.newProxyInstance(HttpClient.class.getClassLoader(),
+                new Class<?>[] { HttpClient.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        Object next = script.removeFirst();
+                        if (next instanceof Exception) {
+                            throw (Exception) next;
+                        }
+                        return next;
+                    }
+                });
+    }
+
+    /**
+     * Test the bucket bounds and the percentiles of the histogram.
+     */
+    @Test
+    public void testHistogram() {
+        for (long micros : new long[] { 0, 1, 3, 4, 7, 8, 100, 12345, 1L << 38, Long.MAX_VALUE }) {
+            long bound = LatencyHistogram.upperBound(LatencyHistogram.index(micros));
+            Assert.assertTrue(bound >= micros || micros >= 1L << 39);
+            Assert.assertTrue(bound <= micros + micros / 4 + 1 || micros >= 1L << 39);
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getPercentileMillis(0.99), 0);
+        for (int i = 1; i <= 1000; ++i) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(500.5, histogram.getMeanMillis(), 0.01);
+        Assert.assertEquals(1000, histogram.getMaxMillis(), 0);
+        Assert.assertEquals(500, histogram.getPercentileMillis(0.5), 125);
+        Assert.assertEquals(990, histogram.getPercentileMillis(0.99), 10);
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+    }
+
+    /**
+     * Test the measures of the requests sent by a connector, retries and
+     * errors included.
+     * 
+     * @throws CdmiConnectionException
+     */
+    @Test
+    public void testConnector() throws CdmiConnectionException {
+        LinkedList<Object> script = new LinkedList<Object>();
+        CdmiConnector connector = new CdmiConnector(RequestFactory.newCdmiFactory(
+                URI.create("http://mock:80"), "1.0.1"), scriptedClient(script),
+                new RetryStrategy(3, 0, 1000), true);
+        CdmiMetrics metrics = new CdmiMetrics(null);
+        connector.setMetricsListener(metrics);
+
+        script.add(new ConnectTimeoutException());
+        script.add(newResponse(HttpStatus.SC_SERVICE_UNAVAILABLE, 0));
+        script.add(newResponse(HttpStatus.SC_PARTIAL_CONTENT, 100));
+        connector.readObjectNonCdmi("/foo", 0, 100);
+        script.add(newResponse(HttpStatus.SC_NO_CONTENT, 0));
+        connector.updateObjectNonCdmi("/foo", 0, 10, new byte[10]);
+        script.add(newResponse(HttpStatus.SC_NO_CONTENT, 0));
+        connector.updateObjectNonCdmi("/foo", 10, 10, new byte[10]);
+
+        Assert.assertArrayEquals(new String[] { "readObjectNonCdmi", "updateObjectNonCdmi" },
+                metrics.getOperations());
+        OperationMetrics read = metrics.getOperation("readObjectNonCdmi");
+        Assert.assertEquals(1, read.getRequests());
+        Assert.assertEquals(2, read.getRetries());
+        Assert.assertEquals(0, read.getFailures());
+        Assert.assertEquals(100, read.getBytesReceived());
+        OperationMetrics update = metrics.getOperation("updateObjectNonCdmi");
+        Assert.assertEquals(2, update.getRequests());
+        Assert.assertEquals(20, update.getBytesSent());
+
+        Assert.assertEquals(3, metrics.getRequests());
+        Assert.assertEquals(2, metrics.getRetries());
+        Assert.assertEquals(1, metrics.getErrors());
+        Assert.assertEquals(1, metrics.getConnectTimeouts());
+        Assert.assertEquals(20, metrics.getBytesSent());
+        Assert.assertEquals(100, metrics.getBytesReceived());
+        Assert.assertEquals(-1, metrics.getLeasedConnections());
+
+        for (int i = 0; i < 3; ++i) {
+            script.add(newResponse(HttpStatus.SC_INTERNAL_SERVER_ERROR, 0));
+        }
+        try {
+            connector.delete("/foo");
+            Assert.fail();
+        } catch (CdmiConnectionException e) {
+            Assert.assertEquals(1, metrics.getOperation("delete").getFailures());
+        }
+
+        metrics.reset();
+        Assert.assertEquals(0, metrics.getRequests());
+        Assert.assertEquals(0, metrics.getRetries());
+    }
+
+    /**
+     * Test that the measures are published as MBeans.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testMBeans() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        CdmiMetrics metrics = new CdmiMetrics(null);
+        metrics.onRequest("delete", HttpStatus.SC_NO_CONTENT, 1000000, 0, 0);
+        metrics.registerMBeans("test");
+        metrics.onRequest("readMetadata", HttpStatus.SC_OK, 1000000, 0, 10);
+
+        ObjectName client = new ObjectName("com.scality.cdmi:type=Client,name=\"test\"");
+        ObjectName read = new ObjectName(
+                "com.scality.cdmi:type=Operation,client=\"test\",name=\"readMetadata\"");
+        Assert.assertEquals(2L, server.getAttribute(client, "Requests"));
+        Assert.assertEquals(10L, server.getAttribute(read, "BytesReceived"));
+        Assert.assertTrue(server.isRegistered(new ObjectName(
+                "com.scality.cdmi:type=Operation,client=\"test\",name=\"delete\"")));
+
+        metrics.unregisterMBeans();
+        Assert.assertFalse(server.isRegistered(client));
+        Assert.assertFalse(server.isRegistered(read));
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.impl.utils;
+
+import java.text.ParseException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the parsing of CDMI timestamps.
+ */
+public class DateUtilsTest {
+
+    @Test
+    public void testParseCdmiTime() throws ParseException {
+        Assert.assertEquals(0L, DateUtils.parseCdmiTime("1970-01-01T00:00:00.000000Z"));
+        Assert.assertEquals(1356998400L, DateUtils.parseCdmiTime("2013-01-01T00:00:00.000000Z"));
+        Assert.assertEquals(1330559999L, DateUtils.parseCdmiTime("2012-02-29T23:59:59.999999Z"));
+        Assert.assertEquals(1330560000L, DateUtils.parseCdmiTime("2012-03-01T00:00:00Z"));
+        Assert.assertEquals(-86400L, DateUtils.parseCdmiTime("1969-12-31T00:00:00.0Z"));
+    }
+
+    @Test(expected = ParseException.class)
+    public void testParseInvalidDate() throws ParseException {
+        DateUtils.parseCdmiTime("2013-13-01T00:00:00.000000Z");
+    }
+
+    @Test(expected = ParseException.class)
+    public void testParseTruncatedDate() throws ParseException {
+        DateUtils.parseCdmiTime("2013-01-01");
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.impl.utils;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.scality.cdmi.api.RequestFactory;
+
+/**
+ * Test that the fast URI encoding matches the escaping done by
+ * {@link URI} constructors.
+ */
+public class UriUtilsTest {
+
+    private static String reference(String key, String query)
+            throws URISyntaxException {
+        if (!key.startsWith("/")) {
+            key = "/" + key;
+        }
+        return new URI("http", null, "foo.com", 80,
+                RequestFactory.URIEscapeString(key), query, null).toString();
+    }
+
+    private static String encode(String key, String query) {
+        StringBuilder buffer = new StringBuilder("http://foo.com:80");
+        UriUtils.appendPath(buffer, key);
+        UriUtils.appendQuery(buffer, query);
+        return buffer.toString();
+    }
+
+    @Test
+    public void testEncode() throws URISyntaxException {
+        String[] keys = new String[] { "foo", "/bar/baz/", "a b", "50%",
+                "/.hidden/x/./y/..", "q?#[]{}|\\^`\"<>", "café/文件",
+                "nb sp ", "tab\tnl\n", "~_-!*'();:@&=+$,", "//" };
+        String[] queries = new String[] { null, "children", "value:0-9",
+                "metadata:cdmi_size;children:0-99", "a b?c/d[e]#%" };
+        for (String key : keys) {
+            for (String query : queries) {
+                Assert.assertEquals(reference(key, query), encode(key, query));
+            }
+        }
+    }
+
+    @Test
+    public void testRandomKeys() throws URISyntaxException {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; ++i) {
+            char[] chars = new char[random.nextInt(20)];
+            for (int j = 0; j < chars.length; ++j) {
+                chars[j] = (char) (random.nextBoolean() ? 1 + random.nextInt(127)
+                        : 128 + random.nextInt(0xd000));
+            }
+            String key = new String(chars);
+            Assert.assertEquals(reference(key, key), encode(key, key));
+        }
+    }
+
+    @Test
+    public void testFormatRange() {
+        Assert.assertEquals("value:32-60", UriUtils.formatRange("value:", 32, 29));
+        Assert.assertEquals("bytes=0-0", UriUtils.formatRange("bytes=", 0, 1));
+        Assert.assertEquals("bytes=10-", UriUtils.formatRange("bytes=", 10, -1));
+        Assert.assertEquals("bytes=8589934592-8589934593",
+                UriUtils.formatRange("bytes=", 1L << 33, 2));
+    }
+}
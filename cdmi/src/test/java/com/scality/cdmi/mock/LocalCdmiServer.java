@@ -0,0 +1,1035 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.mock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.binary.Base64;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import com.scality.cdmi.connector.CdmiTypes;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process HTTP server implementing the subset of the CDMI and nonCDMI
+ * protocols used by the client, keeping containers and data objects in
+ * memory. Unlike {@link MockCdmiConnector}, requests go through the whole
+ * HTTP stack, so it can be used to test and measure pooling, retries and
+ * parallel transfers without a real server.
+ * 
+ * <p>
+ * The server can add a latency to each request, limit the bandwidth of each
+ * request and response body, and answer with errors, either at random or for
+ * the next requests. The status {@link #DROP_CONNECTION} closes the
+ * connection without any response instead, and {@link #DROP_RESPONSE}
+ * processes the request before closing the connection without a response.
+ * </p>
+ * 
+ * <pre>
+ * LocalCdmiServer server = new LocalCdmiServer();
+ * server.start();
+ * RequestFactory factory = RequestFactory.newCdmiFactory(server.getURI(), &quot;1.0.1&quot;);
+ * ...
+ * server.stop();
+ * </pre>
+ */
+public class LocalCdmiServer {
+    /**
+     * Error status closing the connection without sending any response.
+     */
+    public static final int DROP_CONNECTION = 0;
+    /**
+     * Error status processing the request, then closing the connection
+     * without sending the response.
+     */
+    public static final int DROP_RESPONSE = 1;
+    private static final String CDMI_VERSION_HEADER = "X-CDMI-Specification-Version";
+    private static final String OBJECTID_PATH = "/cdmi_objectid/";
+    private static final int CHUNK_SIZE = 8192;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    static {
+        // Without it, the response body waits for the acknowledgment of the
+        // headers, adding up to 40ms to each request.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    /**
+     * A container or a data object.
+     */
+    private static class Node {
+        private String path;
+        private final boolean container;
+        private final String objectID;
+        private final Map<String, String> metadata;
+        private byte[] data;
+        private long mtime;
+        private long atime;
+
+        Node(String path, boolean container, String objectID) {
+            this.path = path;
+            this.container = container;
+            this.objectID = objectID;
+            this.metadata = new TreeMap<String, String>();
+            this.data = new byte[0];
+            this.mtime = System.currentTimeMillis();
+            this.atime = mtime;
+        }
+    }
+
+    /**
+     * A response ready to be sent.
+     */
+    private static class Response {
+        private final int status;
+        private final Map<String, String> headers;
+        private final byte[] body;
+
+        Response(int status, byte[] body) {
+            this.status = status;
+            this.headers = new LinkedHashMap<String, String>();
+            this.body = body;
+        }
+
+        Response(int status) {
+            this(status, null);
+        }
+
+        Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+    }
+
+    private final TreeMap<String, Node> nodes;
+    private final Map<String, Node> objectIDs;
+    private final AtomicInteger requests;
+    private final AtomicInteger inflight;
+    private final AtomicInteger maxInflight;
+    private final AtomicInteger failures;
+    private final Random random;
+    private long nextObjectID;
+    private volatile long minLatencyMillis;
+    private volatile long maxLatencyMillis;
+    private volatile long bytesPerSecond;
+    private volatile double errorRate;
+    private volatile int errorStatus;
+    private volatile int failStatus;
+    private volatile int retryAfterSeconds;
+    private volatile boolean noChildrenRanges;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Constructor. The server only contains the root container until it is
+     * started.
+     */
+    public LocalCdmiServer() {
+        this.nodes = new TreeMap<String, Node>();
+        this.objectIDs = new HashMap<String, Node>();
+        this.requests = new AtomicInteger();
+        this.inflight = new AtomicInteger();
+        this.maxInflight = new AtomicInteger();
+        this.failures = new AtomicInteger();
+        this.random = new Random();
+        this.nextObjectID = 1;
+        this.errorStatus = 503;
+        this.failStatus = 503;
+        newNode("/", true);
+    }
+
+    /**
+     * Start listening on an ephemeral port of the loopback interface.
+     * 
+     * @throws IOException
+     *             if the server could not be bound.
+     */
+    public synchronized void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getByName("127.0.0.1"), 0), 0);
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "local-cdmi-server-"
+                        + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                LocalCdmiServer.this.handle(exchange);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Stop the server, closing the open connections.
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /**
+     * @return the port the server listens on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return the base URI of the server, for
+     *         {@link com.scality.cdmi.api.RequestFactory#newCdmiFactory}.
+     */
+    public URI getURI() {
+        return URI.create("http://127.0.0.1:" + getPort() + "/");
+    }
+
+    /**
+     * Delay each request by the given latency.
+     * 
+     * @param latencyMillis
+     *            the latency in milliseconds, 0 for none.
+     */
+    public void setLatency(long latencyMillis) {
+        setLatency(latencyMillis, latencyMillis);
+    }
+
+    /**
+     * Delay each request by a latency picked uniformly in a range.
+     * 
+     * @param minMillis
+     *            the minimum latency in milliseconds.
+     * @param maxMillis
+     *            the maximum latency in milliseconds.
+     */
+    public void setLatency(long minMillis, long maxMillis) {
+        this.minLatencyMillis = minMillis;
+        this.maxLatencyMillis = Math.max(minMillis, maxMillis);
+    }
+
+    /**
+     * Limit the rate at which each request body is read and each response
+     * body is written.
+     * 
+     * @param bytesPerSecond
+     *            the bandwidth of each transfer, 0 for unlimited.
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Answer requests at random with an error.
+     * 
+     * @param rate
+     *            the probability of an error, between 0 and 1.
+     * @param status
+     *            the error status, {@link #DROP_CONNECTION} or
+     *            {@link #DROP_RESPONSE}.
+     */
+    public void setErrorRate(double rate, int status) {
+        this.errorStatus = status;
+        this.errorRate = rate;
+    }
+
+    /**
+     * Answer the next requests with an error.
+     * 
+     * @param count
+     *            the number of requests failing.
+     * @param status
+     *            the error status, {@link #DROP_CONNECTION} or
+     *            {@link #DROP_RESPONSE}.
+     */
+    public void failNext(int count, int status) {
+        this.failStatus = status;
+        failures.set(count);
+    }
+
+    /**
+     * Add a Retry-After header to the injected errors.
+     * 
+     * @param seconds
+     *            the delay advertised, 0 for no header.
+     */
+    public void setRetryAfter(int seconds) {
+        this.retryAfterSeconds = seconds;
+    }
+
+    /**
+     * Reject the children range queries with a 400, like servers not
+     * supporting them.
+     * 
+     * @param rejected
+     *            true to reject the range queries.
+     */
+    public void setNoChildrenRanges(boolean rejected) {
+        this.noChildrenRanges = rejected;
+    }
+
+    /**
+     * @return the number of requests received, including failed ones.
+     */
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return the maximum number of requests processed concurrently.
+     */
+    public int getMaxInflight() {
+        return maxInflight.get();
+    }
+
+    /**
+     * Reset the request counters.
+     */
+    public void resetCounters() {
+        requests.set(0);
+        maxInflight.set(0);
+    }
+
+    /**
+     * @param path
+     *            the full path of a container or data object.
+     * @return true if it exists.
+     */
+    public boolean exists(String path) {
+        synchronized (nodes) {
+            return nodes.containsKey(normalize(path));
+        }
+    }
+
+    /**
+     * Create or replace a data object, bypassing the HTTP stack.
+     * 
+     * @param path
+     *            the full path of the data object, its parent must exist.
+     * @param data
+     *            the contents of the data object.
+     * @return the object ID of the data object.
+     */
+    public String putObject(String path, byte[] data) {
+        path = normalize(path);
+        synchronized (nodes) {
+            Node node = nodes.get(path);
+            if (node == null) {
+                if (!isContainer(parent(path))) {
+                    throw new IllegalArgumentException("No parent container for "
+                            + path);
+                }
+                node = newNode(path, false);
+            }
+            node.data = data.clone();
+            node.mtime = System.currentTimeMillis();
+            return node.objectID;
+        }
+    }
+
+    /**
+     * Read a data object, bypassing the HTTP stack.
+     * 
+     * @param path
+     *            the full path of the data object.
+     * @return its contents, or null if there is no such data object.
+     */
+    public byte[] getObject(String path) {
+        synchronized (nodes) {
+            Node node = nodes.get(normalize(path));
+            return node == null || node.container ? null : node.data.clone();
+        }
+    }
+
+    /**
+     * Delete a container or data object and everything below it, bypassing
+     * the HTTP stack.
+     * 
+     * @param path
+     *            the full path of the container or data object.
+     * @return true if it existed.
+     */
+    public boolean remove(String path) {
+        synchronized (nodes) {
+            Node node = nodes.get(normalize(path));
+            if (node == null || "/".equals(node.path)) {
+                return false;
+            }
+            delete(node);
+            return true;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        int running = inflight.incrementAndGet();
+        int max;
+        while (running > (max = maxInflight.get())
+                && !maxInflight.compareAndSet(max, running)) {
+            // Retry.
+        }
+        try {
+            sleep(pickLatency());
+            byte[] body = read(exchange.getRequestBody());
+            int status = pickError();
+            if (status == DROP_CONNECTION) {
+                exchange.close();
+                return;
+            }
+            Response response;
+            if (status == DROP_RESPONSE) {
+                dispatch(exchange, body);
+                exchange.close();
+                return;
+            } else if (status > 0) {
+                response = new Response(status);
+                if (retryAfterSeconds > 0) {
+                    response.header("Retry-After", String.valueOf(retryAfterSeconds));
+                }
+            } else {
+                response = dispatch(exchange, body);
+            }
+            send(exchange, response);
+        } catch (RuntimeException e) {
+            send(exchange, new Response(500, String.valueOf(e).getBytes("UTF-8")));
+        } finally {
+            inflight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private long pickLatency() {
+        long min = minLatencyMillis;
+        long max = maxLatencyMillis;
+        if (max <= min) {
+            return min;
+        }
+        synchronized (random) {
+            return min + (long) (random.nextDouble() * (max - min));
+        }
+    }
+
+    private int pickError() {
+        int remaining;
+        while ((remaining = failures.get()) > 0) {
+            if (failures.compareAndSet(remaining, remaining - 1)) {
+                return failStatus;
+            }
+        }
+        double rate = errorRate;
+        if (rate > 0) {
+            synchronized (random) {
+                if (random.nextDouble() < rate) {
+                    return errorStatus;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private Response dispatch(HttpExchange exchange, byte[] body)
+            throws IOException {
+        URI uri = exchange.getRequestURI();
+        String path = unescape(uri.getPath());
+        String query = uri.getQuery();
+        String method = exchange.getRequestMethod();
+        Headers headers = exchange.getRequestHeaders();
+        if (path.startsWith("/cdmi_capabilities")
+                || (query != null && query.contains("cdmi_capabilities"))) {
+            return json(200, CdmiTypes.CDMI_CAPABILITY, capabilities());
+        }
+        synchronized (nodes) {
+            if ("HEAD".equals(method)) {
+                // Also used with X-Scal-Synchronize, writes are immediate.
+                return new Response(resolve(path) != null ? 200 : 404);
+            }
+            if (!headers.containsKey(CDMI_VERSION_HEADER)) {
+                if ("GET".equals(method)) {
+                    return readValue(path, headers.getFirst("Range"));
+                } else if ("PUT".equals(method)) {
+                    return writeValue(path, headers.getFirst("Content-Range"), body);
+                }
+                return new Response(405);
+            }
+            if ("GET".equals(method)) {
+                return get(path, query);
+            } else if ("PUT".equals(method)) {
+                Map<String, Object> entity = parse(body);
+                if (CdmiTypes.CDMI_CONTAINER.equals(headers.getFirst("Content-Type"))) {
+                    return putContainer(path, query, entity);
+                }
+                return putObject(path, query, entity,
+                        "*".equals(headers.getFirst("If-None-Match")));
+            } else if ("DELETE".equals(method)) {
+                return delete(path);
+            }
+            return new Response(405);
+        }
+    }
+
+    private Response get(String path, String query) throws IOException {
+        Node node = resolve(path);
+        if (node == null) {
+            return new Response(404);
+        }
+        node.atime = System.currentTimeMillis();
+        Map<String, Object> all = describe(node);
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        if (query == null || query.isEmpty()) {
+            result = all;
+            if (node.container) {
+                result.put("children", children(node));
+            } else {
+                result.put("value", encode(node.data));
+            }
+        } else if (query.startsWith("children")) {
+            if (!node.container
+                    || (noChildrenRanges && query.startsWith("children:"))) {
+                return new Response(400);
+            }
+            List<String> children = children(node);
+            int[] range = query.startsWith("children:") ? parseRange(query,
+                    "children:", children.size()) : null;
+            if (range != null) {
+                children = children.subList(range[0], range[1] + 1);
+                result.put("childrenrange", range[0] + "-" + range[1]);
+            } else if (query.startsWith("children:")) {
+                // Past the last child.
+                children = new ArrayList<String>();
+            }
+            result.put("children", children);
+        } else if (query.startsWith("value:")) {
+            if (node.container) {
+                return new Response(400);
+            }
+            int[] range = parseRange(query, "value:", node.data.length);
+            if (range == null) {
+                return new Response(416);
+            }
+            result.put("valuetransferencoding", "base64");
+            result.put("valuerange", range[0] + "-" + range[1]);
+            result.put("value", encode(Arrays.copyOfRange(node.data, range[0],
+                    range[1] + 1)));
+        } else if (query.startsWith("metadata:")) {
+            String prefix = query.substring("metadata:".length());
+            Map<String, Object> metadata = new LinkedHashMap<String, Object>();
+            @SuppressWarnings("unchecked")
+            Map<String, Object> allMetadata = (Map<String, Object>) all.get("metadata");
+            for (Map.Entry<String, Object> entry : allMetadata.entrySet()) {
+                if (entry.getKey().startsWith(prefix)) {
+                    metadata.put(entry.getKey(), entry.getValue());
+                }
+            }
+            result.put("metadata", metadata);
+        } else {
+            for (String field : query.split(";")) {
+                if (all.containsKey(field)) {
+                    result.put(field, all.get(field));
+                }
+            }
+        }
+        return json(200, type(node), result);
+    }
+
+    private Response putContainer(String path, String query,
+            Map<String, Object> entity) throws IOException {
+        if (query != null && query.startsWith("metadata")) {
+            return setMetadata(path, entity);
+        }
+        path = normalize(path);
+        Object move = entity.get("move");
+        if (move != null) {
+            String source = normalize(unescape(move.toString()));
+            Node node = nodes.get(source);
+            if (node == null || !node.container) {
+                return new Response(404);
+            }
+            if (path.startsWith(source + "/") || "/".equals(source)) {
+                return new Response(400);
+            }
+            if (!isContainer(parent(path))) {
+                return new Response(404);
+            }
+            if (nodes.containsKey(path)) {
+                return new Response(409);
+            }
+            List<Node> moved = new ArrayList<Node>(subtree(source).values());
+            moved.add(node);
+            for (Node child : moved) {
+                nodes.remove(child.path);
+            }
+            for (Node child : moved) {
+                child.path = path + child.path.substring(source.length());
+                nodes.put(child.path, child);
+            }
+            return json(201, CdmiTypes.CDMI_CONTAINER, describe(node));
+        }
+        Node node = nodes.get(path);
+        if (node != null) {
+            if (!node.container) {
+                return new Response(409);
+            }
+            updateMetadata(node, entity);
+            return new Response(204);
+        }
+        if (!isContainer(parent(path))) {
+            return new Response(404);
+        }
+        node = newNode(path, true);
+        updateMetadata(node, entity);
+        return json(201, CdmiTypes.CDMI_CONTAINER, describe(node));
+    }
+
+    private Response putObject(String path, String query,
+            Map<String, Object> entity, boolean ifNoneMatch) throws IOException {
+        if (query != null && query.startsWith("metadata")) {
+            return setMetadata(path, entity);
+        }
+        if (query != null && query.startsWith("value:")) {
+            Node node = resolve(path);
+            if (node == null || node.container) {
+                return new Response(404);
+            }
+            long offset = Long.parseLong(query.substring("value:".length()).split("-")[0]);
+            write(node, offset, decodeValue(entity));
+            return new Response(204);
+        }
+        if (path.endsWith("/")) {
+            return new Response(400);
+        }
+        path = normalize(path);
+        Node existing = nodes.get(path);
+        if (existing != null && existing.container) {
+            return new Response(409);
+        }
+        if (existing != null && ifNoneMatch) {
+            return new Response(412);
+        }
+        Object copy = entity.get("copy");
+        Object move = entity.get("move");
+        Node source = null;
+        if (copy != null || move != null) {
+            source = nodes.get(normalize(unescape(String.valueOf(copy != null ? copy
+                    : move))));
+            if (source == null || source.container) {
+                return new Response(404);
+            }
+            if (source == existing) {
+                return new Response(204);
+            }
+        }
+        if (existing == null && !isContainer(parent(path))) {
+            return new Response(404);
+        }
+        Node node = existing;
+        if (move != null) {
+            if (existing != null) {
+                delete(existing);
+            }
+            nodes.remove(source.path);
+            source.path = path;
+            nodes.put(path, source);
+            node = source;
+        } else {
+            if (node == null) {
+                node = newNode(path, false);
+            }
+            node.data = source != null ? source.data.clone() : decodeValue(entity);
+            node.mtime = System.currentTimeMillis();
+        }
+        updateMetadata(node, entity);
+        if (existing != null) {
+            return new Response(204);
+        }
+        return json(201, CdmiTypes.CDMI_OBJECT, describe(node));
+    }
+
+    private Response setMetadata(String path, Map<String, Object> entity) {
+        Node node = resolve(path);
+        if (node == null) {
+            return new Response(404);
+        }
+        updateMetadata(node, entity);
+        return new Response(204);
+    }
+
+    private Response delete(String path) {
+        Node node = resolve(path);
+        if (node == null) {
+            return new Response(404);
+        }
+        if ("/".equals(node.path)) {
+            return new Response(403);
+        }
+        delete(node);
+        return new Response(204);
+    }
+
+    private Response readValue(String path, String range) {
+        Node node = resolve(path);
+        if (node == null || node.container) {
+            return new Response(404);
+        }
+        node.atime = System.currentTimeMillis();
+        int size = node.data.length;
+        if (range == null) {
+            return new Response(200, node.data.clone());
+        }
+        int[] bounds = parseRange(range, "bytes=", size);
+        if (bounds == null) {
+            return new Response(416).header("Content-Range", "bytes */" + size);
+        }
+        return new Response(206, Arrays.copyOfRange(node.data, bounds[0],
+                bounds[1] + 1)).header("Content-Range", "bytes " + bounds[0] + "-"
+                + bounds[1] + "/" + size);
+    }
+
+    private Response writeValue(String path, String range, byte[] body) {
+        Node node = resolve(path);
+        boolean created = false;
+        if (node == null) {
+            if (path.startsWith(OBJECTID_PATH) || !isContainer(parent(normalize(path)))) {
+                return new Response(404);
+            }
+            node = newNode(normalize(path), false);
+            created = true;
+        } else if (node.container) {
+            return new Response(409);
+        }
+        if (range == null) {
+            node.data = body;
+            node.mtime = System.currentTimeMillis();
+        } else {
+            // The client sends "bytes=start-end", also accept "bytes start-end/size".
+            String bounds = range.substring("bytes".length() + 1);
+            write(node, Long.parseLong(bounds.substring(0, bounds.indexOf('-'))), body);
+        }
+        return new Response(created ? 201 : 204);
+    }
+
+    private static void write(Node node, long offset, byte[] data) {
+        long end = offset + data.length;
+        if (end > node.data.length) {
+            node.data = Arrays.copyOf(node.data, (int) end);
+        }
+        System.arraycopy(data, 0, node.data, (int) offset, data.length);
+        node.mtime = System.currentTimeMillis();
+    }
+
+    private void delete(Node node) {
+        List<Node> removed = new ArrayList<Node>(subtree(node.path).values());
+        removed.add(node);
+        for (Node child : removed) {
+            nodes.remove(child.path);
+            objectIDs.remove(child.objectID);
+        }
+    }
+
+    private Node newNode(String path, boolean container) {
+        Node node = new Node(path, container, String.format("%032X", nextObjectID++));
+        nodes.put(path, node);
+        objectIDs.put(node.objectID, node);
+        return node;
+    }
+
+    private Node resolve(String path) {
+        if (path.startsWith(OBJECTID_PATH)) {
+            return objectIDs.get(path.substring(OBJECTID_PATH.length()));
+        }
+        return nodes.get(normalize(path));
+    }
+
+    private boolean isContainer(String path) {
+        Node node = nodes.get(path);
+        return node != null && node.container;
+    }
+
+    private Map<String, Node> subtree(String path) {
+        boolean root = "/".equals(path);
+        // '0' is the character following '/'.
+        return nodes.subMap(root ? "/" : path + "/", !root, root ? "0" : path + "0",
+                false);
+    }
+
+    private List<String> children(Node node) {
+        List<String> children = new ArrayList<String>();
+        String prefix = "/".equals(node.path) ? "/" : node.path + "/";
+        for (Node child : subtree(node.path).values()) {
+            String name = child.path.substring(prefix.length());
+            if (name.indexOf('/') < 0) {
+                children.add(child.container ? name + "/" : name);
+            }
+        }
+        return children;
+    }
+
+    private static Map<String, Object> describe(Node node) {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        String name;
+        String parentURI;
+        if ("/".equals(node.path)) {
+            name = "/";
+            parentURI = "";
+        } else {
+            int slash = node.path.lastIndexOf('/');
+            name = node.path.substring(slash + 1) + (node.container ? "/" : "");
+            parentURI = node.path.substring(0, slash + 1);
+        }
+        result.put("objectType", type(node));
+        result.put("objectID", node.objectID);
+        result.put("objectName", name);
+        result.put("parentURI", parentURI);
+        result.put("capabilitiesURI", node.container ? "/cdmi_capabilities/container/"
+                : "/cdmi_capabilities/dataobject/");
+        if (!node.container) {
+            result.put("valuetransferencoding", "base64");
+        }
+        Map<String, Object> metadata = new LinkedHashMap<String, Object>();
+        if (!node.container) {
+            metadata.put("cdmi_size", String.valueOf(node.data.length));
+        }
+        metadata.put("cdmi_mtime", formatTime(node.mtime));
+        metadata.put("cdmi_atime", formatTime(node.atime));
+        metadata.putAll(node.metadata);
+        result.put("metadata", metadata);
+        return result;
+    }
+
+    private static void updateMetadata(Node node, Map<String, Object> entity) {
+        Object metadata = entity.get("metadata");
+        if (metadata instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) metadata).entrySet()) {
+                node.metadata.put(String.valueOf(entry.getKey()),
+                        String.valueOf(entry.getValue()));
+            }
+        }
+    }
+
+    private static byte[] decodeValue(Map<String, Object> entity)
+            throws IOException {
+        Object value = entity.get("value");
+        if (value == null) {
+            return new byte[0];
+        }
+        if ("base64".equals(entity.get("valuetransferencoding"))) {
+            return Base64.decodeBase64(value.toString());
+        }
+        return value.toString().getBytes("UTF-8");
+    }
+
+    private static String encode(byte[] data) throws IOException {
+        return new String(Base64.encodeBase64(data), "US-ASCII");
+    }
+
+    private static Map<String, Object> capabilities() {
+        Map<String, Object> capabilities = new LinkedHashMap<String, Object>();
+        capabilities.put("cdmi_list_children", "true");
+        capabilities.put("cdmi_list_children_range", "true");
+        capabilities.put("cdmi_read_value_range", "true");
+        capabilities.put("cdmi_modify_value_range", "true");
+        capabilities.put("cdmi_move_container", "true");
+        capabilities.put("cdmi_move_dataobject", "true");
+        capabilities.put("cdmi_copy_dataobject", "true");
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("objectType", CdmiTypes.CDMI_CAPABILITY);
+        result.put("objectName", "cdmi_capabilities/");
+        result.put("parentURI", "/");
+        result.put("capabilities", capabilities);
+        return result;
+    }
+
+    /**
+     * Parse a "start-end" or "start-" range following a prefix.
+     * 
+     * @return the first and last positions included, or null if the range
+     *         starts past the end.
+     */
+    private static int[] parseRange(String range, String prefix, int size) {
+        String[] bounds = range.substring(prefix.length()).trim().split("-", -1);
+        int start = Integer.parseInt(bounds[0]);
+        int end = bounds.length > 1 && !bounds[1].isEmpty() ? Integer
+                .parseInt(bounds[1]) : size - 1;
+        if (start >= size) {
+            return null;
+        }
+        return new int[] { start, Math.min(end, size - 1) };
+    }
+
+    private static String type(Node node) {
+        return node.container ? CdmiTypes.CDMI_CONTAINER : CdmiTypes.CDMI_OBJECT;
+    }
+
+    /**
+     * Revert the escaping done by
+     * {@link com.scality.cdmi.api.RequestFactory#URIEscapeString(String)}.
+     */
+    private static String unescape(String key) {
+        return key.replace("/<dot>", "/.").replace("%25", "%");
+    }
+
+    /**
+     * @return the key of a path in the map of nodes: no duplicate or trailing
+     *         slashes, except for the root container.
+     */
+    private static String normalize(String path) {
+        String result = path.replaceAll("/+", "/");
+        if (!result.startsWith("/")) {
+            result = "/" + result;
+        }
+        if (result.length() > 1 && result.endsWith("/")) {
+            result = result.substring(0, result.length() - 1);
+        }
+        return result;
+    }
+
+    private static String parent(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash <= 0 ? "/" : path.substring(0, slash);
+    }
+
+    private static String formatTime(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat(
+                "yyyy-MM-dd'T'HH:mm:ss.SSS'000Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(millis));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> parse(byte[] body) throws IOException {
+        if (body.length == 0) {
+            return new HashMap<String, Object>();
+        }
+        return MAPPER.readValue(body, Map.class);
+    }
+
+    private static Response json(int status, String type, Object value)
+            throws IOException {
+        return new Response(status, MAPPER.writeValueAsBytes(value)).header(
+                "Content-Type", type).header(CDMI_VERSION_HEADER, "1.0.1");
+    }
+
+    private byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[CHUNK_SIZE];
+        long start = System.nanoTime();
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            out.write(chunk, 0, read);
+            throttle(start, out.size());
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private void send(HttpExchange exchange, Response response)
+            throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            headers.set(header.getKey(), header.getValue());
+        }
+        byte[] body = response.body;
+        if (body == null || body.length == 0
+                || "HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(response.status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(response.status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        long start = System.nanoTime();
+        for (int offset = 0; offset < body.length; offset += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, body.length - offset);
+            out.write(body, offset, length);
+            out.flush();
+            throttle(start, offset + length);
+        }
+        out.close();
+    }
+
+    /**
+     * Sleep until the transfer of the given number of bytes since the start
+     * fits within the bandwidth.
+     */
+    private void throttle(long startNanos, long bytes) {
+        long bandwidth = bytesPerSecond;
+        if (bandwidth > 0) {
+            long elapsed = (System.nanoTime() - startNanos) / 1000000;
+            sleep(bytes * 1000 / bandwidth - elapsed);
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
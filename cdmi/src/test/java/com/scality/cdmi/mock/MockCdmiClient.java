@@ -39,6 +39,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -164,6 +165,13 @@ public class MockCdmiClient implements CdmiClient {
         return is;
     }
 
+    @Override
+    public CdmiInputStream openObjectID(String objectID, long startPos,
+            int maxRead) throws IOException {
+        // The mock uses the keys as object IDs.
+        return open(objectID, startPos, maxRead);
+    }
+
     @Override
     public CdmiOutputStream write(String key, long startPos) throws IOException {
         if (!remoteFiles.containsKey(key)) {
@@ -174,6 +182,12 @@ public class MockCdmiClient implements CdmiClient {
         return os;
     }
 
+    @Override
+    public CdmiOutputStream writeObjectID(String objectID, long startPos)
+            throws IOException {
+        return write(objectID, startPos);
+    }
+
     @Override
     public CdmiOutputStream append(String key) throws IOException {
         if (!remoteFiles.containsKey(key)) {
@@ -183,6 +197,14 @@ public class MockCdmiClient implements CdmiClient {
         return this.write(key, outputFile.length());
     }
 
+    @Override
+    public String getObjectID(String key) throws IOException {
+        if (remoteFiles.containsKey(key)) {
+            return key;
+        }
+        throw new FileNotFoundException(key);
+    }
+
     @Override
     public boolean delete(String key, boolean recursive) throws IOException {
         if (remoteFiles.containsKey(key)) {
@@ -340,6 +362,19 @@ public class MockCdmiClient implements CdmiClient {
         }
     }
 
+    @Override
+    public Iterator<String> listChildren(String key) throws IOException {
+        if (!remoteDirs.contains(getContainerKey(key))) {
+            throw new FileNotFoundException(key);
+        }
+        ArrayList<String> result = new ArrayList<String>();
+        for (FileMetadata meta : listMetadata(key)) {
+            String name = KeyUtils.getBaseName(meta.getKey());
+            result.add(meta.isContainer() ? name + "/" : name);
+        }
+        return result.iterator();
+    }
+
     @Override
     public FileMetadata[] listMetadata(String key) throws IOException {
         ArrayList<FileMetadata> result = new ArrayList<FileMetadata>();
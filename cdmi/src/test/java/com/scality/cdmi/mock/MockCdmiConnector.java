@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2013 SCALITY SA. All rights reserved.
+ * http://www.scality.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY SCALITY SA ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL SCALITY SA OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of SCALITY SA.
+ *
+ * https://github.com/scality/CaDMIum
+ */
+package com.scality.cdmi.mock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+
+import com.scality.cdmi.api.CdmiConnectionException;
+import com.scality.cdmi.api.RequestFactory;
+import com.scality.cdmi.api.RetryStrategy;
+import com.scality.cdmi.connector.CdmiConnector;
+import com.scality.cdmi.connector.CdmiTypes;
+
+/**
+ * A mock {@link CdmiConnector} storing data objects in memory. Only the
+ * operations used by the streams are supported: metadata reads and nonCDMI
+ * ranged reads and writes. It also records the number of requests and the
+ * maximum number of requests that were running concurrently.
+ */
+public class MockCdmiConnector extends CdmiConnector {
+    private final TreeMap<String, byte[]> objects;
+    private final TreeMap<String, String> objectIDs;
+    private int lastObjectID;
+    private final long latencyMillis;
+    private final AtomicInteger requests;
+    private final AtomicInteger inflight;
+    private final AtomicInteger maxInflight;
+
+    /**
+     * Constructor.
+     * 
+     * @param multiThreaded
+     *            whether the connector allows concurrent requests.
+     * @param latencyMillis
+     *            the time spent in each read or write request.
+     */
+    public MockCdmiConnector(boolean multiThreaded, long latencyMillis) {
+        super(RequestFactory.newCdmiFactory(URI.create("http://mock:80"), "1.0.1"),
+                null, new RetryStrategy(), multiThreaded);
+        this.objects = new TreeMap<String, byte[]>();
+        this.objectIDs = new TreeMap<String, String>();
+        this.latencyMillis = latencyMillis;
+        this.requests = new AtomicInteger();
+        this.inflight = new AtomicInteger();
+        this.maxInflight = new AtomicInteger();
+    }
+
+    /**
+     * Store a new data object, replacing any data object of the same name.
+     * 
+     * @param path
+     *            the name of the data object.
+     * @param data
+     *            the contents of the data object.
+     */
+    public synchronized void putObject(String path, byte[] data) {
+        String objectID = String.format("%032x", ++lastObjectID);
+        objectIDs.values().removeAll(Collections.singleton(path));
+        objects.put(path, data);
+        objectIDs.put(objectID, path);
+    }
+
+    /**
+     * @param path
+     *            the name of the data object.
+     * @return the contents of the data object, or null if it does not exist.
+     */
+    public synchronized byte[] getObject(String path) {
+        return objects.get(resolve(path));
+    }
+
+    /**
+     * @return the number of requests received.
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the maximum number of requests running at the same time.
+     */
+    public int getMaxInflight() {
+        return maxInflight.get();
+    }
+
+    private String resolve(String path) {
+        if (path.startsWith("cdmi_objectid/")) {
+            String key = objectIDs.get(path.substring("cdmi_objectid/".length()));
+            // Unknown object IDs are not found.
+            return key != null ? key : path;
+        }
+        return path;
+    }
+
+    private static HttpResponse newResponse(int status, byte[] body) {
+        HttpResponse response = new BasicHttpResponse(new BasicStatusLine(
+                HttpVersion.HTTP_1_1, status, null));
+        response.setEntity(new ByteArrayEntity(body != null ? body : new byte[0]));
+        return response;
+    }
+
+    private void enter() {
+        requests.incrementAndGet();
+        int current = inflight.incrementAndGet();
+        int max;
+        while ((max = maxInflight.get()) < current
+                && !maxInflight.compareAndSet(max, current)) {
+        }
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void leave() {
+        inflight.decrementAndGet();
+    }
+
+    private String objectID(String path) {
+        for (Map.Entry<String, String> entry : objectIDs.entrySet()) {
+            if (entry.getValue().equals(path)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    private byte[] toJson(String path, byte[] data) {
+        String objectID = objectID(path);
+        String json = "{\"objectType\": \"" + CdmiTypes.CDMI_OBJECT + "\","
+                + " \"objectID\": \"" + objectID + "\","
+                + " \"objectName\": \"" + path.substring(path.lastIndexOf('/') + 1) + "\","
+                + " \"parentURI\": \"" + path.substring(0, path.lastIndexOf('/') + 1) + "\","
+                + " \"capabilitiesURI\": \"/cdmi_capabilities/dataobject/\","
+                + " \"valuetransferencoding\": \"base64\","
+                + " \"metadata\": {\"cdmi_size\": " + data.length + ","
+                + " \"cdmi_mtime\": \"2013-01-01T00:00:00.000000Z\","
+                + " \"cdmi_atime\": \"2013-01-01T00:00:00.000000Z\"}}";
+        return json.getBytes();
+    }
+
+    @Override
+    public HttpResponse readMetadata(String path, String[] metadatafields)
+            throws CdmiConnectionException {
+        requests.incrementAndGet();
+        synchronized (this) {
+            byte[] data = objects.get(resolve(path));
+            if (data == null) {
+                return newResponse(HttpStatus.SC_NOT_FOUND, null);
+            }
+            return newResponse(HttpStatus.SC_OK, toJson(resolve(path), data));
+        }
+    }
+
+    @Override
+    public HttpResponse readObjectNonCdmi(String dataObjectPath, long offset,
+            long length) throws CdmiConnectionException {
+        enter();
+        try {
+            byte[] data = getObject(dataObjectPath);
+            if (data == null) {
+                return newResponse(HttpStatus.SC_NOT_FOUND, null);
+            }
+            if (offset >= data.length) {
+                return newResponse(HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE, null);
+            }
+            int end = length < 0 ? data.length : (int) Math.min(data.length, offset + length);
+            HttpResponse response = newResponse(HttpStatus.SC_PARTIAL_CONTENT,
+                    Arrays.copyOfRange(data, (int) offset, end));
+            response.addHeader("Content-Range",
+                    String.format("bytes %d-%d/%d", offset, end - 1, data.length));
+            return response;
+        } finally {
+            leave();
+        }
+    }
+
+    @Override
+    public HttpResponse updateObjectNonCdmi(String dataObjectPath, long offset,
+            long length, byte[] data) throws CdmiConnectionException {
+        enter();
+        try {
+            synchronized (this) {
+                String path = resolve(dataObjectPath);
+                byte[] current = objects.get(path);
+                if (current == null) {
+                    return newResponse(HttpStatus.SC_NOT_FOUND, null);
+                }
+                if (current.length < offset + length) {
+                    current = Arrays.copyOf(current, (int) (offset + length));
+                }
+                System.arraycopy(data, 0, current, (int) offset, (int) length);
+                objects.put(path, current);
+            }
+            return newResponse(HttpStatus.SC_NO_CONTENT, null);
+        } finally {
+            leave();
+        }
+    }
+
+    @Override
+    public HttpResponse updateObjectNonCdmi(String dataObjectPath, long offset,
+            long length, File file, long fileOffset)
+            throws CdmiConnectionException {
+        byte[] data = new byte[(int) length];
+        try {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                in.seek(fileOffset);
+                in.readFully(data);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new CdmiConnectionException(e);
+        }
+        return updateObjectNonCdmi(dataObjectPath, offset, length, data);
+    }
+
+    @Override
+    public HttpResponse updateObjectNonCdmi(String dataObjectPath, long offset,
+            ByteBuffer data) throws CdmiConnectionException {
+        byte[] contents = new byte[data.remaining()];
+        data.duplicate().get(contents);
+        return updateObjectNonCdmi(dataObjectPath, offset, contents.length, contents);
+    }
+
+    @Override
+    public HttpResponse createEmptyObject(String dataObjectPath, boolean binary)
+            throws CdmiConnectionException {
+        requests.incrementAndGet();
+        synchronized (this) {
+            if (objects.containsKey(dataObjectPath)) {
+                return newResponse(HttpStatus.SC_NO_CONTENT, null);
+            }
+            putObject(dataObjectPath, new byte[0]);
+        }
+        return newResponse(HttpStatus.SC_CREATED, null);
+    }
+
+    @Override
+    public HttpResponse createObject(String dataObjectPath, byte[] data)
+            throws CdmiConnectionException {
+        requests.incrementAndGet();
+        synchronized (this) {
+            if (objects.containsKey(dataObjectPath)) {
+                return newResponse(HttpStatus.SC_PRECONDITION_FAILED, null);
+            }
+            putObject(dataObjectPath, data);
+            return newResponse(HttpStatus.SC_CREATED, toJson(dataObjectPath, data));
+        }
+    }
+
+    @Override
+    public HttpResponse moveObject(String srcObjectPath, String destObjectPath)
+            throws CdmiConnectionException {
+        requests.incrementAndGet();
+        synchronized (this) {
+            byte[] data = objects.remove(srcObjectPath);
+            if (data == null) {
+                return newResponse(HttpStatus.SC_NOT_FOUND, null);
+            }
+            objects.put(destObjectPath, data);
+            for (Map.Entry<String, String> entry : objectIDs.entrySet()) {
+                if (entry.getValue().equals(srcObjectPath)) {
+                    entry.setValue(destObjectPath);
+                }
+            }
+        }
+        return newResponse(HttpStatus.SC_CREATED, null);
+    }
+
+    @Override
+    public HttpResponse delete(String path) throws CdmiConnectionException {
+        requests.incrementAndGet();
+        synchronized (this) {
+            if (objects.remove(path) == null) {
+                return newResponse(HttpStatus.SC_NOT_FOUND, null);
+            }
+            objectIDs.values().removeAll(Collections.singleton(path));
+        }
+        return newResponse(HttpStatus.SC_NO_CONTENT, null);
+    }
+
+    @Override
+    public void forceFlushCdmi(String dataObjectPath)
+            throws CdmiConnectionException {
+        requests.incrementAndGet();
+    }
+
+    @Override
+    public void forceFlushNonCdmi(String dataObjectPath)
+            throws CdmiConnectionException {
+        requests.incrementAndGet();
+    }
+}